@@ -0,0 +1,266 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.BufferedWriter;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedInputStream;
+import java.util.zip.CheckedOutputStream;
+
+// Versioned binary catalog snapshot.
+//
+//   "LMSB" magic, short version
+//   int n, then n strings (int byte length + UTF-8 bytes), each distinct string once
+//   int n, then n book records of RECORD_BYTES each:
+//       int id, int title, int author, int date, int category, int extra, byte kind, byte available
+//   int n, then n user records: int name, int userID
+//   long CRC32 of everything above
+//
+// Record fields are indexes into the string table, so a load allocates every distinct
+// author, category and date once and all books share those instances.
+class BinaryCatalogFormat {
+    static final int MAGIC = 0x4C4D5342;  // "LMSB"
+    static final short VERSION = 1;
+    static final int RECORD_BYTES = 26;
+
+    private static final byte KIND_BOOK = 0;
+    private static final byte KIND_FICTION = 1;
+    private static final byte KIND_NON_FICTION = 2;
+
+    // What a snapshot holds
+    static class Contents {
+        final List<Book> books;
+        final List<User> users;
+
+        Contents(List<Book> books, List<User> users) {
+            this.books = books;
+            this.users = users;
+        }
+    }
+
+    static void write(Path file, List<Book> books, List<User> users) throws IOException {
+        HashMap<String, Integer> ids = new HashMap<>();
+        ArrayList<String> table = new ArrayList<>();
+        int[] refs = new int[books.size() * 5];
+        int r = 0;
+        for (Book book : books) {
+            refs[r++] = ref(book.getTitle(), ids, table);
+            refs[r++] = ref(book.getAuthor(), ids, table);
+            refs[r++] = ref(book.getPublicationDate(), ids, table);
+            refs[r++] = ref(book.getCategory(), ids, table);
+            refs[r++] = ref(extra(book), ids, table);
+        }
+        int[] userRefs = new int[users.size() * 2];
+        int u = 0;
+        for (User user : users) {
+            userRefs[u++] = ref(user.getName(), ids, table);
+            userRefs[u++] = ref(user.getUserID(), ids, table);
+        }
+
+        CRC32 crc = new CRC32();
+        Path tmp = file.resolveSibling(file.getFileName() + ".tmp");
+        try (OutputStream fileOut = new BufferedOutputStream(Files.newOutputStream(tmp), 1 << 16)) {
+            DataOutputStream out = new DataOutputStream(new CheckedOutputStream(fileOut, crc));
+            out.writeInt(MAGIC);
+            out.writeShort(VERSION);
+            out.writeInt(table.size());
+            for (String s : table) {
+                byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+                out.writeInt(bytes.length);
+                out.write(bytes);
+            }
+            out.writeInt(books.size());
+            r = 0;
+            for (Book book : books) {
+                out.writeInt(book.getId());
+                for (int i = 0; i < 5; i++) {
+                    out.writeInt(refs[r++]);
+                }
+                out.writeByte(kind(book));
+                out.writeByte(book.isAvailable() ? 1 : 0);
+            }
+            out.writeInt(users.size());
+            for (int ref : userRefs) {
+                out.writeInt(ref);
+            }
+            out.flush();
+            // the checksum bypasses the checked stream, it covers everything before it
+            new DataOutputStream(fileOut).writeLong(crc.getValue());
+        }
+        Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    static Contents read(Path file) throws IOException {
+        try {
+            return readChecked(file);
+        } catch (EOFException | IndexOutOfBoundsException | NegativeArraySizeException e) {
+            throw new IOException("Snapshot is truncated or corrupt: " + file, e);
+        }
+    }
+
+    private static Contents readChecked(Path file) throws IOException {
+        long size = Files.size(file);
+        CRC32 crc = new CRC32();
+        try (DataInputStream raw = new DataInputStream(new BufferedInputStream(Files.newInputStream(file), 1 << 16));
+             DataInputStream in = new DataInputStream(new CheckedInputStream(raw, crc))) {
+            if (in.readInt() != MAGIC) {
+                throw new IOException("Not a binary catalog snapshot: " + file);
+            }
+            short version = in.readShort();
+            if (version != VERSION) {
+                throw new IOException("Unsupported snapshot version " + version + ": " + file);
+            }
+            String[] table = new String[count(in, size, file)];
+            byte[] buf = new byte[256];
+            for (int i = 0; i < table.length; i++) {
+                int len = in.readInt();
+                if (len > size) {
+                    throw new IOException("Snapshot is truncated or corrupt: " + file);
+                }
+                if (len > buf.length) {
+                    buf = new byte[Math.max(len, buf.length * 2)];
+                }
+                in.readFully(buf, 0, len);
+                table[i] = new String(buf, 0, len, StandardCharsets.UTF_8);
+            }
+            int bookCount = count(in, size, file);
+            ArrayList<Book> books = new ArrayList<>(bookCount);
+            byte[] record = new byte[RECORD_BYTES];
+            for (int i = 0; i < bookCount; i++) {
+                in.readFully(record);
+                books.add(decode(record, table));
+            }
+            int userCount = count(in, size, file);
+            ArrayList<User> users = new ArrayList<>(userCount);
+            for (int i = 0; i < userCount; i++) {
+                users.add(new User(table[in.readInt()], table[in.readInt()]));
+            }
+            long expected = crc.getValue();
+            if (raw.readLong() != expected) {
+                throw new IOException("Checksum mismatch, snapshot is corrupt: " + file);
+            }
+            return new Contents(books, users);
+        }
+    }
+
+    // A count can never exceed the file size; anything bigger means the header is damaged
+    private static int count(DataInputStream in, long size, Path file) throws IOException {
+        int n = in.readInt();
+        if (n < 0 || n > size) {
+            throw new IOException("Snapshot is truncated or corrupt: " + file);
+        }
+        return n;
+    }
+
+    private static Book decode(byte[] r, String[] table) {
+        int id = intAt(r, 0);
+        String title = table[intAt(r, 4)];
+        String author = table[intAt(r, 8)];
+        String date = table[intAt(r, 12)];
+        String category = table[intAt(r, 16)];
+        String extra = table[intAt(r, 20)];
+        Book book;
+        switch (r[24]) {
+            case KIND_FICTION:
+                book = new FictionBook(title, author, extra);
+                book.setCategory(category);
+                break;
+            case KIND_NON_FICTION:
+                book = new NonFictionBook(title, author, extra);
+                book.setCategory(category);
+                break;
+            default:
+                book = new Book(title, author, category);
+        }
+        book.setId(id);
+        book.setPublicationDate(date);
+        book.setAvailable(r[25] != 0);
+        return book;
+    }
+
+    private static int intAt(byte[] b, int off) {
+        return ((b[off] & 0xFF) << 24) | ((b[off + 1] & 0xFF) << 16) | ((b[off + 2] & 0xFF) << 8) | (b[off + 3] & 0xFF);
+    }
+
+    private static int ref(String s, HashMap<String, Integer> ids, ArrayList<String> table) {
+        String key = s == null ? "" : s;
+        Integer id = ids.get(key);
+        if (id == null) {
+            id = table.size();
+            ids.put(key, id);
+            table.add(key);
+        }
+        return id;
+    }
+
+    private static byte kind(Book book) {
+        if (book instanceof FictionBook) {
+            return KIND_FICTION;
+        }
+        if (book instanceof NonFictionBook) {
+            return KIND_NON_FICTION;
+        }
+        return KIND_BOOK;
+    }
+
+    private static String extra(Book book) {
+        if (book instanceof FictionBook) {
+            return ((FictionBook) book).getGenre();
+        }
+        if (book instanceof NonFictionBook) {
+            return ((NonFictionBook) book).getSubject();
+        }
+        return "";
+    }
+
+    // books.txt + users.txt -> binary snapshot. Text rows carry no IDs, so books are numbered in file order.
+    static void convertTextToBinary(Path booksTxt, Path usersTxt, Path out) throws IOException {
+        List<Book> books = CatalogLoader.readBooks(booksTxt);
+        for (int i = 0; i < books.size(); i++) {
+            books.get(i).setId(i + 1);
+        }
+        List<User> users = Files.exists(usersTxt) ? CatalogLoader.readUsers(usersTxt) : new ArrayList<>();
+        write(out, books, users);
+    }
+
+    // binary snapshot -> books.txt + users.txt, in the same layout saveBooks/saveUsers write
+    static void convertBinaryToText(Path in, Path booksTxt, Path usersTxt) throws IOException {
+        Contents contents = read(in);
+        try (BufferedWriter writer = Files.newBufferedWriter(booksTxt, StandardCharsets.UTF_8)) {
+            for (Book book : contents.books) {
+                writer.write(book.getTitle() + "|" + book.getAuthor() + "|" + book.getPublicationDate() + "|" + book.getCategory() + "|" + book.isAvailable());
+                writer.newLine();
+            }
+        }
+        try (BufferedWriter writer = Files.newBufferedWriter(usersTxt, StandardCharsets.UTF_8)) {
+            for (User user : contents.users) {
+                writer.write(user.getName() + "|" + user.getUserID());
+                writer.newLine();
+            }
+        }
+    }
+
+    // java BinaryCatalogFormat to-binary books.txt users.txt catalog.bin
+    // java BinaryCatalogFormat to-text catalog.bin books.txt users.txt
+    public static void main(String[] args) throws IOException {
+        if (args.length == 4 && args[0].equals("to-binary")) {
+            convertTextToBinary(Paths.get(args[1]), Paths.get(args[2]), Paths.get(args[3]));
+        } else if (args.length == 4 && args[0].equals("to-text")) {
+            convertBinaryToText(Paths.get(args[1]), Paths.get(args[2]), Paths.get(args[3]));
+        } else {
+            System.out.println("Usage: BinaryCatalogFormat to-binary <books.txt> <users.txt> <catalog.bin>");
+            System.out.println("       BinaryCatalogFormat to-text <catalog.bin> <books.txt> <users.txt>");
+        }
+    }
+}
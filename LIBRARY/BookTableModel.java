@@ -0,0 +1,46 @@
+import javax.swing.table.AbstractTableModel;
+import java.util.ArrayList;
+import java.util.List;
+
+// Table model for search results. It keeps a reference to the result list rather than a
+// copy, and JTable only renders the visible rows, so cell values are read lazily and a long
+// result costs no more to show than a short one.
+class BookTableModel extends AbstractTableModel {
+    private static final long serialVersionUID = 1L;
+    private static final String[] COLUMNS = {"Title", "Author", "Publication Date", "Category", "Available"};
+
+    private List<Book> results = new ArrayList<>();
+
+    public void setResults(List<Book> results) {
+        this.results = results;
+        fireTableDataChanged();
+    }
+
+    public void clear() {
+        setResults(new ArrayList<>());
+    }
+
+    public int getTotalCount() { return results.size(); }
+    public Book getBookAt(int row) { return results.get(row); }
+
+    @Override
+    public int getRowCount() { return results.size(); }
+
+    @Override
+    public int getColumnCount() { return COLUMNS.length; }
+
+    @Override
+    public String getColumnName(int column) { return COLUMNS[column]; }
+
+    @Override
+    public Object getValueAt(int row, int column) {
+        Book book = results.get(row);
+        switch (column) {
+            case 0: return book.getTitle();
+            case 1: return book.getAuthor();
+            case 2: return book.getPublicationDate();
+            case 3: return book.getCategory();
+            default: return book.isAvailable() ? "Yes" : "No";
+        }
+    }
+}
@@ -0,0 +1,536 @@
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.LocalDate;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+// Streaming import of a CSV or TSV catalog feed into a Library (local or a LibraryServer).
+//
+//   reader thread --chunks--> parser threads --parsed chunks--> applier (calling thread)
+//
+// Both queues are bounded, so a slow stage holds back the ones before it and the feed
+// is never fully in memory. The applier puts chunks back in file order and adds books
+// to the catalog in batches through addBooks (one lock and one cache flush per batch).
+// Rows that fail validation go to a reject file with their line number and the reason.
+//
+// Columns are taken from a header row when there is one (title, author, category,
+// publicationDate, available, type, genre, subject), otherwise they are
+//   title, author, publicationDate, category, available, type, genre/subject
+// type is book, fiction or nonfiction (default book). .tsv files are tab separated.
+class BulkImporter {
+    private static final int CHUNK_ROWS = 1000;
+    // A quoted field may span lines, but no more than this; see readRecord
+    private static final int MAX_RECORD_LINES = 100;
+    private static final int MAX_RECORD_CHARS = 64 * 1024;
+    private static final long PROGRESS_NANOS = 500_000_000L;
+    private static final String[] DEFAULT_COLUMNS = {"title", "author", "publicationdate", "category", "available", "type", "extra"};
+
+    private final Library lms;
+    private int parserThreads = Math.max(1, Runtime.getRuntime().availableProcessors() - 1);
+    private int batchSize = 10_000;
+    private int queueChunks = 16;
+    private ProgressListener progressListener;
+    private volatile boolean cancelled;
+
+    interface ProgressListener {
+        void progress(Result soFar);
+    }
+
+    // Counts for a finished (or running) import
+    static class Result {
+        long rowsRead;
+        long imported;
+        long rejected;
+        long elapsedNanos;
+
+        double rowsPerSecond() {
+            return elapsedNanos == 0 ? 0 : rowsRead / (elapsedNanos / 1e9);
+        }
+
+        @Override
+        public String toString() {
+            return String.format(Locale.ROOT, "%d rows read, %d imported, %d rejected in %.1f s (%.0f rows/s)",
+                    rowsRead, imported, rejected, elapsedNanos / 1e9, rowsPerSecond());
+        }
+    }
+
+    // Raw records of one chunk and the line each starts on
+    private static class Chunk {
+        final long seq;
+        final long[] lineNumbers = new long[CHUNK_ROWS];
+        final List<String> records = new ArrayList<>(CHUNK_ROWS);
+
+        Chunk(long seq) { this.seq = seq; }
+
+        void add(long lineNumber, String record) {
+            lineNumbers[records.size()] = lineNumber;
+            records.add(record);
+        }
+    }
+
+    private static class ParsedChunk {
+        final long seq;
+        final List<Book> books = new ArrayList<>();
+        final List<String> rejects = new ArrayList<>();
+        final int rows;
+
+        ParsedChunk(long seq, int rows) {
+            this.seq = seq;
+            this.rows = rows;
+        }
+    }
+
+    private static final Chunk END = new Chunk(-1);
+    private static final ParsedChunk PARSER_DONE = new ParsedChunk(-1, 0);
+
+    BulkImporter(Library lms) {
+        this.lms = lms;
+    }
+
+    public BulkImporter setParserThreads(int parserThreads) { this.parserThreads = Math.max(1, parserThreads); return this; }
+    public BulkImporter setBatchSize(int batchSize) { this.batchSize = Math.max(1, batchSize); return this; }
+    public BulkImporter setProgressListener(ProgressListener progressListener) { this.progressListener = progressListener; return this; }
+
+    // Stops a running import after the batch in progress; books already applied stay
+    public void cancel() { cancelled = true; }
+
+    // Import feed; rejected rows are written to rejectFile (created only if there are any)
+    public Result importFeed(Path feed, Path rejectFile) throws IOException {
+        char separator = feed.getFileName().toString().toLowerCase(Locale.ROOT).endsWith(".tsv") ? '\t' : ',';
+        BlockingQueue<Chunk> raw = new ArrayBlockingQueue<>(queueChunks);
+        BlockingQueue<ParsedChunk> parsed = new ArrayBlockingQueue<>(queueChunks);
+        ConcurrentHashMap<String, String> pool = new ConcurrentHashMap<>();
+        Map<String, Integer> columns = new HashMap<>();
+        IOException[] readError = new IOException[1];
+        Result result = new Result();
+        long start = System.nanoTime();
+
+        try (BufferedReader reader = Files.newBufferedReader(feed, StandardCharsets.UTF_8)) {
+            // Header (or the first data row, which then goes to the parsers with the rest)
+            long[] lineNumber = {0};
+            String first = readRecord(reader, separator, lineNumber);
+            boolean header = first != null && isHeader(split(first, separator));
+            if (header) {
+                String[] names = split(first, separator);
+                for (int i = 0; i < names.length; i++) {
+                    columns.put(columnName(names[i]), i);
+                }
+            } else {
+                for (int i = 0; i < DEFAULT_COLUMNS.length; i++) {
+                    columns.put(DEFAULT_COLUMNS[i], i);
+                }
+            }
+            String pending = header ? null : first;
+
+            Thread readerThread = new Thread(() -> {
+                long seq = 0;
+                try {
+                    Chunk chunk = new Chunk(seq++);
+                    if (pending != null) {
+                        chunk.add(1, pending);
+                    }
+                    while (!cancelled) {
+                        long line = lineNumber[0] + 1;
+                        String record = readRecord(reader, separator, lineNumber);
+                        if (record == null) {
+                            break;
+                        }
+                        chunk.add(line, record);
+                        if (chunk.records.size() == CHUNK_ROWS) {
+                            raw.put(chunk);
+                            chunk = new Chunk(seq++);
+                        }
+                    }
+                    if (!chunk.records.isEmpty()) {
+                        raw.put(chunk);
+                    }
+                } catch (IOException e) {
+                    if (!cancelled) {
+                        readError[0] = e;
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                } finally {
+                    for (int i = 0; i < parserThreads; i++) {
+                        try {
+                            raw.put(END);
+                        } catch (InterruptedException e) {
+                            Thread.currentThread().interrupt();
+                        }
+                    }
+                }
+            }, "import-reader");
+
+            List<Thread> parsers = new ArrayList<>();
+            for (int i = 0; i < parserThreads; i++) {
+                Thread parser = new Thread(() -> {
+                    try {
+                        Chunk chunk;
+                        while ((chunk = raw.take()) != END) {
+                            parsed.put(parse(chunk, separator, columns, pool));
+                        }
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    } finally {
+                        // the applier counts these, so it must get one however the parser ends
+                        try {
+                            parsed.put(PARSER_DONE);
+                        } catch (InterruptedException e) {
+                            Thread.currentThread().interrupt();
+                        }
+                    }
+                }, "import-parser-" + i);
+                parsers.add(parser);
+            }
+            readerThread.setDaemon(true);
+            readerThread.start();
+            for (Thread parser : parsers) {
+                parser.setDaemon(true);
+                parser.start();
+            }
+
+            BufferedWriter rejects = null;
+            try {
+                // Apply in file order; chunks that arrive early wait in reorder
+                TreeMap<Long, ParsedChunk> reorder = new TreeMap<>();
+                ArrayList<Book> batch = new ArrayList<>(batchSize);
+                long nextSeq = 0;
+                long lastProgress = start;
+                int running = parserThreads;
+                while (running > 0) {
+                    ParsedChunk chunk = parsed.poll(100, TimeUnit.MILLISECONDS);
+                    if (chunk == null) {
+                        continue;
+                    }
+                    if (chunk == PARSER_DONE) {
+                        running--;
+                        continue;
+                    }
+                    reorder.put(chunk.seq, chunk);
+                    while (!reorder.isEmpty() && reorder.firstKey() == nextSeq) {
+                        ParsedChunk next = reorder.pollFirstEntry().getValue();
+                        nextSeq++;
+                        result.rowsRead += next.rows;
+                        result.rejected += next.rejects.size();
+                        if (!next.rejects.isEmpty() && rejectFile != null) {
+                            if (rejects == null) {
+                                rejects = Files.newBufferedWriter(rejectFile, StandardCharsets.UTF_8);
+                                rejects.write("# line\treason\trecord");
+                                rejects.newLine();
+                            }
+                            for (String reject : next.rejects) {
+                                rejects.write(reject);
+                                rejects.newLine();
+                            }
+                        }
+                        for (Book book : next.books) {
+                            batch.add(book);
+                            if (batch.size() == batchSize) {
+                                result.imported += apply(batch);
+                            }
+                        }
+                    }
+                    long now = System.nanoTime();
+                    if (progressListener != null && now - lastProgress >= PROGRESS_NANOS) {
+                        result.elapsedNanos = now - start;
+                        progressListener.progress(result);
+                        lastProgress = now;
+                    }
+                    if (cancelled) {
+                        break;
+                    }
+                }
+                if (!cancelled) {
+                    result.imported += apply(batch);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Import interrupted");
+            } finally {
+                cancelled = cancelled || Thread.currentThread().isInterrupted();
+                readerThread.interrupt();
+                for (Thread parser : parsers) {
+                    parser.interrupt();
+                }
+                if (rejects != null) {
+                    rejects.close();
+                }
+                try {
+                    readerThread.join(1000);  // it checks cancelled between records
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        }
+        if (readError[0] != null) {
+            throw readError[0];
+        }
+        result.elapsedNanos = System.nanoTime() - start;
+        if (progressListener != null) {
+            progressListener.progress(result);
+        }
+        return result;
+    }
+
+    private int apply(ArrayList<Book> batch) {
+        int n = batch.size();
+        if (n > 0) {
+            lms.addBooks(batch);
+            batch.clear();
+        }
+        return n;
+    }
+
+    // Parser stage: split, validate and build books for one chunk
+    private static ParsedChunk parse(Chunk chunk, char separator, Map<String, Integer> columns,
+                                     ConcurrentHashMap<String, String> pool) {
+        ParsedChunk out = new ParsedChunk(chunk.seq, chunk.records.size());
+        for (int i = 0; i < chunk.records.size(); i++) {
+            String record = chunk.records.get(i);
+            if (record.trim().isEmpty()) {
+                continue;
+            }
+            try {
+                out.books.add(parseRow(record, separator, columns, pool));
+            } catch (RuntimeException e) {
+                // anything parseRow did not expect is still just this row's problem
+                String reason = e instanceof IllegalArgumentException ? e.getMessage() : e.toString();
+                out.rejects.add(chunk.lineNumbers[i] + "\t" + reason + "\t" + record.replace("\n", "\\n"));
+            }
+        }
+        return out;
+    }
+
+    // One row to a book; IllegalArgumentException with the reason if the row is invalid
+    private static Book parseRow(String record, char separator, Map<String, Integer> columns,
+                                 ConcurrentHashMap<String, String> pool) {
+        if (openQuote(record, separator)) {
+            throw new IllegalArgumentException("unterminated quoted field");
+        }
+        String[] f = split(record, separator);
+        String title = field(f, columns, "title");
+        String author = field(f, columns, "author");
+        String category = field(f, columns, "category");
+        String date = field(f, columns, "publicationdate");
+        String available = field(f, columns, "available").toLowerCase(Locale.ROOT);
+        String type = field(f, columns, "type").toLowerCase(Locale.ROOT).replace("-", "").replace(" ", "");
+        String extra = field(f, columns, "extra");
+
+        String reason = null;
+        if (title.trim().isEmpty()) {
+            reason = "missing title";
+        } else if (author.trim().isEmpty()) {
+            reason = "missing author";
+        } else if (!date.isEmpty() && !isDate(date)) {
+            reason = "bad publication date '" + date + "'";
+        } else if (!available.isEmpty() && !available.matches("true|false|yes|no|1|0")) {
+            reason = "bad available flag '" + available + "'";
+        } else if (!type.isEmpty() && !type.matches("book|fiction|nonfiction")) {
+            reason = "unknown type '" + type + "'";
+        }
+        if (reason != null) {
+            throw new IllegalArgumentException(reason);
+        }
+
+        Book book;
+        author = pool.computeIfAbsent(author, k -> k);
+        if (type.equals("fiction")) {
+            book = new FictionBook(title, author, pool.computeIfAbsent(extra, k -> k));
+        } else if (type.equals("nonfiction")) {
+            book = new NonFictionBook(title, author, pool.computeIfAbsent(extra, k -> k));
+        } else {
+            book = new Book(title, author, pool.computeIfAbsent(category, k -> k));
+        }
+        if (!category.isEmpty() && !type.isEmpty() && !type.equals("book")) {
+            book.setCategory(pool.computeIfAbsent(category, k -> k));
+        }
+        book.setPublicationDate(pool.computeIfAbsent(date, k -> k));
+        book.setAvailable(available.isEmpty() || available.equals("true") || available.equals("yes") || available.equals("1"));
+        return book;
+    }
+
+    private static boolean isDate(String date) {
+        try {
+            return LocalDate.parse(date).toString().equals(date);
+        } catch (DateTimeParseException e) {
+            return false;
+        }
+    }
+
+    private static String field(String[] f, Map<String, Integer> columns, String name) {
+        Integer i = columns.get(name);
+        return i == null || i >= f.length ? "" : f[i];
+    }
+
+    private static boolean isHeader(String[] fields) {
+        for (String f : fields) {
+            if (columnName(f).equals("title")) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static String columnName(String name) {
+        String n = name.trim().toLowerCase(Locale.ROOT).replace("_", "").replace(" ", "");
+        switch (n) {
+            case "date":
+            case "published":
+                return "publicationdate";
+            case "genre":
+            case "subject":
+                return "extra";
+            default:
+                return n;
+        }
+    }
+
+    // One logical record; a quoted field may span lines. If the quote is still open after
+    // MAX_RECORD_LINES lines or MAX_RECORD_CHARS characters, or at the end of the feed, it is
+    // taken to be a stray quote in an unquoted field: the first line comes back on its own
+    // (parseRow rejects it as unterminated) and reading carries on from the line after it,
+    // so one bad quote cannot swallow the rest of the feed into a single record.
+    private static String readRecord(BufferedReader reader, char separator, long[] lineNumber) throws IOException {
+        String line = reader.readLine();
+        if (line == null) {
+            return null;
+        }
+        lineNumber[0]++;
+        if (!openQuote(line, separator)) {
+            return line;
+        }
+        reader.mark(MAX_RECORD_CHARS);
+        StringBuilder sb = new StringBuilder(line);
+        int lines = 1;
+        long read = 0;
+        while (true) {
+            String next = reader.readLine();
+            read += next == null ? 0 : next.length() + 2;  // at most a CR LF per line
+            if (next == null || ++lines > MAX_RECORD_LINES || read > MAX_RECORD_CHARS) {
+                try {
+                    reader.reset();
+                } catch (IOException e) {
+                    // a single line longer than the mark limit: reject everything read so far
+                    lineNumber[0] += lines - 1;
+                    return sb.append('\n').append(next).toString();
+                }
+                return line;
+            }
+            sb.append('\n').append(next);
+            if (!openQuote(sb, separator)) {
+                lineNumber[0] += lines - 1;
+                return sb.toString();
+            }
+        }
+    }
+
+    // Whether the record ends inside a quoted field, by the rules split uses: a quote only
+    // opens a field at its start (so 12" in an unquoted field is just a character)
+    private static boolean openQuote(CharSequence record, char separator) {
+        boolean quoted = false;
+        boolean empty = true;  // nothing in the current field yet
+        for (int i = 0; i < record.length(); i++) {
+            char c = record.charAt(i);
+            if (quoted) {
+                if (c != '"') {
+                    empty = false;
+                } else if (i + 1 < record.length() && record.charAt(i + 1) == '"') {
+                    empty = false;
+                    i++;
+                } else {
+                    quoted = false;
+                }
+            } else if (c == '"' && empty) {
+                quoted = true;
+            } else {
+                empty = c == separator;
+            }
+        }
+        return quoted;
+    }
+
+    // RFC 4180 style split: fields may be quoted, "" inside quotes is a literal quote
+    static String[] split(String record, char separator) {
+        ArrayList<String> fields = new ArrayList<>();
+        StringBuilder field = new StringBuilder();
+        boolean quoted = false;
+        for (int i = 0; i < record.length(); i++) {
+            char c = record.charAt(i);
+            if (quoted) {
+                if (c == '"') {
+                    if (i + 1 < record.length() && record.charAt(i + 1) == '"') {
+                        field.append('"');
+                        i++;
+                    } else {
+                        quoted = false;
+                    }
+                } else {
+                    field.append(c);
+                }
+            } else if (c == '"' && field.length() == 0) {
+                quoted = true;
+            } else if (c == separator) {
+                fields.add(field.toString());
+                field.setLength(0);
+            } else {
+                field.append(c);
+            }
+        }
+        fields.add(field.toString());
+        return fields.toArray(new String[0]);
+    }
+
+    // java BulkImporter <feed.csv|feed.tsv> [--data-dir dir] [--rejects file] [--threads n] [--batch n]
+    // Imports into the journaled catalog in the data directory (default: current directory).
+    public static void main(String[] args) throws IOException {
+        if (args.length == 0) {
+            System.err.println("Usage: java BulkImporter <feed.csv|feed.tsv> [--data-dir dir] [--rejects file] [--threads n] [--batch n]");
+            System.exit(2);
+        }
+        Path feed = Paths.get(args[0]);
+        Path dataDir = Paths.get(".");
+        Path rejects = Paths.get(args[0] + ".rejects");
+        int threads = 0;
+        int batch = 0;
+        for (int i = 1; i + 1 < args.length; i += 2) {
+            switch (args[i]) {
+                case "--data-dir": dataDir = Paths.get(args[i + 1]); break;
+                case "--rejects": rejects = Paths.get(args[i + 1]); break;
+                case "--threads": threads = Integer.parseInt(args[i + 1]); break;
+                case "--batch": batch = Integer.parseInt(args[i + 1]); break;
+                default: throw new IllegalArgumentException("Unknown option " + args[i]);
+            }
+        }
+        LibraryManagementSystem lms = new LibraryManagementSystem(dataDir);
+        lms.openJournal(dataDir);
+        BulkImporter importer = new BulkImporter(lms)
+                .setProgressListener(r -> System.out.println("... " + r));
+        if (threads > 0) {
+            importer.setParserThreads(threads);
+        }
+        if (batch > 0) {
+            importer.setBatchSize(batch);
+        }
+        Result result = importer.importFeed(feed, rejects);
+        lms.closeJournal();
+        System.out.println("Import finished: " + result);
+        if (result.rejected > 0) {
+            System.out.println("Rejected rows written to " + rejects);
+        }
+    }
+}
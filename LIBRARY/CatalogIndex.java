@@ -0,0 +1,451 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.TreeMap;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.function.Predicate;
+
+// Catalog index used by LibraryManagementSystem.searchBooks
+// - trigram inverted index for substring matching on title and author
+// - hash indexes on category and availability
+// - sorted index on publication date
+// Posting lists hold book IDs, which are handed out in insertion order, so
+// results come back in the same order as the books list.
+// Title, author and category are indexed and matched by their folded keys (TextKeys),
+// so matching ignores case, Unicode form and stray whitespace.
+class CatalogIndex {
+    private static final int GRAM = 3;
+    private static final int CANCEL_CHECK = 4096;  // candidates between interrupt checks, a power of two
+
+    private final ArrayList<Book> docs = new ArrayList<>();   // book id -> book (null if absent)
+    private final HashMap<String, PostingList> titleGrams = new HashMap<>();
+    private final HashMap<String, PostingList> authorGrams = new HashMap<>();
+    private final HashMap<String, PostingList> categories = new HashMap<>();
+    private final TreeMap<String, PostingList> publicationDates = new TreeMap<>();
+    private final BitSet live = new BitSet();
+    private final AtomicBits available = new AtomicBits();
+
+    public void add(Book book) {
+        int id = book.getId();
+        if (live.get(id)) {
+            return;
+        }
+        while (docs.size() <= id) {
+            docs.add(null);
+        }
+        docs.set(id, book);
+        live.set(id);
+        available.ensureCapacity(id);
+        available.set(id, book.isAvailable());
+        for (String gram : grams(book.getTitleKey())) {
+            titleGrams.computeIfAbsent(gram, g -> new PostingList()).add(id);
+        }
+        for (String gram : grams(book.getAuthorKey())) {
+            authorGrams.computeIfAbsent(gram, g -> new PostingList()).add(id);
+        }
+        addTo(categories, book.getCategoryKey(), id);
+        addTo(publicationDates, book.getPublicationDate(), id);
+    }
+
+    public void remove(Book book) {
+        int id = book.getId();
+        if (!contains(book)) {
+            return;
+        }
+        docs.set(id, null);
+        live.clear(id);
+        available.set(id, false);
+        for (String gram : grams(book.getTitleKey())) {
+            removeFrom(titleGrams, gram, id);
+        }
+        for (String gram : grams(book.getAuthorKey())) {
+            removeFrom(authorGrams, gram, id);
+        }
+        removeFrom(categories, book.getCategoryKey(), id);
+        removeFrom(publicationDates, book.getPublicationDate(), id);
+    }
+
+    public void availabilityChanged(Book book) {
+        int id = book.getId();
+        if (contains(book)) {
+            available.set(id, book.isAvailable());
+        }
+    }
+
+    public void categoryChanged(Book book, String oldCategory) {
+        int id = book.getId();
+        if (contains(book)) {
+            removeFrom(categories, TextKeys.fold(oldCategory), id);
+            addTo(categories, book.getCategoryKey(), id);
+        }
+    }
+
+    public void publicationDateChanged(Book book, String oldDate) {
+        int id = book.getId();
+        if (contains(book)) {
+            removeFrom(publicationDates, oldDate, id);
+            addTo(publicationDates, book.getPublicationDate(), id);
+        }
+    }
+
+    private boolean contains(Book book) {
+        int id = book.getId();
+        return id < docs.size() && docs.get(id) == book;
+    }
+
+    // Same matching rules as the old stream filter, but only the intersected
+    // posting lists are checked. Publication dates are matched by prefix through
+    // the sorted index (a full YYYY-MM-DD, a year, or a year-month).
+    public ArrayList<Book> search(String title, String author, String category, String publicationDate, Boolean isAvailable) {
+        return search(title, author, category, publicationDate, isAvailable, Integer.MAX_VALUE);
+    }
+
+    // Same as above, but stops after the first limit matches (in ID order)
+    public ArrayList<Book> search(String title, String author, String category, String publicationDate, Boolean isAvailable, int limit) {
+        ArrayList<Book> results = new ArrayList<>();
+        if (limit > 0) {
+            scan(title, author, category, publicationDate, isAvailable, 0, b -> {
+                results.add(b);
+                return results.size() < limit;
+            });
+        }
+        return results;
+    }
+
+    // One page of matches: those with an ID above afterId, at most limit, in ID order.
+    // IDs never move, so paging this way skips nothing and repeats nothing while books come and go.
+    public ArrayList<Book> searchAfter(String title, String author, String category, String publicationDate, Boolean isAvailable,
+                                       int afterId, int limit) {
+        ArrayList<Book> results = new ArrayList<>();
+        if (limit > 0) {
+            scan(title, author, category, publicationDate, isAvailable, afterId, b -> {
+                results.add(b);
+                return results.size() < limit;
+            });
+        }
+        return results;
+    }
+
+    // The first limit matches in the given order. Every match is looked at, but only the best
+    // limit so far are kept (in a heap), so memory is bounded by limit, not by the match count.
+    public ArrayList<Book> searchTop(String title, String author, String category, String publicationDate, Boolean isAvailable,
+                                     Comparator<? super Book> order, int limit) {
+        PriorityQueue<Book> best = new PriorityQueue<>(Collections.reverseOrder(order));
+        if (limit > 0) {
+            scan(title, author, category, publicationDate, isAvailable, 0, b -> {
+                best.add(b);
+                if (best.size() > limit) {
+                    best.poll();
+                }
+                return true;
+            });
+        }
+        ArrayList<Book> results = new ArrayList<>(best);
+        results.sort(order);
+        return results;
+    }
+
+    // Feed matches with an ID above afterId to sink, in ID order, until it returns false
+    private void scan(String title, String author, String category, String publicationDate, Boolean isAvailable,
+                      int afterId, Predicate<Book> sink) {
+        // Fold the query once; everything below compares against folded keys
+        title = TextKeys.fold(title);
+        author = TextKeys.fold(author);
+        category = TextKeys.fold(category);
+        ArrayList<PostingList> lists = new ArrayList<>();
+        if (!title.isEmpty() && !collectGrams(titleGrams, title, lists)) {
+            return;
+        }
+        if (!author.isEmpty() && !collectGrams(authorGrams, author, lists)) {
+            return;
+        }
+        if (!category.isEmpty()) {
+            PostingList list = categories.get(category);
+            if (list == null) {
+                return;
+            }
+            lists.add(list);
+        }
+        if (!publicationDate.isEmpty()) {
+            PostingList list = PostingList.union(publicationDates
+                    .subMap(publicationDate, true, publicationDate + Character.MAX_VALUE, true).values());
+            if (list.size() == 0) {
+                return;
+            }
+            lists.add(list);
+        }
+
+        if (lists.isEmpty()) {
+            BitSet ids = isAvailable == null ? live : available.toBitSet();
+            if (isAvailable != null && !isAvailable) {
+                BitSet unavailable = (BitSet) live.clone();
+                unavailable.andNot(ids);
+                ids = unavailable;
+            }
+            int seen = 0;
+            for (int id = ids.nextSetBit(afterId + 1); id >= 0; id = ids.nextSetBit(id + 1)) {
+                checkCancelled(++seen);
+                Book b = docs.get(id);
+                if (matches(b, title, author, category, publicationDate, isAvailable) && !sink.test(b)) {
+                    return;
+                }
+            }
+            return;
+        }
+
+        PostingList candidates = PostingList.intersect(lists);
+        for (int i = candidates.indexAfter(afterId); i < candidates.size(); i++) {
+            checkCancelled(i + 1);
+            int id = candidates.get(i);
+            if (isAvailable != null && available.get(id) != isAvailable) {
+                continue;
+            }
+            Book b = docs.get(id);
+            if (matches(b, title, author, category, publicationDate, isAvailable) && !sink.test(b)) {
+                return;
+            }
+        }
+    }
+
+    // Copies per folded category, read off the posting list sizes
+    public HashMap<String, Integer> categorySizes() {
+        HashMap<String, Integer> sizes = new HashMap<>();
+        for (Map.Entry<String, PostingList> e : categories.entrySet()) {
+            sizes.put(e.getKey(), e.getValue().size());
+        }
+        return sizes;
+    }
+
+    // Bitset scan over the availability index
+    public ArrayList<Book> availableBooks() {
+        ArrayList<Book> results = new ArrayList<>(available.cardinality());
+        for (int id = available.nextSetBit(0); id >= 0; id = available.nextSetBit(id + 1)) {
+            Book b = docs.get(id);
+            if (b != null && b.isAvailable()) {
+                results.add(b);
+            }
+        }
+        return results;
+    }
+
+    // Trigrams only give a superset (and short queries have no grams), so every
+    // candidate is still checked against the original predicate. Title, author and
+    // category must already be folded.
+    // Long scans give up when their thread is interrupted (a cancelled search on a
+    // SwingWorker), checked once every CANCEL_CHECK books
+    static void checkCancelled(int seen) {
+        if ((seen & (CANCEL_CHECK - 1)) == 0 && Thread.currentThread().isInterrupted()) {
+            throw new CancellationException("Search cancelled");
+        }
+    }
+
+    static boolean matches(Book b, String title, String author, String category, String publicationDate, Boolean isAvailable) {
+        return (title.isEmpty() || b.getTitleKey().contains(title)) &&
+                (author.isEmpty() || b.getAuthorKey().contains(author)) &&
+                (publicationDate.isEmpty() || b.getPublicationDate().startsWith(publicationDate)) &&
+                (category.isEmpty() || b.getCategoryKey().equals(category)) &&
+                (isAvailable == null || b.isAvailable() == isAvailable);
+    }
+
+    private static boolean collectGrams(Map<String, PostingList> index, String query, ArrayList<PostingList> out) {
+        for (String gram : grams(query)) {
+            PostingList list = index.get(gram);
+            if (list == null) {
+                return false;
+            }
+            out.add(list);
+        }
+        return true;
+    }
+
+    private static LinkedHashSet<String> grams(String text) {
+        LinkedHashSet<String> grams = new LinkedHashSet<>();
+        if (text == null) {
+            return grams;
+        }
+        for (int i = 0; i + GRAM <= text.length(); i++) {
+            grams.add(text.substring(i, i + GRAM));
+        }
+        return grams;
+    }
+
+    private static void addTo(Map<String, PostingList> index, String key, int id) {
+        index.computeIfAbsent(key == null ? "" : key, k -> new PostingList()).add(id);
+    }
+
+    private static void removeFrom(Map<String, PostingList> index, String key, int id) {
+        String k = key == null ? "" : key;
+        PostingList list = index.get(k);
+        if (list != null) {
+            list.remove(id);
+            if (list.size() == 0) {
+                index.remove(k);
+            }
+        }
+    }
+
+    // Availability bits that desks can flip concurrently. The array is only
+    // replaced while the catalog write lock is held, so no flip can be lost.
+    static class AtomicBits {
+        private volatile AtomicLongArray words = new AtomicLongArray(1);
+
+        void ensureCapacity(int bit) {
+            int need = (bit >>> 6) + 1;
+            AtomicLongArray w = words;
+            if (need > w.length()) {
+                AtomicLongArray bigger = new AtomicLongArray(Math.max(need, w.length() * 2));
+                for (int i = 0; i < w.length(); i++) {
+                    bigger.set(i, w.get(i));
+                }
+                words = bigger;
+            }
+        }
+
+        boolean get(int bit) {
+            AtomicLongArray w = words;
+            int i = bit >>> 6;
+            return i < w.length() && (w.get(i) & (1L << bit)) != 0;
+        }
+
+        void set(int bit, boolean value) {
+            AtomicLongArray w = words;
+            int i = bit >>> 6;
+            long mask = 1L << bit;
+            long old;
+            do {
+                old = w.get(i);
+            } while (!w.compareAndSet(i, old, value ? old | mask : old & ~mask));
+        }
+
+        int nextSetBit(int from) {
+            AtomicLongArray w = words;
+            int i = from >>> 6;
+            if (i >= w.length()) {
+                return -1;
+            }
+            long word = w.get(i) & (-1L << from);
+            while (true) {
+                if (word != 0) {
+                    return (i << 6) + Long.numberOfTrailingZeros(word);
+                }
+                if (++i >= w.length()) {
+                    return -1;
+                }
+                word = w.get(i);
+            }
+        }
+
+        int cardinality() {
+            AtomicLongArray w = words;
+            int n = 0;
+            for (int i = 0; i < w.length(); i++) {
+                n += Long.bitCount(w.get(i));
+            }
+            return n;
+        }
+
+        BitSet toBitSet() {
+            AtomicLongArray w = words;
+            long[] copy = new long[w.length()];
+            for (int i = 0; i < copy.length; i++) {
+                copy[i] = w.get(i);
+            }
+            return BitSet.valueOf(copy);
+        }
+    }
+
+    // Sorted, growable list of doc ids
+    static class PostingList {
+        private int[] ids = new int[4];
+        private int size;
+
+        int size() { return size; }
+        int get(int i) { return ids[i]; }
+
+        // Position of the first id above id
+        int indexAfter(int id) {
+            int pos = Arrays.binarySearch(ids, 0, size, id);
+            return pos >= 0 ? pos + 1 : -pos - 1;
+        }
+
+        void add(int id) {
+            if (size > 0 && ids[size - 1] >= id) {
+                int pos = Arrays.binarySearch(ids, 0, size, id);
+                if (pos >= 0) {
+                    return;
+                }
+                insertAt(-pos - 1, id);
+                return;
+            }
+            insertAt(size, id);
+        }
+
+        void remove(int id) {
+            int pos = Arrays.binarySearch(ids, 0, size, id);
+            if (pos >= 0) {
+                System.arraycopy(ids, pos + 1, ids, pos, size - pos - 1);
+                size--;
+            }
+        }
+
+        private void insertAt(int pos, int id) {
+            if (size == ids.length) {
+                ids = Arrays.copyOf(ids, size * 2);
+            }
+            System.arraycopy(ids, pos, ids, pos + 1, size - pos);
+            ids[pos] = id;
+            size++;
+        }
+
+        // Intersect starting from the shortest list
+        static PostingList intersect(ArrayList<PostingList> lists) {
+            lists.sort((a, b) -> Integer.compare(a.size, b.size));
+            PostingList result = new PostingList();
+            PostingList first = lists.get(0);
+            result.ids = Arrays.copyOf(first.ids, Math.max(first.size, 1));
+            result.size = first.size;
+            for (int l = 1; l < lists.size() && result.size > 0; l++) {
+                PostingList other = lists.get(l);
+                int n = 0;
+                int j = 0;
+                for (int i = 0; i < result.size && j < other.size; ) {
+                    int a = result.ids[i];
+                    int b = other.ids[j];
+                    if (a == b) {
+                        result.ids[n++] = a;
+                        i++;
+                        j++;
+                    } else if (a < b) {
+                        i++;
+                    } else {
+                        int pos = Arrays.binarySearch(other.ids, j, other.size, a);
+                        j = pos >= 0 ? pos : -pos - 1;
+                    }
+                }
+                result.size = n;
+            }
+            return result;
+        }
+
+        static PostingList union(Iterable<PostingList> lists) {
+            PostingList result = new PostingList();
+            for (PostingList list : lists) {
+                if (result.size + list.size > result.ids.length) {
+                    result.ids = Arrays.copyOf(result.ids, result.size + list.size);
+                }
+                System.arraycopy(list.ids, 0, result.ids, result.size, list.size);
+                result.size += list.size;
+            }
+            // a book has one date, so the lists are disjoint; only sorting is needed
+            Arrays.sort(result.ids, 0, result.size);
+            return result;
+        }
+    }
+}
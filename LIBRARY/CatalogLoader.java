@@ -0,0 +1,130 @@
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Collectors;
+
+// Fast loader for the '|'-delimited books.txt and users.txt files.
+// The file is memory-mapped and cut into newline-aligned chunks, which are parsed
+// in parallel on the common ForkJoin pool without regex. Results keep file order.
+class CatalogLoader {
+    static final int CHUNK_BYTES = 8 << 20;
+
+    // Turns the fields of one line into a record, or null to skip the line
+    interface LineParser<T> {
+        T parse(String[] fields, int count);
+    }
+
+    // title|author|publicationDate|category|available
+    // Authors, categories and dates repeat a lot, so books share one instance of each.
+    static List<Book> readBooks(Path file) throws IOException {
+        ConcurrentHashMap<String, String> pool = new ConcurrentHashMap<>();
+        return read(file, 5, (f, n) -> {
+            if (n != 5) {
+                return null;
+            }
+            Book book = new Book(f[0], pool.computeIfAbsent(f[1], k -> k), pool.computeIfAbsent(f[3], k -> k));
+            book.setPublicationDate(pool.computeIfAbsent(f[2], k -> k));
+            book.setAvailable(Boolean.parseBoolean(f[4]));
+            return book;
+        });
+    }
+
+    // name|userID
+    static List<User> readUsers(Path file) throws IOException {
+        return read(file, 2, (f, n) -> n == 2 ? new User(f[0], f[1]) : null);
+    }
+
+    static <T> List<T> read(Path file, int maxFields, LineParser<T> parser) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            List<long[]> chunks = chunks(channel);
+            return chunks.parallelStream()
+                    .map(chunk -> parseChunk(channel, chunk[0], chunk[1], maxFields, parser))
+                    .flatMap(List::stream)
+                    .collect(Collectors.toList());
+        }
+    }
+
+    // [start, end) byte ranges that each end just after a newline (or at end of file)
+    private static List<long[]> chunks(FileChannel channel) throws IOException {
+        long size = channel.size();
+        List<long[]> chunks = new ArrayList<>();
+        long start = 0;
+        while (start < size) {
+            long end = Math.min(start + CHUNK_BYTES, size);
+            while (end < size) {
+                long window = Math.min(64 * 1024, size - end);
+                MappedByteBuffer buf = channel.map(FileChannel.MapMode.READ_ONLY, end, window);
+                int i = 0;
+                while (i < window && buf.get(i) != '\n') {
+                    i++;
+                }
+                end += i;
+                if (i < window) {
+                    end++;  // include the newline
+                    break;
+                }
+            }
+            chunks.add(new long[] {start, end});
+            start = end;
+        }
+        return chunks;
+    }
+
+    private static <T> List<T> parseChunk(FileChannel channel, long start, long end, int maxFields, LineParser<T> parser) {
+        MappedByteBuffer buf;
+        try {
+            buf = channel.map(FileChannel.MapMode.READ_ONLY, start, end - start);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        List<T> out = new ArrayList<>();
+        byte[] line = new byte[256];
+        String[] fields = new String[maxFields];
+        int len = buf.limit();
+        int pos = 0;
+        while (pos < len) {
+            int n = 0;
+            while (pos < len) {
+                byte b = buf.get(pos++);
+                if (b == '\n') {
+                    break;
+                }
+                if (n == line.length) {
+                    line = Arrays.copyOf(line, n * 2);
+                }
+                line[n++] = b;
+            }
+            if (n > 0 && line[n - 1] == '\r') {
+                n--;
+            }
+            if (n == 0) {
+                continue;
+            }
+            // '|' is ASCII, so it can never appear inside a multi-byte UTF-8 character
+            int count = 0;
+            int from = 0;
+            for (int i = 0; i <= n; i++) {
+                if (i == n || line[i] == '|') {
+                    if (count < maxFields) {
+                        fields[count] = new String(line, from, i - from, StandardCharsets.UTF_8);
+                    }
+                    count++;
+                    from = i + 1;
+                }
+            }
+            T record = parser.parse(fields, count);
+            if (record != null) {
+                out.add(record);
+            }
+        }
+        return out;
+    }
+}
@@ -0,0 +1,73 @@
+import java.util.ArrayList;
+
+// Compares heap use of the object model (ArrayList<Book>) with ColumnarCatalog.
+// Run with a fixed heap for stable numbers, e.g.
+//   java -Xms4g -Xmx4g CatalogMemoryBenchmark 1000000
+public class CatalogMemoryBenchmark {
+    private static final String[] CATEGORIES = {"Fiction", "Non-Fiction", "Science", "Biography"};
+
+    public static void main(String[] args) {
+        int n = args.length > 0 ? Integer.parseInt(args[0]) : 1_000_000;
+        int authors = Math.max(1, n / 20);
+
+        long base = usedHeap();
+        ArrayList<Book> objects = new ArrayList<>();
+        for (int i = 0; i < n; i++) {
+            objects.add(book(i, authors));
+        }
+        long objectBytes = usedHeap() - base;
+        int keep = objects.size();
+        objects = null;
+
+        base = usedHeap();
+        ColumnarCatalog columns = new ColumnarCatalog();
+        for (int i = 0; i < n; i++) {
+            columns.add(book(i, authors));
+        }
+        long columnBytes = usedHeap() - base;
+
+        System.out.println("Books: " + n + " (" + keep + " objects, " + columns.size() + " rows)");
+        System.out.printf("Object model: %,d bytes (%.1f bytes/book)%n", objectBytes, (double) objectBytes / n);
+        System.out.printf("Columnar:     %,d bytes (%.1f bytes/book)%n", columnBytes, (double) columnBytes / n);
+        System.out.printf("Saved:        %.1f%%%n", 100.0 * (objectBytes - columnBytes) / objectBytes);
+
+        long start = System.nanoTime();
+        int available = columns.getAvailableBooks().size();
+        int fiction = columns.getBooksInCategory("fiction", true).size();
+        System.out.printf("Bitset scans: %d available, %d available fiction in %.1f ms%n",
+                available, fiction, (System.nanoTime() - start) / 1e6);
+    }
+
+    // Authors and categories are shared instances, the same as the loaders produce
+    private static Book book(int i, int authors) {
+        Book book;
+        String title = "Title " + i;
+        String author = ("Author " + (i % authors)).intern();
+        switch (i % 3) {
+            case 0:
+                book = new FictionBook(title, author, "Drama");
+                break;
+            case 1:
+                book = new NonFictionBook(title, author, "History");
+                break;
+            default:
+                book = new Book(title, author, CATEGORIES[i % CATEGORIES.length]);
+        }
+        book.setPublicationDate("20" + (10 + i % 10) + "-0" + (1 + i % 9) + "-1" + (i % 10));
+        book.setAvailable(i % 4 != 0);
+        return book;
+    }
+
+    private static long usedHeap() {
+        Runtime rt = Runtime.getRuntime();
+        for (int i = 0; i < 4; i++) {
+            System.gc();
+            try {
+                Thread.sleep(50);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        return rt.totalMemory() - rt.freeMemory();
+    }
+}
@@ -0,0 +1,64 @@
+import java.util.ArrayList;
+
+// One published version of the catalog: which books and users exist, and which copies were
+// on the shelf. LibraryManagementSystem swaps in a new version on every change (books by ID
+// and users in registration order, in PersistentVectors, so a new version shares all but
+// one path with the old one). Readers pick up the current version without a lock and can
+// scan it for as long as they like while desks keep lending.
+// Membership and availability are fixed per version; the Book objects themselves are shared,
+// so a category or publication date edited later shows through.
+final class CatalogSnapshot {
+    static final CatalogSnapshot EMPTY = new CatalogSnapshot(0, PersistentVector.empty(), PersistentVector.empty());
+
+    private final long version;
+    private final PersistentVector<Book> books;  // indexed by book ID, flag = available
+    private final PersistentVector<User> users;
+
+    private CatalogSnapshot(long version, PersistentVector<Book> books, PersistentVector<User> users) {
+        this.version = version;
+        this.books = books;
+        this.users = users;
+    }
+
+    CatalogSnapshot withBooks(PersistentVector<Book> books) { return new CatalogSnapshot(version + 1, books, users); }
+    CatalogSnapshot withUsers(PersistentVector<User> users) { return new CatalogSnapshot(version + 1, books, users); }
+
+    // Only a copy that is in this version has an availability flag to set
+    CatalogSnapshot withAvailable(Book book) {
+        if (books.get(book.getId()) != book) {
+            return this;
+        }
+        boolean available = book.isAvailable();
+        if (books.flag(book.getId()) == available) {
+            return this;
+        }
+        return withBooks(books.edit().setFlag(book.getId(), available).build());
+    }
+
+    public long getVersion() { return version; }
+    public int getBookCount() { return books.size(); }
+    public int getUserCount() { return users.size(); }
+
+    public Book getBook(int id) { return books.get(id); }
+
+    // Whether the copy was on the shelf in this version (false if it was not in the catalog)
+    public boolean isAvailable(Book book) {
+        return books.get(book.getId()) == book && books.flag(book.getId());
+    }
+
+    // In ID order, which is the order they were added in
+    public Iterable<Book> books() { return books; }
+    public Iterable<User> users() { return users; }
+
+    public ArrayList<Book> getBooks() { return books.toList(); }
+    public ArrayList<User> getUsers() { return users.toList(); }
+
+    public ArrayList<Book> getAvailableBooks() {
+        ArrayList<Book> results = new ArrayList<>();
+        books.forEachFlagged(results::add);
+        return results;
+    }
+
+    PersistentVector<Book> bookVector() { return books; }
+    PersistentVector<User> userVector() { return users; }
+}
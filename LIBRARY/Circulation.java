@@ -0,0 +1,66 @@
+// Requests and per-item results for batched checkout and return
+// (LibraryManagementSystem.checkOutAll / returnAll), as fed by a scanner desk or an
+// end-of-day return bin.
+class Circulation {
+    enum Status {
+        OK,
+        UNKNOWN_USER,
+        UNKNOWN_BOOK,
+        DUPLICATE,      // the same copy appears earlier in the batch
+        UNAVAILABLE,    // out on loan, or set aside for someone else's hold
+        NOT_ON_LOAN
+    }
+
+    // One scanned item; userID is null for returns
+    static class Request {
+        private final String userID;
+        private final int bookId;
+
+        Request(String userID, int bookId) {
+            this.userID = userID;
+            this.bookId = bookId;
+        }
+
+        public String getUserID() { return userID; }
+        public int getBookId() { return bookId; }
+    }
+
+    static class Result {
+        private final Request request;
+        private final Status status;
+        private final Loan loan;          // the loan opened or closed, when OK
+        private final long fineCents;     // fine posted by a late return
+
+        Result(Request request, Status status, Loan loan, long fineCents) {
+            this.request = request;
+            this.status = status;
+            this.loan = loan;
+            this.fineCents = fineCents;
+        }
+
+        public Request getRequest() { return request; }
+        public Status getStatus() { return status; }
+        public Loan getLoan() { return loan; }
+        public long getFineCents() { return fineCents; }
+        public boolean isOk() { return status == Status.OK; }
+
+        @Override
+        public String toString() {
+            String item = "Book " + request.getBookId() + (loan != null ? " (" + loan.getBook().getTitle() + ")" : "");
+            if (status != Status.OK) {
+                return item + ": " + status;
+            }
+            return item + ": OK, loan #" + loan.getLoanId() +
+                    (fineCents > 0 ? String.format(", fine %d.%02d", fineCents / 100, fineCents % 100) : "");
+        }
+    }
+
+    // A scanned book barcode; anything that is not a number maps to ID 0, which no book has
+    static int parseBookId(String scan) {
+        try {
+            return Integer.parseInt(scan.trim());
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+}
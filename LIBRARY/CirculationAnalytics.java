@@ -0,0 +1,395 @@
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.time.YearMonth;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+// Circulation statistics for dashboards: most borrowed titles, authors and categories per
+// month, how much of each category is out on loan, and how long loans last.
+// Everything is kept as rollups that are updated as loans open and close (through the
+// ledger's LoanListener), so a report never walks the catalog or the ledger:
+// - borrow counts per month (by borrow date), keyed by folded title, author and category
+//   (TextKeys), so "Dune" and "dune " count as one title; reports show the first spelling seen
+// - copies on loan per category, next to the copy counts from the catalog index
+// - loan durations in a log-linear histogram, overall and per month
+// Reports aggregate the rollups with parallel streams and bounded heaps for the top k.
+// Closed loans are appended to the history file so the rollups survive a restart:
+//   loanId|bookID|title|author|category|borrowedAt|returnedAt
+// The file is written every flushIntervalSeconds and on close, not with the journal, so a
+// crash loses up to that much history: the loans themselves are safe in the journal, but
+// the rollups after the restart undercount the loans returned in that window.
+// Loans still open at startup are seeded from the ledger.
+class CirculationAnalytics implements LoanListener, AutoCloseable {
+    static final String HISTORY_FILE = "loan-history.txt";
+
+    // Tuning knobs
+    static class Settings {
+        int topK = 10;                  // entries per top list in the report
+        int trailingMonths = 12;        // window for the long-range top lists
+        long flushIntervalSeconds = 60; // how often closed loans are appended to the history file (and lost on a crash)
+    }
+
+    // Borrow counts for one month
+    private static class Rollup {
+        final ConcurrentHashMap<String, LongAdder> titles = new ConcurrentHashMap<>();
+        final ConcurrentHashMap<String, LongAdder> authors = new ConcurrentHashMap<>();
+        final ConcurrentHashMap<String, LongAdder> categories = new ConcurrentHashMap<>();
+        final LongAdder borrows = new LongAdder();
+        final LatencyHistogram durations = new LatencyHistogram();  // minutes, for loans borrowed this month
+
+        void borrowed(String titleKey, String authorKey, String category) {
+            titles.computeIfAbsent(titleKey, k -> new LongAdder()).increment();
+            authors.computeIfAbsent(authorKey, k -> new LongAdder()).increment();
+            categories.computeIfAbsent(category, k -> new LongAdder()).increment();
+            borrows.increment();
+        }
+    }
+
+    // One entry of a top list
+    static class Count {
+        final String key;
+        final long count;
+
+        Count(String key, long count) {
+            this.key = key;
+            this.count = count;
+        }
+
+        public String getKey() { return key; }
+        public long getCount() { return count; }
+    }
+
+    // Descending by count, then by key, so ties come out in a stable order
+    private static final Comparator<Count> BY_COUNT =
+            Comparator.comparingLong(Count::getCount).reversed().thenComparing(Count::getKey);
+
+    // Keeps the k largest counts seen; partial heaps from parallel chunks are merged
+    private static class TopK {
+        final int k;
+        final PriorityQueue<Count> heap = new PriorityQueue<>(BY_COUNT.reversed());  // smallest on top
+
+        TopK(int k) { this.k = k; }
+
+        void offer(Count c) {
+            if (heap.size() < k) {
+                heap.add(c);
+            } else if (BY_COUNT.compare(c, heap.peek()) < 0) {
+                heap.poll();
+                heap.add(c);
+            }
+        }
+
+        void merge(TopK other) {
+            for (Count c : other.heap) {
+                offer(c);
+            }
+        }
+
+        List<Count> sorted() {
+            ArrayList<Count> list = new ArrayList<>(heap);
+            list.sort(BY_COUNT);
+            return list;
+        }
+    }
+
+    private final LibraryManagementSystem lms;
+    private final LoanLedger ledger;
+    private final Settings settings;
+    private final Path historyFile;
+    private final Supplier<LocalDateTime> clock;
+    private final ConcurrentHashMap<YearMonth, Rollup> months = new ConcurrentHashMap<>();
+    // One display spelling per folded title and author key, the first one seen
+    private final ConcurrentHashMap<String, String> titleNames = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, String> authorNames = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<Integer, String> onLoanCategory = new ConcurrentHashMap<>();  // book ID -> category key
+    private final ConcurrentHashMap<String, LongAdder> onLoanByCategory = new ConcurrentHashMap<>();
+    private final LatencyHistogram durations = new LatencyHistogram();  // minutes, all returned loans
+    private final ConcurrentLinkedQueue<String> unwritten = new ConcurrentLinkedQueue<>();
+    private final LatencyHistogram reportLatency;
+    private ScheduledExecutorService executor;
+
+    CirculationAnalytics(LibraryManagementSystem lms, Path historyFile, Settings settings) throws IOException {
+        this(lms, historyFile, settings, LocalDateTime::now);
+    }
+
+    CirculationAnalytics(LibraryManagementSystem lms, Path historyFile, Settings settings, Supplier<LocalDateTime> clock) throws IOException {
+        this.lms = lms;
+        this.ledger = lms.getLoanLedger();
+        this.settings = settings;
+        this.historyFile = historyFile;
+        this.clock = clock;
+        this.reportLatency = lms.getMetrics().histogram("analytics.report");
+        lms.getMetrics().gauge("analytics.months", () -> months.size());
+        readHistory();
+    }
+
+    // Closed loans from earlier runs, parsed in parallel
+    private void readHistory() throws IOException {
+        if (!Files.exists(historyFile)) {
+            return;
+        }
+        try (Stream<String> lines = Files.lines(historyFile, StandardCharsets.UTF_8)) {
+            lines.parallel().forEach(line -> {
+                try {
+                    String[] f = LibraryJournal.split(line);
+                    LocalDateTime borrowedAt = LocalDateTime.parse(f[5]);
+                    Rollup r = rollup(borrowedAt);
+                    borrowed(r, TextKeys.fold(f[2]), f[2], TextKeys.fold(f[3]), f[3], f[4]);
+                    recordDuration(r, borrowedAt, LocalDateTime.parse(f[6]));
+                } catch (RuntimeException e) {
+                    // torn or malformed line, skip it
+                }
+            });
+        }
+    }
+
+    // Attach to the ledger and count the loans that are open right now
+    public synchronized void start() {
+        if (executor != null) {
+            return;
+        }
+        ledger.setListener(this);
+        executor = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "library-analytics");
+            t.setDaemon(true);
+            return t;
+        });
+        executor.scheduleWithFixedDelay(() -> {
+            try {
+                flush();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }, settings.flushIntervalSeconds, settings.flushIntervalSeconds, TimeUnit.SECONDS);
+    }
+
+    private Rollup rollup(LocalDateTime at) {
+        return months.computeIfAbsent(YearMonth.from(at), m -> new Rollup());
+    }
+
+    private void borrowed(Rollup r, String titleKey, String title, String authorKey, String author, String category) {
+        titleNames.putIfAbsent(titleKey, title);
+        authorNames.putIfAbsent(authorKey, author);
+        r.borrowed(titleKey, authorKey, category);
+    }
+
+    private void recordDuration(Rollup r, LocalDateTime borrowedAt, LocalDateTime returnedAt) {
+        long minutes = Math.max(0, Duration.between(borrowedAt, returnedAt).toMinutes());
+        durations.record(minutes);
+        r.durations.record(minutes);
+    }
+
+    // LoanListener callbacks, under the ledger lock: only counters are touched here
+    @Override
+    public void loanOpened(Loan loan) {
+        Book book = loan.getBook();
+        borrowed(rollup(loan.getBorrowedAt()), book.getTitleKey(), book.getTitle(), book.getAuthorKey(), book.getAuthor(),
+                book.getCategoryKey());
+        onLoanCategory.compute(book.getId(), (id, old) -> {
+            if (old != null) {
+                onLoan(old).decrement();
+            }
+            onLoan(book.getCategoryKey()).increment();
+            return book.getCategoryKey();
+        });
+    }
+
+    @Override
+    public void loanClosed(Loan loan) {
+        Book book = loan.getBook();
+        LocalDateTime returnedAt = clock.get();
+        recordDuration(rollup(loan.getBorrowedAt()), loan.getBorrowedAt(), returnedAt);
+        onLoanCategory.computeIfPresent(book.getId(), (id, category) -> {
+            onLoan(category).decrement();
+            return null;
+        });
+        unwritten.add(LibraryJournal.join(String.valueOf(loan.getLoanId()), String.valueOf(book.getId()),
+                book.getTitle(), book.getAuthor(), book.getCategoryKey(),
+                loan.getBorrowedAt().toString(), returnedAt.toString()));
+    }
+
+    // A copy out on loan moved to another category; move its on-loan count with it
+    public void categoryChanged(Book book) {
+        onLoanCategory.computeIfPresent(book.getId(), (id, old) -> {
+            onLoan(old).decrement();
+            onLoan(book.getCategoryKey()).increment();
+            return book.getCategoryKey();
+        });
+    }
+
+    private LongAdder onLoan(String category) {
+        return onLoanByCategory.computeIfAbsent(category, k -> new LongAdder());
+    }
+
+    // Append closed loans to the history file in one batch
+    public void flush() throws IOException {
+        List<String> batch = new ArrayList<>();
+        for (String line; (line = unwritten.poll()) != null; ) {
+            batch.add(line);
+        }
+        if (batch.isEmpty()) {
+            return;
+        }
+        try (BufferedWriter out = Files.newBufferedWriter(historyFile, StandardCharsets.UTF_8,
+                StandardOpenOption.CREATE, StandardOpenOption.APPEND)) {
+            for (String line : batch) {
+                out.write(line);
+                out.newLine();
+            }
+        }
+    }
+
+    // Most borrowed titles in one month
+    public List<Count> topTitles(YearMonth month, int k) { return top(month, month, r -> r.titles, titleNames, k); }
+    public List<Count> topAuthors(YearMonth month, int k) { return top(month, month, r -> r.authors, authorNames, k); }
+    public List<Count> topCategories(YearMonth month, int k) { return top(month, month, r -> r.categories, Map.of(), k); }
+
+    // Most borrowed over the months from..to (inclusive)
+    public List<Count> topTitles(YearMonth from, YearMonth to, int k) { return top(from, to, r -> r.titles, titleNames, k); }
+    public List<Count> topAuthors(YearMonth from, YearMonth to, int k) { return top(from, to, r -> r.authors, authorNames, k); }
+
+    // Ranked by key; the winners are reported under their display names
+    private List<Count> top(YearMonth from, YearMonth to, Function<Rollup, ConcurrentHashMap<String, LongAdder>> field,
+                            Map<String, String> names, int k) {
+        List<Rollup> range = new ArrayList<>();
+        for (Map.Entry<YearMonth, Rollup> e : months.entrySet()) {
+            if (!e.getKey().isBefore(from) && !e.getKey().isAfter(to)) {
+                range.add(e.getValue());
+            }
+        }
+        Stream<Count> counts;
+        if (range.size() == 1) {
+            counts = field.apply(range.get(0)).entrySet().parallelStream()
+                    .map(e -> new Count(e.getKey(), e.getValue().sum()));
+        } else {
+            // Sum each key across the months first, then rank
+            ConcurrentMap<String, Long> totals = range.parallelStream()
+                    .flatMap(r -> field.apply(r).entrySet().stream())
+                    .collect(Collectors.groupingByConcurrent(Map.Entry::getKey, Collectors.summingLong(e -> e.getValue().sum())));
+            counts = totals.entrySet().parallelStream().map(e -> new Count(e.getKey(), e.getValue()));
+        }
+        List<Count> top = new ArrayList<>();
+        for (Count c : counts.collect(() -> new TopK(k), TopK::offer, TopK::merge).sorted()) {
+            top.add(new Count(names.getOrDefault(c.getKey(), c.getKey()), c.getCount()));
+        }
+        return top;
+    }
+
+    public long getBorrows(YearMonth month) {
+        Rollup r = months.get(month);
+        return r == null ? 0 : r.borrows.sum();
+    }
+
+    // Copies on loan per category key
+    public HashMap<String, Long> getOnLoanByCategory() {
+        HashMap<String, Long> result = new HashMap<>();
+        onLoanByCategory.forEach((category, n) -> result.put(category, n.sum()));
+        return result;
+    }
+
+    // Loan durations in minutes; the month is the one the loans were borrowed in, null for all
+    public long getDurationPercentile(YearMonth month, double q) {
+        if (month == null) {
+            return durations.getPercentile(q);
+        }
+        Rollup r = months.get(month);
+        return r == null ? 0 : r.durations.getPercentile(q);
+    }
+
+    public String report() {
+        long start = System.nanoTime();
+        LocalDateTime now = clock.get();
+        YearMonth month = YearMonth.from(now);
+        YearMonth from = month.minusMonths(settings.trailingMonths - 1);
+        StringBuilder sb = new StringBuilder();
+        sb.append("Circulation report, ").append(now.withNano(0)).append('\n');
+        sb.append("Borrowed in ").append(month).append(": ").append(getBorrows(month))
+                .append(", on loan now: ").append(ledger.size()).append('\n');
+        appendTop(sb, "Top titles in " + month, topTitles(month, settings.topK));
+        appendTop(sb, "Top authors in " + month, topAuthors(month, settings.topK));
+        appendTop(sb, "Top categories in " + month, topCategories(month, settings.topK));
+        appendTop(sb, "Top titles since " + from, topTitles(from, month, settings.topK));
+        appendTop(sb, "Top authors since " + from, topAuthors(from, month, settings.topK));
+
+        sb.append("Category utilization:\n");
+        HashMap<String, Long> onLoan = getOnLoanByCategory();
+        for (Map.Entry<String, Integer> e : new TreeMap<>(lms.getCategorySizes()).entrySet()) {
+            int copies = e.getValue();
+            if (copies == 0) {
+                continue;
+            }
+            long out = Math.min(copies, onLoan.getOrDefault(e.getKey(), 0L));
+            sb.append(String.format("  %-24s %6d copies %6d on loan  %5.1f%% used  %5.1f%% on shelf%n",
+                    e.getKey().isEmpty() ? "(none)" : e.getKey(), copies, out,
+                    100.0 * out / copies, 100.0 * (copies - out) / copies));
+        }
+
+        sb.append("Loan durations (returned loans: ").append(durations.getCount()).append("):\n");
+        appendDurations(sb, "  all time", null);
+        appendDurations(sb, "  borrowed in " + month, month);
+        reportLatency.recordSince(start);
+        return sb.toString();
+    }
+
+    private static void appendTop(StringBuilder sb, String heading, List<Count> top) {
+        sb.append(heading).append(":\n");
+        if (top.isEmpty()) {
+            sb.append("  (none)\n");
+        }
+        for (int i = 0; i < top.size(); i++) {
+            sb.append(String.format("  %2d. %s (%d)%n", i + 1, top.get(i).getKey(), top.get(i).getCount()));
+        }
+    }
+
+    private void appendDurations(StringBuilder sb, String label, YearMonth month) {
+        sb.append(label);
+        for (int i = 0; i < 3; i++) {
+            sb.append(' ').append(LibraryMetrics.PERCENTILE_NAMES[i]).append('=')
+                    .append(days(getDurationPercentile(month, LibraryMetrics.PERCENTILES[i])));
+        }
+        sb.append('\n');
+    }
+
+    private static String days(long minutes) {
+        return String.format("%.1fd", minutes / (24 * 60.0));
+    }
+
+    public Path getHistoryFile() { return historyFile; }
+
+    @Override
+    public synchronized void close() {
+        if (executor == null) {
+            return;
+        }
+        ledger.setListener(null);
+        executor.shutdownNow();
+        executor = null;
+        try {
+            flush();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+}
@@ -0,0 +1,253 @@
+import java.time.LocalDate;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+
+// Column-oriented book store for very large catalogs.
+// One row per book: titles in a String[], authors/categories/genres as IDs into
+// shared dictionaries, publication dates as epoch days and availability in a BitSet.
+// There is no per-book object until a caller asks for a view(row).
+class ColumnarCatalog {
+    static final int NO_DATE = Integer.MIN_VALUE;
+    static final byte KIND_BOOK = 0;
+    static final byte KIND_FICTION = 1;
+    static final byte KIND_NON_FICTION = 2;
+
+    private final Dictionary authors = new Dictionary();
+    private final Dictionary categories = new Dictionary();
+    private final Dictionary extras = new Dictionary();   // genre or subject
+    private final HashMap<Integer, String> oddDates = new HashMap<>();  // dates that are not YYYY-MM-DD
+    private final HashMap<Integer, BitSet> rowsByCategory = new HashMap<>();
+    private final BitSet live = new BitSet();
+    private final BitSet available = new BitSet();
+
+    private String[] titles = new String[16];
+    private int[] authorIds = new int[16];
+    private int[] categoryIds = new int[16];
+    private int[] extraIds = new int[16];
+    private int[] publishedDays = new int[16];
+    private byte[] kinds = new byte[16];
+    private int rows;
+
+    // Copies a book into the columns and returns its row
+    public synchronized int add(Book book) {
+        ensureCapacity(rows + 1);
+        int row = rows++;
+        titles[row] = book.getTitle();
+        authorIds[row] = authors.id(book.getAuthor());
+        int category = categories.id(book.getCategory());
+        categoryIds[row] = category;
+        rowsByCategory.computeIfAbsent(category, c -> new BitSet()).set(row);
+        if (book instanceof FictionBook) {
+            kinds[row] = KIND_FICTION;
+            extraIds[row] = extras.id(((FictionBook) book).getGenre());
+        } else if (book instanceof NonFictionBook) {
+            kinds[row] = KIND_NON_FICTION;
+            extraIds[row] = extras.id(((NonFictionBook) book).getSubject());
+        } else {
+            kinds[row] = KIND_BOOK;
+            extraIds[row] = extras.id("");
+        }
+        live.set(row);
+        setPublicationDate(row, book.getPublicationDate());
+        available.set(row, book.isAvailable());
+        return row;
+    }
+
+    public synchronized void remove(int row) {
+        if (!live.get(row)) {
+            return;
+        }
+        live.clear(row);
+        available.clear(row);
+        rowsByCategory.get(categoryIds[row]).clear(row);
+        titles[row] = null;
+        oddDates.remove(row);
+    }
+
+    public synchronized int size() { return live.cardinality(); }
+    public synchronized boolean contains(int row) { return live.get(row); }
+
+    // Lightweight Book over one row; reads and writes go straight to the columns
+    public Book view(int row) { return new View(this, row); }
+
+    // Bitset scan over availability
+    public synchronized ArrayList<Book> getAvailableBooks() {
+        return views(available);
+    }
+
+    // Books in a category (case-insensitive, like searchBooks), optionally only available ones
+    public synchronized ArrayList<Book> getBooksInCategory(String category, Boolean isAvailable) {
+        String key = TextKeys.fold(category);
+        BitSet rows = new BitSet();
+        for (int id = 0; id < categories.size(); id++) {
+            if (TextKeys.fold(categories.value(id)).equals(key)) {
+                BitSet inCategory = rowsByCategory.get(id);
+                if (inCategory != null) {
+                    rows.or(inCategory);
+                }
+            }
+        }
+        if (isAvailable != null) {
+            if (isAvailable) {
+                rows.and(available);
+            } else {
+                rows.andNot(available);
+            }
+        }
+        return views(rows);
+    }
+
+    private ArrayList<Book> views(BitSet rows) {
+        ArrayList<Book> result = new ArrayList<>(rows.cardinality());
+        for (int row = rows.nextSetBit(0); row >= 0; row = rows.nextSetBit(row + 1)) {
+            result.add(view(row));
+        }
+        return result;
+    }
+
+    // Column accessors used by View
+    synchronized String title(int row) { return titles[row]; }
+    synchronized String author(int row) { return authors.value(authorIds[row]); }
+    synchronized String category(int row) { return categories.value(categoryIds[row]); }
+    synchronized String extra(int row) { return extras.value(extraIds[row]); }
+    synchronized byte kind(int row) { return kinds[row]; }
+    synchronized boolean isAvailable(int row) { return available.get(row); }
+    // Both return whether the flag changed; a removed row stays unavailable
+    synchronized boolean setAvailable(int row, boolean value) {
+        boolean old = available.get(row);
+        available.set(row, value && live.get(row));
+        return available.get(row) != old;
+    }
+
+    synchronized boolean compareAndSetAvailable(int row, boolean expected, boolean value) {
+        if (!live.get(row) || available.get(row) != expected) {
+            return false;
+        }
+        available.set(row, value);
+        return true;
+    }
+
+    synchronized String publicationDate(int row) {
+        int day = publishedDays[row];
+        if (day == NO_DATE) {
+            String odd = oddDates.get(row);
+            return odd == null ? "" : odd;
+        }
+        return LocalDate.ofEpochDay(day).toString();
+    }
+
+    // Edits to removed rows are ignored
+    synchronized void setCategory(int row, String category) {
+        if (!live.get(row)) {
+            return;
+        }
+        rowsByCategory.get(categoryIds[row]).clear(row);
+        int id = categories.id(category);
+        categoryIds[row] = id;
+        rowsByCategory.computeIfAbsent(id, c -> new BitSet()).set(row);
+    }
+
+    synchronized void setPublicationDate(int row, String date) {
+        if (!live.get(row)) {
+            return;
+        }
+        oddDates.remove(row);
+        publishedDays[row] = NO_DATE;
+        if (date == null || date.isEmpty()) {
+            return;
+        }
+        try {
+            LocalDate parsed = LocalDate.parse(date);
+            if (parsed.toString().equals(date)) {
+                publishedDays[row] = (int) parsed.toEpochDay();
+                return;
+            }
+        } catch (DateTimeParseException e) {
+            // kept as text below
+        }
+        oddDates.put(row, date);
+    }
+
+    private void ensureCapacity(int n) {
+        if (n <= titles.length) {
+            return;
+        }
+        int size = Math.max(n, titles.length * 2);
+        titles = Arrays.copyOf(titles, size);
+        authorIds = Arrays.copyOf(authorIds, size);
+        categoryIds = Arrays.copyOf(categoryIds, size);
+        extraIds = Arrays.copyOf(extraIds, size);
+        publishedDays = Arrays.copyOf(publishedDays, size);
+        kinds = Arrays.copyOf(kinds, size);
+    }
+
+    // String <-> int ID, each distinct string stored once
+    static class Dictionary {
+        private final HashMap<String, Integer> ids = new HashMap<>();
+        private final ArrayList<String> values = new ArrayList<>();
+
+        int id(String value) {
+            String key = value == null ? "" : value;
+            Integer id = ids.get(key);
+            if (id == null) {
+                id = values.size();
+                ids.put(key, id);
+                values.add(key);
+            }
+            return id;
+        }
+
+        String value(int id) { return values.get(id); }
+        int size() { return values.size(); }
+    }
+
+    // Book view backed by a row of the store; holds no copies of the fields
+    static class View extends Book {
+        private final ColumnarCatalog store;
+        private final int row;
+
+        View(ColumnarCatalog store, int row) {
+            super(null, null, null);
+            this.store = store;
+            this.row = row;
+            setId(row);
+        }
+
+        int getRow() { return row; }
+
+        @Override public String getTitle() { return store.title(row); }
+        @Override public String getAuthor() { return store.author(row); }
+        @Override public String getCategory() { return store.category(row); }
+        @Override public String getPublicationDate() { return store.publicationDate(row); }
+        @Override public boolean isAvailable() { return store.isAvailable(row); }
+        @Override public String getTitleKey() { return TextKeys.fold(getTitle()); }
+        @Override public String getAuthorKey() { return TextKeys.fold(getAuthor()); }
+        @Override public String getCategoryKey() { return TextKeys.fold(getCategory()); }
+        // Availability lives in the column, so the flip (and the catalog's listener) goes through it
+        @Override public void setAvailable(boolean isAvailable) {
+            if (store.setAvailable(row, isAvailable)) notifyAvailabilityChanged();
+        }
+        @Override boolean compareAndSetAvailable(boolean expected, boolean isAvailable) {
+            if (!store.compareAndSetAvailable(row, expected, isAvailable)) {
+                return false;
+            }
+            notifyAvailabilityChanged();
+            return true;
+        }
+        @Override public void setCategory(String category) { store.setCategory(row, category); }
+        @Override public void setPublicationDate(String publicationDate) { store.setPublicationDate(row, publicationDate); }
+
+        @Override
+        public String toString() {
+            String base = super.toString();
+            switch (store.kind(row)) {
+                case KIND_FICTION: return base + ", Genre: " + store.extra(row);
+                case KIND_NON_FICTION: return base + ", Subject: " + store.extra(row);
+                default: return base;
+            }
+        }
+    }
+}
@@ -0,0 +1,267 @@
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import javax.crypto.Mac;
+import javax.crypto.SecretKeyFactory;
+import javax.crypto.spec.PBEKeySpec;
+import javax.crypto.spec.SecretKeySpec;
+
+// Login credentials, kept apart from users.txt and the journal so password hashes never
+// end up in catalog snapshots. One line per registration or password change in
+// credentials.txt; the last line for a user ID wins:
+//   userID|PBKDF2WithHmacSHA256|iterations|salt|hash|role      (salt and hash in Base64)
+// A STAFF login runs the desk; a PATRON login belongs to the library user with the same ID
+// and may only act for them. Lines without a role are read as PATRON.
+// Hashing is deliberately slow (Settings.iterations), so callers on the EDT should run
+// register/authenticate in a SwingWorker. A successful login is remembered for a while as
+// an HMAC of the password under a key that only lives in memory, so a desk that signs the
+// same person in again does not pay for PBKDF2 every time.
+class CredentialStore {
+    static final String FILE = "credentials.txt";
+    private static final String ALGORITHM = "PBKDF2WithHmacSHA256";
+
+    // Tuning knobs
+    static class Settings {
+        int iterations = 600_000;           // PBKDF2 cost; raise it as hardware gets faster
+        int saltBytes = 16;
+        int hashBits = 256;
+        long sessionTtlMillis = 15 * 60_000; // how long a verified login is remembered
+        int maxSessions = 1024;
+    }
+
+    enum Role { STAFF, PATRON }
+
+    private static class Credential {
+        final int iterations;
+        final byte[] salt;
+        final byte[] hash;
+        final Role role;
+
+        Credential(int iterations, byte[] salt, byte[] hash, Role role) {
+            this.iterations = iterations;
+            this.salt = salt;
+            this.hash = hash;
+            this.role = role;
+        }
+    }
+
+    private static class Session {
+        final byte[] tag;
+        final long expiresAt;
+
+        Session(byte[] tag, long expiresAt) {
+            this.tag = tag;
+            this.expiresAt = expiresAt;
+        }
+    }
+
+    private final Path file;
+    private final Settings settings;
+    private final SecureRandom random = new SecureRandom();
+    private final ConcurrentHashMap<String, Credential> byUserId = new ConcurrentHashMap<>();
+    private final LinkedHashMap<String, Session> sessions = new LinkedHashMap<>(16, 0.75f, true);
+    private final SecretKeySpec sessionKey;
+    private final LatencyHistogram hashLatency;
+    private final LongAdder sessionHits;
+    private final LongAdder failures;
+
+    CredentialStore(Path file, Settings settings, LibraryMetrics metrics) throws IOException {
+        this.file = file;
+        this.settings = settings;
+        byte[] key = new byte[32];
+        random.nextBytes(key);
+        this.sessionKey = new SecretKeySpec(key, "HmacSHA256");
+        this.hashLatency = metrics.histogram("auth.hash");
+        this.sessionHits = metrics.counter("auth.sessionHits");
+        this.failures = metrics.counter("auth.failures");
+        load();
+    }
+
+    private void load() throws IOException {
+        if (!Files.exists(file)) {
+            return;
+        }
+        Base64.Decoder b64 = Base64.getDecoder();
+        for (String line : Files.readAllLines(file, StandardCharsets.UTF_8)) {
+            try {
+                String[] f = LibraryJournal.split(line);
+                if ((f.length == 5 || f.length == 6) && f[1].equals(ALGORITHM)) {
+                    Role role = f.length == 6 ? Role.valueOf(f[5]) : Role.PATRON;
+                    byUserId.put(f[0], new Credential(Integer.parseInt(f[2]), b64.decode(f[3]), b64.decode(f[4]), role));
+                }
+            } catch (RuntimeException e) {
+                // torn or malformed line, skip it
+            }
+        }
+    }
+
+    public boolean hasCredential(String userID) { return byUserId.containsKey(userID); }
+
+    // The login's role, or null if the user ID has no password
+    public Role roleOf(String userID) {
+        Credential c = byUserId.get(userID);
+        return c == null ? null : c.role;
+    }
+
+    public boolean hasStaff() {
+        for (Credential c : byUserId.values()) {
+            if (c.role == Role.STAFF) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // The first STAFF login of a new installation; false once there is one. The hash is
+    // worked out before taking the lock, so one slow registration does not hold up others.
+    public boolean registerFirstStaff(String userID, char[] password) throws IOException {
+        if (hasStaff()) {
+            return false;
+        }
+        Credential fresh = derive(password, Role.STAFF);
+        synchronized (this) {
+            if (hasStaff() || byUserId.containsKey(userID)) {
+                return false;
+            }
+            store(userID, fresh);
+        }
+        return true;
+    }
+
+    // Set or reset a password without knowing the old one, for staff
+    public void setPassword(String userID, char[] password, Role role) throws IOException {
+        Credential fresh = derive(password, role);
+        synchronized (this) {
+            store(userID, fresh);
+        }
+    }
+
+    // Replace the password after checking the current one; false if it was wrong or changed meanwhile
+    public boolean changePassword(String userID, char[] oldPassword, char[] newPassword) throws IOException {
+        Credential current = byUserId.get(userID);
+        if (current == null || !authenticate(userID, oldPassword)) {
+            return false;
+        }
+        Credential fresh = derive(newPassword, current.role);
+        synchronized (this) {
+            if (byUserId.get(userID) != current) {
+                return false;
+            }
+            store(userID, fresh);
+        }
+        return true;
+    }
+
+    public boolean authenticate(String userID, char[] password) throws IOException {
+        Credential c = byUserId.get(userID);
+        if (c == null) {
+            // hash anyway, so an unknown user ID takes as long as a wrong password
+            hash(password, new byte[settings.saltBytes], settings.iterations);
+            failures.increment();
+            return false;
+        }
+        byte[] tag = sessionTag(userID, password);
+        synchronized (sessions) {
+            Session s = sessions.get(userID);
+            if (s != null && System.currentTimeMillis() < s.expiresAt && MessageDigest.isEqual(s.tag, tag)) {
+                sessionHits.increment();
+                return true;
+            }
+        }
+        if (!MessageDigest.isEqual(c.hash, hash(password, c.salt, c.iterations))) {
+            failures.increment();
+            return false;
+        }
+        if (c.iterations < settings.iterations) {
+            Credential fresh = derive(password, c.role);  // bring old hashes up to the current cost
+            synchronized (this) {
+                if (byUserId.get(userID) == c) {
+                    store(userID, fresh);
+                }
+            }
+        }
+        remember(userID, tag);
+        return true;
+    }
+
+    // Forget a remembered login, for example on sign-out
+    public void endSession(String userID) {
+        synchronized (sessions) {
+            sessions.remove(userID);
+        }
+    }
+
+    // A new salt and hash at the current cost; slow, so call it without holding the lock
+    private Credential derive(char[] password, Role role) {
+        byte[] salt = new byte[settings.saltBytes];
+        random.nextBytes(salt);
+        return new Credential(settings.iterations, salt, hash(password, salt, settings.iterations), role);
+    }
+
+    // Caller holds the lock
+    private void store(String userID, Credential c) throws IOException {
+        Base64.Encoder b64 = Base64.getEncoder();
+        try (BufferedWriter out = Files.newBufferedWriter(file, StandardCharsets.UTF_8,
+                StandardOpenOption.CREATE, StandardOpenOption.APPEND)) {
+            out.write(LibraryJournal.join(userID, ALGORITHM, String.valueOf(c.iterations),
+                    b64.encodeToString(c.salt), b64.encodeToString(c.hash), c.role.name()));
+            out.newLine();
+        }
+        byUserId.put(userID, c);
+        endSession(userID);
+    }
+
+    private byte[] hash(char[] password, byte[] salt, int iterations) {
+        long start = System.nanoTime();
+        PBEKeySpec spec = new PBEKeySpec(password, salt, iterations, settings.hashBits);
+        try {
+            return SecretKeyFactory.getInstance(ALGORITHM).generateSecret(spec).getEncoded();
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException(ALGORITHM + " is not available", e);
+        } finally {
+            spec.clearPassword();
+            hashLatency.recordSince(start);
+        }
+    }
+
+    private byte[] sessionTag(String userID, char[] password) {
+        try {
+            Mac mac = Mac.getInstance("HmacSHA256");
+            mac.init(sessionKey);
+            mac.update(userID.getBytes(StandardCharsets.UTF_8));
+            mac.update((byte) 0);
+            ByteBuffer bytes = StandardCharsets.UTF_8.encode(CharBuffer.wrap(password));
+            mac.update(bytes);
+            Arrays.fill(bytes.array(), (byte) 0);
+            return mac.doFinal();
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException("HmacSHA256 is not available", e);
+        }
+    }
+
+    private void remember(String userID, byte[] tag) {
+        synchronized (sessions) {
+            sessions.put(userID, new Session(tag, System.currentTimeMillis() + settings.sessionTtlMillis));
+            Iterator<Map.Entry<String, Session>> it = sessions.entrySet().iterator();
+            while (sessions.size() > settings.maxSessions && it.hasNext()) {
+                it.next();
+                it.remove();
+            }
+        }
+    }
+}
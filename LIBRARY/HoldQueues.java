@@ -0,0 +1,419 @@
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+// One patron's place in line for a title
+class Hold {
+    private static final DateTimeFormatter FORMAT = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm");
+
+    enum State { WAITING, READY, FULFILLED, CANCELLED, EXPIRED }
+
+    private final long holdId;
+    private final User user;
+    private final String title;
+    private final LocalDateTime placedAt;
+    State state = State.WAITING;
+    Book copy;                  // the copy set aside once READY
+    LocalDateTime pickupBy;     // when a READY hold lapses
+    int slot;                   // position slot in its title queue
+
+    public Hold(long holdId, User user, String title, LocalDateTime placedAt) {
+        this.holdId = holdId;
+        this.user = user;
+        this.title = title;
+        this.placedAt = placedAt;
+    }
+
+    public long getHoldId() { return holdId; }
+    public User getUser() { return user; }
+    public String getTitle() { return title; }
+    public LocalDateTime getPlacedAt() { return placedAt; }
+    public State getState() { return state; }
+    public Book getCopy() { return copy; }
+    public LocalDateTime getPickupBy() { return pickupBy; }
+
+    @Override
+    public String toString() {
+        return "Hold #" + holdId + ": " + title + " (" + state +
+                (state == State.READY ? ", pick up by " + FORMAT.format(pickupBy) : "") + ")";
+    }
+}
+
+// Per-title FIFO hold queues.
+// A returned copy goes straight to the first patron waiting for its title instead of back on
+// the shelf: a deque poll, no search. The copy stays unavailable to everyone else until the
+// holder checks it out or the pickup window runs out, when it moves on to the next in line.
+// Queue positions come from a Fenwick tree over each queue's slots, so looking one up is
+// O(log n) even when holds in front of it are cancelled.
+// Every change is journaled: H carries a hold's full state (re-sent when it becomes READY),
+// Y closes it. Both are safe to replay twice.
+class HoldQueues {
+    // Tuning knobs
+    static class Settings {
+        int pickupDays = 3;                 // how long a copy waits for its holder
+        long expiryCheckSeconds = 60;       // how often lapsed pickups are swept
+    }
+
+    // Waiting holds for one title, in arrival order
+    private static class TitleQueue {
+        final ArrayDeque<Hold> waiting = new ArrayDeque<>();
+        int[] tree = new int[17];           // Fenwick tree over slots, 1-based
+        int nextSlot;
+        int live;                           // WAITING holds in the deque
+
+        void add(Hold hold) {
+            if (nextSlot + 1 >= tree.length) {
+                rebuild();
+            }
+            hold.slot = ++nextSlot;
+            waiting.addLast(hold);
+            update(hold.slot, 1);
+            live++;
+        }
+
+        // Back to the head of the line, for a holder whose copy was taken away
+        void addFirst(Hold hold) {
+            waiting.addFirst(hold);
+            live++;
+            rebuild();
+        }
+
+        void left(Hold hold) {
+            update(hold.slot, -1);
+            live--;
+        }
+
+        // First hold still waiting, or null
+        Hold poll() {
+            Hold hold;
+            while ((hold = waiting.pollFirst()) != null) {
+                if (hold.state == Hold.State.WAITING) {
+                    left(hold);
+                    return hold;
+                }
+            }
+            return null;
+        }
+
+        int position(Hold hold) {
+            int sum = 0;
+            for (int i = hold.slot; i > 0; i -= i & -i) {
+                sum += tree[i];
+            }
+            return sum;
+        }
+
+        private void update(int slot, int delta) {
+            for (int i = slot; i < tree.length; i += i & -i) {
+                tree[i] += delta;
+            }
+        }
+
+        // Drop holds that left the queue and renumber the rest from 1
+        private void rebuild() {
+            waiting.removeIf(h -> h.state != Hold.State.WAITING);
+            tree = new int[Math.max(17, 2 * waiting.size() + 2)];
+            nextSlot = 0;
+            for (Hold h : waiting) {
+                h.slot = ++nextSlot;
+                update(h.slot, 1);
+            }
+        }
+    }
+
+    private final LibraryManagementSystem lms;
+    private final Settings settings;
+    private final Supplier<LocalDateTime> clock;
+    private final HashMap<String, TitleQueue> queues = new HashMap<>();     // folded title -> queue
+    private final HashMap<Long, Hold> active = new HashMap<>();             // WAITING and READY holds
+    private final HashMap<String, ArrayList<Hold>> byUser = new HashMap<>();
+    private final HashMap<Integer, Hold> reserved = new HashMap<>();        // book ID -> READY hold
+    private final PriorityQueue<Hold> pickupDeadlines =
+            new PriorityQueue<>(Comparator.comparing(Hold::getPickupBy).thenComparingLong(Hold::getHoldId));
+    private long nextHoldId = 1;
+    private LibraryJournal journal;
+    private ScheduledExecutorService sweeper;
+
+    HoldQueues(LibraryManagementSystem lms, Settings settings, Supplier<LocalDateTime> clock) {
+        this.lms = lms;
+        this.settings = settings;
+        this.clock = clock;
+    }
+
+    // Join the queue for a title. Returns the user's existing hold if there is one, or null if
+    // the catalog has no copy of the title or a copy is on the shelf right now.
+    public synchronized Hold place(User user, String title) {
+        String key = TextKeys.fold(title);
+        for (Hold h : byUser.getOrDefault(user.getUserID(), new ArrayList<>())) {
+            if (TextKeys.fold(h.getTitle()).equals(key)) {
+                return h;
+            }
+        }
+        if (!lms.hasTitle(title) || lms.findAvailableCopy(title) != null) {
+            return null;
+        }
+        Hold hold = new Hold(nextHoldId++, user, title, clock.get());
+        add(hold);
+        journal(hold);
+        return hold;
+    }
+
+    // Withdraw a hold. A copy already set aside for it moves on to the next in line.
+    public synchronized boolean cancel(long holdId) {
+        Hold hold = active.get(holdId);
+        if (hold == null) {
+            return false;
+        }
+        Book copy = hold.copy;
+        finish(hold, Hold.State.CANCELLED);
+        if (copy != null) {
+            shelveLocked(copy);
+        }
+        return true;
+    }
+
+    // A copy came back (or was added): give it to the next holder of its title, or put it
+    // on the shelf. Returns the hold it went to, or null.
+    public synchronized Hold shelve(Book book) {
+        expireLocked(clock.get());
+        return shelveLocked(book);
+    }
+
+    // shelve() for a batch of returned copies, under one acquisition of the queue lock
+    public synchronized ArrayList<Hold> shelveAll(List<Book> books) {
+        expireLocked(clock.get());
+        ArrayList<Hold> handedTo = new ArrayList<>(books.size());
+        for (Book book : books) {
+            handedTo.add(shelveLocked(book));
+        }
+        return handedTo;
+    }
+
+    private Hold shelveLocked(Book book) {
+        if (lms.findBookById(book.getId()) != book) {
+            return null;  // removed from the catalog; nobody can pick it up
+        }
+        TitleQueue queue = queues.get(book.getTitleKey());
+        Hold next = queue == null ? null : queue.poll();
+        if (queue != null && queue.live == 0) {
+            queues.remove(book.getTitleKey());
+        }
+        if (next == null) {
+            book.setAvailable(true);
+            return null;
+        }
+        next.state = Hold.State.READY;
+        next.copy = book;
+        next.pickupBy = clock.get().plusDays(settings.pickupDays);
+        reserved.put(book.getId(), next);
+        pickupDeadlines.add(next);
+        journal(next);
+        return next;
+    }
+
+    // A newly added copy of a title people are waiting for goes to them rather than the shelf
+    public void copyAdded(Book book) {
+        synchronized (this) {
+            if (!queues.containsKey(book.getTitleKey())) {
+                return;
+            }
+        }
+        if (book.compareAndSetAvailable(true, false)) {
+            shelve(book);
+        }
+    }
+
+    // A copy left the catalog. If it was set aside for someone, they go back to the head of
+    // the line for the next copy that comes in.
+    public synchronized void copyRemoved(Book book) {
+        Hold hold = reserved.get(book.getId());
+        if (hold == null || hold.copy != book) {
+            return;
+        }
+        reserved.remove(book.getId());
+        pickupDeadlines.remove(hold);
+        hold.state = Hold.State.WAITING;
+        hold.copy = null;
+        hold.pickupBy = null;
+        queues.computeIfAbsent(TextKeys.fold(hold.getTitle()), t -> new TitleQueue()).addFirst(hold);
+        journal(hold);
+    }
+
+    // The copy set aside for this user, if any
+    public synchronized Book readyCopyFor(User user, String title) {
+        String key = TextKeys.fold(title);
+        for (Hold h : byUser.getOrDefault(user.getUserID(), new ArrayList<>())) {
+            if (h.state == Hold.State.READY && h.copy.getTitleKey().equals(key)) {
+                return h.copy;
+            }
+        }
+        return null;
+    }
+
+    // Checkout of a copy held for this user; true if it was, and the hold is now fulfilled
+    public synchronized boolean claim(User user, Book book) {
+        Hold hold = reserved.get(book.getId());
+        if (hold == null || !hold.getUser().getUserID().equals(user.getUserID())) {
+            return false;
+        }
+        finish(hold, Hold.State.FULFILLED);
+        return true;
+    }
+
+    // Lapse READY holds whose pickup window has passed; their copies move on
+    public synchronized int expire() {
+        return expireLocked(clock.get());
+    }
+
+    private int expireLocked(LocalDateTime now) {
+        int expired = 0;
+        while (!pickupDeadlines.isEmpty() && !pickupDeadlines.peek().getPickupBy().isAfter(now)) {
+            Hold hold = pickupDeadlines.poll();
+            if (hold.state != Hold.State.READY) {
+                continue;
+            }
+            Book copy = hold.copy;
+            finish(hold, Hold.State.EXPIRED);
+            shelveLocked(copy);
+            expired++;
+        }
+        return expired;
+    }
+
+    // 1 = next in line; 0 once the hold is READY or closed
+    public synchronized int position(Hold hold) {
+        if (hold.state != Hold.State.WAITING) {
+            return 0;
+        }
+        TitleQueue queue = queues.get(TextKeys.fold(hold.getTitle()));
+        return queue == null ? 0 : queue.position(hold);
+    }
+
+    public synchronized Hold get(long holdId) { return active.get(holdId); }
+
+    public synchronized ArrayList<Hold> holdsFor(User user) {
+        return new ArrayList<>(byUser.getOrDefault(user.getUserID(), new ArrayList<>()));
+    }
+
+    public synchronized int queueLength(String title) {
+        TitleQueue queue = queues.get(TextKeys.fold(title));
+        return queue == null ? 0 : queue.live;
+    }
+
+    public synchronized int size() { return active.size(); }
+
+    // Active holds in the order they were placed, for snapshots
+    public synchronized ArrayList<Hold> all() {
+        ArrayList<Hold> all = new ArrayList<>(active.values());
+        all.sort(Comparator.comparingLong(Hold::getHoldId));
+        return all;
+    }
+
+    public synchronized void start() {
+        if (sweeper != null) {
+            return;
+        }
+        sweeper = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "library-hold-expiry");
+            t.setDaemon(true);
+            return t;
+        });
+        sweeper.scheduleWithFixedDelay(() -> {
+            try {
+                expire();
+            } catch (RuntimeException e) {
+                e.printStackTrace();
+            }
+        }, settings.expiryCheckSeconds, settings.expiryCheckSeconds, TimeUnit.SECONDS);
+    }
+
+    public synchronized void close() {
+        if (sweeper != null) {
+            sweeper.shutdownNow();
+            sweeper = null;
+        }
+    }
+
+    synchronized void setJournal(LibraryJournal journal) { this.journal = journal; }
+
+    // Re-create a hold read back from the journal or a snapshot; book is null while WAITING
+    synchronized void restore(long holdId, User user, String title, LocalDateTime placedAt, Book book, LocalDateTime pickupBy) {
+        Hold hold = active.get(holdId);
+        if (hold == null) {
+            hold = new Hold(holdId, user, title, placedAt);
+            add(hold);
+            nextHoldId = Math.max(nextHoldId, holdId + 1);
+        }
+        if (book != null && hold.state == Hold.State.WAITING) {
+            leaveQueue(hold);
+            hold.state = Hold.State.READY;
+            hold.copy = book;
+            hold.pickupBy = pickupBy;
+            reserved.put(book.getId(), hold);
+            pickupDeadlines.add(hold);
+        }
+    }
+
+    synchronized void restoreClosed(long holdId, Hold.State state) {
+        Hold hold = active.get(holdId);
+        if (hold != null) {
+            finish(hold, state);
+        }
+    }
+
+    static String holdRecord(Hold hold) {
+        return LibraryJournal.join("H", String.valueOf(hold.getHoldId()), hold.getUser().getUserID(), hold.getTitle(),
+                hold.getPlacedAt().toString(), hold.copy == null ? "" : String.valueOf(hold.copy.getId()),
+                hold.pickupBy == null ? "" : hold.pickupBy.toString());
+    }
+
+    private void add(Hold hold) {
+        active.put(hold.getHoldId(), hold);
+        byUser.computeIfAbsent(hold.getUser().getUserID(), u -> new ArrayList<>()).add(hold);
+        queues.computeIfAbsent(TextKeys.fold(hold.getTitle()), t -> new TitleQueue()).add(hold);
+    }
+
+    private void leaveQueue(Hold hold) {
+        String key = TextKeys.fold(hold.getTitle());
+        TitleQueue queue = queues.get(key);
+        queue.left(hold);
+        if (queue.live == 0) {
+            queues.remove(key);
+        }
+    }
+
+    private void finish(Hold hold, Hold.State state) {
+        if (hold.state == Hold.State.WAITING) {
+            leaveQueue(hold);
+        }
+        if (hold.copy != null) {
+            reserved.remove(hold.copy.getId());
+        }
+        hold.state = state;
+        hold.copy = null;
+        active.remove(hold.getHoldId());
+        ArrayList<Hold> userHolds = byUser.get(hold.getUser().getUserID());
+        userHolds.remove(hold);
+        if (userHolds.isEmpty()) {
+            byUser.remove(hold.getUser().getUserID());
+        }
+        if (journal != null) {
+            journal.append(LibraryJournal.join("Y", String.valueOf(hold.getHoldId()), state.name()));
+        }
+    }
+
+    private void journal(Hold hold) {
+        if (journal != null) {
+            journal.append(holdRecord(hold));
+        }
+    }
+}
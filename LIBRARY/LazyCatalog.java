@@ -0,0 +1,425 @@
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.Writer;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+
+// Read-mostly view of a very large books.txt that never holds the whole catalog on the heap.
+// Opening only maps the file and a sidecar offset index (books.txt.idx: book ID -> byte
+// offset of its line); the index is built by one sequential scan the first time, or when
+// books.txt changed, and is memory-mapped after that. So opening costs about the same for
+// ten thousand books or ten million, and so does the heap.
+// Records are decoded on demand. Recently used books stay in a bounded LRU cache; beyond it,
+// a book is kept only while someone still holds it (weak references), so there is never more
+// than one Book object per ID and a per-book CAS such as compareAndSetAvailable stays valid.
+// Changes are kept as overrides (availability per ID; edited books are pinned in memory)
+// and written back by save().
+// Book IDs are the 1-based position among valid lines, the same IDs loadBooks() assigns.
+// LibraryManagementSystem.openLazy (java LibraryGUI --lazy) answers searches from here while
+// it indexes the same Book objects in the background.
+// Where a journal is attached, books.txt is only the seed and goes stale with the first
+// change, so opening refuses a books.txt older than the journal next to it;
+// LibraryManagementSystem.exportBooks() brings the file up to date.
+class LazyCatalog implements BookListener, Closeable {
+    static final String INDEX_SUFFIX = ".idx";
+    private static final int INDEX_MAGIC = 0x4C494458;  // "LIDX"
+    private static final int INDEX_VERSION = 1;
+    private static final int HEADER_BYTES = 32;         // magic, version, books.txt size, mtime, count
+    private static final long SEGMENT_BYTES = 1L << 30;
+    private static final int MAX_LINE = 64 * 1024;      // longer lines are skipped
+
+    // Tuning knobs
+    static class Settings {
+        int cacheSize = 10_000;  // hot books kept decoded
+    }
+
+    // books.txt and its index as currently mapped; replaced as a whole by save()
+    private static class Mapping {
+        final MappedByteBuffer[] data;     // books.txt, in segments that overlap by MAX_LINE
+        final MappedByteBuffer[] offsets;  // the index after its header, in segments
+        final int count;
+
+        Mapping(MappedByteBuffer[] data, MappedByteBuffer[] offsets, int count) {
+            this.data = data;
+            this.offsets = offsets;
+            this.count = count;
+        }
+    }
+
+    private static class BookRef extends WeakReference<Book> {
+        final int id;
+
+        BookRef(Book book, ReferenceQueue<Book> queue) {
+            super(book, queue);
+            this.id = book.getId();
+        }
+    }
+
+    private final Path file;
+    private final Path indexFile;
+    private final Settings settings;
+    private volatile Mapping mapping;
+    private final LinkedHashMap<Integer, Book> hot;
+    private final ConcurrentHashMap<Integer, BookRef> live = new ConcurrentHashMap<>();
+    private final ReferenceQueue<Book> collected = new ReferenceQueue<>();
+    private final ConcurrentHashMap<Integer, Boolean> availability = new ConcurrentHashMap<>();  // overrides
+    private final ConcurrentHashMap<Integer, Book> edited = new ConcurrentHashMap<>();           // pinned
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+
+    LazyCatalog(Path file, Settings settings) throws IOException {
+        this.file = file;
+        this.indexFile = file.resolveSibling(file.getFileName() + INDEX_SUFFIX);
+        this.settings = settings;
+        Path dir = file.toAbsolutePath().getParent();
+        if (LibraryJournal.exists(dir) && Files.getLastModifiedTime(file).toMillis() < LibraryJournal.lastModified(dir)) {
+            throw new IOException(file + " is older than the journal in " + dir + "; export the catalog first");
+        }
+        this.hot = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Integer, Book> eldest) {
+                return size() > LazyCatalog.this.settings.cacheSize;
+            }
+        };
+        map();
+    }
+
+    private void map() throws IOException {
+        long size = Files.size(file);
+        long modified = Files.getLastModifiedTime(file).toMillis();
+        if (!indexMatches(size, modified)) {
+            buildIndex(size, modified);
+        }
+        MappedByteBuffer[] data;
+        try (FileChannel ch = FileChannel.open(file, StandardOpenOption.READ)) {
+            data = mapSegments(ch, 0, size, MAX_LINE);
+        }
+        try (FileChannel ch = FileChannel.open(indexFile, StandardOpenOption.READ)) {
+            ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES);
+            ch.read(header, 0);
+            int count = (int) header.getLong(24);
+            mapping = new Mapping(data, mapSegments(ch, HEADER_BYTES, (long) count * 8, 0), count);
+        }
+    }
+
+    private boolean indexMatches(long size, long modified) throws IOException {
+        if (!Files.exists(indexFile)) {
+            return false;
+        }
+        try (FileChannel ch = FileChannel.open(indexFile, StandardOpenOption.READ)) {
+            ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES);
+            if (ch.read(header, 0) != HEADER_BYTES) {
+                return false;
+            }
+            long n = header.getLong(24);
+            return header.getInt(0) == INDEX_MAGIC && header.getInt(4) == INDEX_VERSION
+                    && header.getLong(8) == size && header.getLong(16) == modified
+                    && ch.size() == HEADER_BYTES + n * 8;
+        }
+    }
+
+    // One sequential pass over books.txt, writing the offset of every line with 5 fields.
+    // Written to a temp file and moved into place, so a crash never leaves a bad index.
+    private void buildIndex(long size, long modified) throws IOException {
+        Path tmp = indexFile.resolveSibling(indexFile.getFileName() + ".tmp");
+        long n = 0;
+        try (FileChannel in = FileChannel.open(file, StandardOpenOption.READ);
+             FileChannel out = FileChannel.open(tmp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                     StandardOpenOption.TRUNCATE_EXISTING)) {
+            ByteBuffer buf = ByteBuffer.allocate(64 * 1024);
+            out.position(HEADER_BYTES);
+            long pos = 0;
+            boolean skipFirst = false;  // the segment starts inside an overlong line
+            while (pos < size) {
+                long length = Math.min(SEGMENT_BYTES, size - pos);
+                MappedByteBuffer map = in.map(FileChannel.MapMode.READ_ONLY, pos, length);
+                long lineStart = pos;
+                int bars = 0;
+                boolean empty = true;
+                for (int i = 0, end = map.limit(); i < end; i++) {
+                    byte b = map.get(i);
+                    if (b != '\n') {
+                        bars += b == '|' ? 1 : 0;
+                        empty &= b == '\r';
+                        continue;
+                    }
+                    if (!skipFirst && isBook(bars, empty, pos + i - lineStart)) {
+                        n++;
+                        buf = put(out, buf, lineStart);
+                    }
+                    skipFirst = false;
+                    lineStart = pos + i + 1;
+                    bars = 0;
+                    empty = true;
+                }
+                if (pos + length == size) {
+                    if (!skipFirst && lineStart < size && isBook(bars, empty, size - lineStart)) {
+                        n++;
+                        buf = put(out, buf, lineStart);
+                    }
+                    break;
+                }
+                // continue from the start of the line the segment boundary cut through
+                skipFirst = lineStart == pos;
+                pos = skipFirst ? pos + length : lineStart;
+            }
+            buf.flip();
+            while (buf.hasRemaining()) {
+                out.write(buf);
+            }
+            ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES);
+            header.putInt(INDEX_MAGIC).putInt(INDEX_VERSION).putLong(size).putLong(modified).putLong(n).flip();
+            out.write(header, 0);
+            out.force(true);
+        }
+        Files.move(tmp, indexFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    // What CatalogLoader.readBooks accepts: a non-blank line with exactly 5 fields
+    private static boolean isBook(int bars, boolean empty, long length) {
+        return bars == 4 && !empty && length <= MAX_LINE;
+    }
+
+    private static ByteBuffer put(FileChannel out, ByteBuffer buf, long offset) throws IOException {
+        if (!buf.hasRemaining()) {
+            buf.flip();
+            while (buf.hasRemaining()) {
+                out.write(buf);
+            }
+            buf.clear();
+        }
+        return buf.putLong(offset);
+    }
+
+    private static MappedByteBuffer[] mapSegments(FileChannel ch, long from, long length, int overlap) throws IOException {
+        int n = (int) ((length + SEGMENT_BYTES - 1) / SEGMENT_BYTES);
+        MappedByteBuffer[] segments = new MappedByteBuffer[n];
+        for (int i = 0; i < n; i++) {
+            long start = i * SEGMENT_BYTES;
+            segments[i] = ch.map(FileChannel.MapMode.READ_ONLY, from + start, Math.min(SEGMENT_BYTES + overlap, length - start));
+        }
+        return segments;
+    }
+
+    public int size() { return mapping.count; }
+    public long getHits() { return hits.sum(); }
+    public long getMisses() { return misses.sum(); }
+    public int getCachedCount() { synchronized (hot) { return hot.size(); } }
+
+    // The book with this ID (1..size()), decoded on first use; the same object for as long as
+    // anyone holds it
+    public Book get(int id) {
+        if (id < 1 || id > mapping.count) {
+            return null;
+        }
+        Book book;
+        synchronized (hot) {
+            book = hot.get(id);
+        }
+        if (book != null) {
+            hits.increment();
+            return book;
+        }
+        drainCollected();
+        BookRef ref = live.get(id);
+        book = ref == null ? null : ref.get();
+        if (book == null) {
+            misses.increment();
+            Book decoded = decode(id);
+            // another thread may have decoded the same ID meanwhile; keep whichever got in first
+            BookRef mine = new BookRef(decoded, collected);
+            BookRef winner = live.compute(id, (k, old) -> old != null && old.get() != null ? old : mine);
+            book = winner.get();
+            if (book == null) {
+                return get(id);  // collected in between, try again
+            }
+            if (book == decoded) {
+                decoded.setListener(this);
+            }
+        } else {
+            hits.increment();
+        }
+        synchronized (hot) {
+            hot.put(id, book);
+        }
+        return book;
+    }
+
+    public boolean isAvailable(int id) {
+        Book book = peek(id);
+        if (book != null) {
+            return book.isAvailable();
+        }
+        Boolean override = availability.get(id);
+        return override != null ? override : Boolean.parseBoolean(fields(id)[4]);
+    }
+
+    // A book already decoded, without decoding it
+    private Book peek(int id) {
+        BookRef ref = live.get(id);
+        return ref == null ? null : ref.get();
+    }
+
+    private void drainCollected() {
+        for (BookRef ref; (ref = (BookRef) collected.poll()) != null; ) {
+            live.remove(ref.id, ref);
+        }
+    }
+
+    private Book decode(int id) {
+        Book edit = edited.get(id);
+        if (edit != null) {
+            return edit;
+        }
+        String[] f = fields(id);
+        Book book = new Book(f[0], f[1], f[3]);
+        book.setPublicationDate(f[2]);
+        Boolean override = availability.get(id);
+        book.setAvailable(override != null ? override : Boolean.parseBoolean(f[4]));
+        book.setId(id);
+        return book;
+    }
+
+    // title, author, publicationDate, category, available
+    private String[] fields(int id) {
+        Mapping m = mapping;
+        long at = (long) (id - 1) * 8;
+        long offset = m.offsets[(int) (at / SEGMENT_BYTES)].getLong((int) (at % SEGMENT_BYTES));
+        ByteBuffer seg = m.data[(int) (offset / SEGMENT_BYTES)];
+        int pos = (int) (offset % SEGMENT_BYTES);
+        int end = pos;
+        int limit = Math.min(seg.limit(), pos + MAX_LINE);
+        while (end < limit && seg.get(end) != '\n') {
+            end++;
+        }
+        if (end > pos && seg.get(end - 1) == '\r') {
+            end--;
+        }
+        byte[] line = new byte[end - pos];
+        seg.get(pos, line);
+        String[] f = new String[5];
+        int field = 0;
+        int from = 0;
+        for (int i = 0; i <= line.length && field < 5; i++) {
+            if (i == line.length || line[i] == '|') {
+                f[field++] = new String(line, from, i - from, StandardCharsets.UTF_8);
+                from = i + 1;
+            }
+        }
+        return f;
+    }
+
+    // Visit every book in ID order without caching them (a full scan would only flush the
+    // hot set); books already decoded are passed as they are
+    public void forEach(Consumer<Book> action) {
+        for (int id = 1, n = size(); id <= n; id++) {
+            Book book = peek(id);
+            action.accept(book != null ? book : decode(id));
+        }
+    }
+
+    // Linear scan with the same matching rules as searchBooks; at most limit results.
+    // Matches are returned as the catalog's own Book objects. Stops on interrupt like CatalogIndex.
+    public ArrayList<Book> search(String title, String author, String category, String publicationDate, Boolean isAvailable, int limit) {
+        String titleKey = TextKeys.fold(title);
+        String authorKey = TextKeys.fold(author);
+        String categoryKey = TextKeys.fold(category);
+        ArrayList<Book> results = new ArrayList<>();
+        for (int id = 1, n = size(); id <= n && results.size() < limit; id++) {
+            CatalogIndex.checkCancelled(id);
+            Book book = peek(id);
+            if (CatalogIndex.matches(book != null ? book : decode(id), titleKey, authorKey, categoryKey, publicationDate, isAvailable)) {
+                results.add(get(id));
+            }
+        }
+        return results;
+    }
+
+    // BookListener: remember what changed so it outlives the Book object and reaches save()
+    @Override
+    public void availabilityChanged(Book book) {
+        availability.put(book.getId(), book.isAvailable());
+    }
+
+    @Override
+    public void categoryChanged(Book book, String oldCategory) { edited.put(book.getId(), book); }
+
+    @Override
+    public void publicationDateChanged(Book book, String oldDate) { edited.put(book.getId(), book); }
+
+    @Override
+    public void extraChanged(Book book, String oldExtra) { edited.put(book.getId(), book); }
+
+    public boolean isDirty() { return !availability.isEmpty() || !edited.isEmpty(); }
+
+    // Write books.txt with the overrides applied, swap it in atomically and map the new file.
+    // IDs and Book objects stay the same; lines that were not books are dropped. Changes that
+    // come in while the file is written stay as overrides: only what was written is cleared.
+    public synchronized void save() throws IOException {
+        if (!isDirty()) {
+            return;
+        }
+        HashMap<Integer, Boolean> writtenAvailability = new HashMap<>();
+        HashMap<Integer, String> writtenEdits = new HashMap<>();
+        Path tmp = file.resolveSibling(file.getFileName() + ".tmp");
+        try (Writer out = Files.newBufferedWriter(tmp, StandardCharsets.UTF_8)) {
+            for (int id = 1, n = size(); id <= n; id++) {
+                Book book = edited.get(id);
+                Boolean available = availability.get(id);
+                if (book == null && available == null) {
+                    out.write(String.join("|", fields(id)));
+                } else {
+                    if (available != null) {
+                        writtenAvailability.put(id, available);
+                    }
+                    String[] f;
+                    if (book != null) {
+                        f = editedFields(book);
+                        writtenEdits.put(id, String.join("|", f));
+                    } else {
+                        book = peek(id);
+                        f = book != null ? editedFields(book) : fields(id);
+                    }
+                    f[4] = String.valueOf(available != null ? available : book.isAvailable());
+                    out.write(String.join("|", f));
+                }
+                out.write('\n');
+            }
+        }
+        Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        Files.deleteIfExists(indexFile);  // size and mtime alone could match the old file
+        map();
+        for (Map.Entry<Integer, Boolean> e : writtenAvailability.entrySet()) {
+            availability.remove(e.getKey(), e.getValue());
+        }
+        for (Map.Entry<Integer, String> e : writtenEdits.entrySet()) {
+            edited.computeIfPresent(e.getKey(), (id, book) -> String.join("|", editedFields(book)).equals(e.getValue()) ? null : book);
+        }
+    }
+
+    // title, author, publicationDate, category, and a slot for available
+    private static String[] editedFields(Book book) {
+        return new String[] {book.getTitle(), book.getAuthor(), book.getPublicationDate(), book.getCategory(), ""};
+    }
+
+    // Drop the mappings (they are unmapped once collected); the catalog is empty afterwards
+    @Override
+    public void close() {
+        mapping = new Mapping(new MappedByteBuffer[0], new MappedByteBuffer[0], 0);
+    }
+}
@@ -0,0 +1,60 @@
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+
+// What a circulation desk works with: implemented by LibraryManagementSystem for a local
+// catalog and by RemoteLibraryManagementSystem for one on a LibraryServer. The GUI, the
+// login pages, searches and imports only see this, so a desk client has no local engine
+// to fall through to. Journals, schedulers, metrics registries and the credential store
+// are the engine's own business and stay on LibraryManagementSystem.
+interface Library {
+    // Catalog
+    void addBook(Book book);
+    void addBooks(List<? extends Book> batch);
+    void removeBook(Book book);
+    boolean addUser(User user);  // false if the user ID is taken
+    User findUserById(String userID);
+    Book findBookById(int id);
+    boolean hasTitle(String title);
+    Book findAvailableCopy(String title);
+    Book findCopyFor(User user, String title);
+    boolean isBookAvailable(Book book);
+    List<Book> getBooks();
+    List<User> getUsers();
+    HashMap<String, Integer> getCategorySizes();
+
+    // Circulation
+    Loan checkOut(User user, Book book);  // null if the copy or user is not valid
+    Book returnBook(User user);           // the user's oldest loan
+    Loan returnLoan(long loanId);
+    List<Circulation.Result> checkOutAll(List<Circulation.Request> requests);
+    List<Circulation.Result> returnAll(List<Integer> bookIds);
+    ArrayList<Loan> getLoansFor(User user);
+    ArrayList<Loan> getOverdueLoans();
+    long getOutstandingFine(User user);
+
+    // Holds
+    Hold placeHold(User user, String title);
+    boolean cancelHold(long holdId);
+    int getHoldPosition(Hold hold);
+    ArrayList<Hold> getHoldsFor(User user);
+
+    // Search
+    ArrayList<Book> searchBooks(String title, String author, String category, String publicationDate, Boolean isAvailable);
+    ArrayList<Book> searchBooks(String title, String author, String category, String publicationDate, Boolean isAvailable, int limit);
+    ArrayList<Book> refineSearch(List<Book> previous, String title, String author, String category, String publicationDate, Boolean isAvailable);
+    List<RankedIndex.Hit> searchRanked(String query, int limit, boolean fuzzy);
+    List<List<Book>> findDuplicateBooks();
+    ArrayList<Book> getAvailableBooks();
+    long getCatalogVersion();  // changes whenever a book is added, removed or changes state
+
+    // Desk logins (see CredentialStore); they hash slowly on purpose, so keep them off the EDT
+    boolean authenticate(String userID, char[] password) throws IOException;
+    boolean registerCredentials(String userID, char[] password) throws IOException;  // first staff login only
+    boolean setCredentials(String userID, char[] password, boolean staff) throws IOException;
+
+    // Reports
+    String metricsSnapshot();
+    String analyticsReport();
+}
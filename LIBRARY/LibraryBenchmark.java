@@ -0,0 +1,322 @@
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.io.PrintWriter;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Supplier;
+import java.util.stream.Stream;
+
+// Benchmark suite for LibraryManagementSystem, run through bench.sh.
+// Each benchmark gets warmup iterations followed by measured iterations of a fixed
+// duration; results go to stdout and to a JSON file.
+//
+//   --sizes 10000,1000000,10000000   synthetic catalog sizes
+//   --threads 1,2,4,8                thread counts for borrow/return
+//   --warmup 3 --iterations 5        iterations per benchmark
+//   --millis 1000                    length of one iteration
+//   --only search,borrow             run a subset (search, available, borrow, io; io includes lazy mode)
+//                                    search and available run with the query cache off, so they time
+//                                    the index; add "cached" to also time them with the cache on
+//   --json bench-results.json        where to write the results
+public class LibraryBenchmark {
+    private static final String[] WORDS = {"the", "house", "of", "river", "night", "garden", "stone", "happy",
+            "place", "love", "war", "city", "winter", "silent", "kingdom", "shadow", "light", "journey", "sea", "fire"};
+    private static final String[] CATEGORIES = {"Fiction", "Non-Fiction", "Science", "Biography"};
+    // Results go here; System.out is silenced so the library's own prints don't skew timings
+    private static final PrintStream console = System.out;
+
+    private final int warmup;
+    private final int iterations;
+    private final long millis;
+    private final List<Result> results = new ArrayList<>();
+
+    LibraryBenchmark(int warmup, int iterations, long millis) {
+        this.warmup = warmup;
+        this.iterations = iterations;
+        this.millis = millis;
+    }
+
+    // One measured benchmark
+    static class Result {
+        final String name;
+        final int catalogSize;
+        final int threads;
+        final double opsPerSecond;
+        final double avgMicros;
+        final double errorPercent;
+
+        Result(String name, int catalogSize, int threads, double opsPerSecond, double avgMicros, double errorPercent) {
+            this.name = name;
+            this.catalogSize = catalogSize;
+            this.threads = threads;
+            this.opsPerSecond = opsPerSecond;
+            this.avgMicros = avgMicros;
+            this.errorPercent = errorPercent;
+        }
+
+        String toJson() {
+            return String.format(Locale.ROOT,
+                    "{\"benchmark\": \"%s\", \"catalogSize\": %d, \"threads\": %d, \"opsPerSecond\": %.2f, \"avgMicros\": %.3f, \"errorPercent\": %.2f}",
+                    name, catalogSize, threads, opsPerSecond, avgMicros, errorPercent);
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        String sizes = "10000,1000000,10000000";
+        String threads = defaultThreads();
+        String only = "search,available,borrow,io";
+        String json = "bench-results.json";
+        int warmup = 3;
+        int iterations = 5;
+        long millis = 1000;
+        for (int i = 0; i + 1 < args.length; i += 2) {
+            switch (args[i]) {
+                case "--sizes": sizes = args[i + 1]; break;
+                case "--threads": threads = args[i + 1]; break;
+                case "--only": only = args[i + 1]; break;
+                case "--json": json = args[i + 1]; break;
+                case "--warmup": warmup = Integer.parseInt(args[i + 1]); break;
+                case "--iterations": iterations = Integer.parseInt(args[i + 1]); break;
+                case "--millis": millis = Long.parseLong(args[i + 1]); break;
+                default: throw new IllegalArgumentException("Unknown option " + args[i]);
+            }
+        }
+
+        LibraryBenchmark bench = new LibraryBenchmark(warmup, iterations, millis);
+        System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+        for (String size : sizes.split(",")) {
+            int n = Integer.parseInt(size.trim());
+            console.println("== catalog of " + n + " books ==");
+            Path dir = Files.createTempDirectory("library-bench");
+            LibraryManagementSystem lms = catalog(n, dir);
+            for (boolean cached : only.contains("cached") ? new boolean[] {false, true} : new boolean[] {false}) {
+                String suffix = cached ? " cached" : "";
+                if (cached) {
+                    lms.getQueryCache().configure(QueryCache.DEFAULT_MAX_ENTRIES, QueryCache.DEFAULT_MAX_BYTES, 0);
+                } else {
+                    lms.getQueryCache().configure(0, 0, 0);  // also drops anything cached
+                }
+                if (only.contains("search")) {
+                    bench.searchBenchmarks(lms, n, suffix);
+                }
+                if (only.contains("available")) {
+                    bench.run("getAvailableBooks" + suffix, n, 1, () -> lms.getAvailableBooks().size());
+                }
+            }
+            if (only.contains("borrow")) {
+                for (String t : threads.split(",")) {
+                    bench.borrowReturn(lms, n, Integer.parseInt(t.trim()));
+                }
+            }
+            if (only.contains("io")) {
+                bench.io(lms, n, dir);
+            }
+            deleteRecursively(dir);
+        }
+        bench.writeJson(Paths.get(json));
+        console.println("Results written to " + json);
+    }
+
+    // searchBooks for every combination of title/author/category/date filters and availability
+    void searchBenchmarks(LibraryManagementSystem lms, int n, String suffix) {
+        Random random = new Random(42);
+        List<Book> sample = lms.getBooksSnapshot();
+        for (int mask = 0; mask < 16; mask++) {
+            for (Boolean available : new Boolean[] {null, true, false}) {
+                boolean useTitle = (mask & 1) != 0;
+                boolean useAuthor = (mask & 2) != 0;
+                boolean useCategory = (mask & 4) != 0;
+                boolean useDate = (mask & 8) != 0;
+                String name = "searchBooks[" + (useTitle ? "title" : "-") + "," + (useAuthor ? "author" : "-") + ","
+                        + (useCategory ? "category" : "-") + "," + (useDate ? "date" : "-") + ","
+                        + (available == null ? "any" : available ? "available" : "unavailable") + "]" + suffix;
+                run(name, n, 1, () -> {
+                    Book b = sample.get(random.nextInt(sample.size()));
+                    String title = useTitle ? b.getTitle().substring(0, Math.min(8, b.getTitle().length())) : "";
+                    String author = useAuthor ? b.getAuthor() : "";
+                    String category = useCategory ? b.getCategory() : "";
+                    String date = useDate ? b.getPublicationDate().substring(0, 7) : "";
+                    return lms.searchBooks(title, author, category, date, available).size();
+                });
+            }
+        }
+    }
+
+    // checkOut + returnLoan pairs from several desks at once
+    void borrowReturn(LibraryManagementSystem lms, int n, int threads) throws Exception {
+        List<User> users = lms.getUsersSnapshot();
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        try {
+            double[] rates = new double[warmup + iterations];
+            for (int it = 0; it < rates.length; it++) {
+                AtomicBoolean stop = new AtomicBoolean();
+                CountDownLatch start = new CountDownLatch(1);
+                List<Future<Long>> futures = new ArrayList<>();
+                for (int t = 0; t < threads; t++) {
+                    futures.add(pool.submit(() -> {
+                        ThreadLocalRandom random = ThreadLocalRandom.current();
+                        User user = users.get(random.nextInt(users.size()));
+                        long ops = 0;
+                        start.await();
+                        while (!stop.get()) {
+                            Book book = lms.findBookById(1 + random.nextInt(n));
+                            Loan loan = book == null ? null : lms.checkOut(user, book);
+                            if (loan != null) {
+                                lms.returnLoan(loan.getLoanId());
+                            }
+                            ops++;
+                        }
+                        return ops;
+                    }));
+                }
+                long begin = System.nanoTime();
+                start.countDown();
+                Thread.sleep(millis);
+                stop.set(true);
+                long total = 0;
+                for (Future<Long> f : futures) {
+                    total += f.get();
+                }
+                rates[it] = total / ((System.nanoTime() - begin) / 1e9);
+            }
+            record("borrowReturn", n, threads, rates);
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    // saveBooks and loadBooks against books.txt in a temp directory
+    void io(LibraryManagementSystem lms, int n, Path dir) {
+        run("saveBooks", n, 1, () -> {
+            lms.saveBooks();
+            return 1;
+        });
+        run("loadBooks", n, 1, () -> {
+            LibraryManagementSystem fresh = new LibraryManagementSystem(dir);
+            fresh.loadBooks();
+            return fresh.getBooks().size();
+        });
+        // Lazy mode: opening once the offset index exists, then lookups by random ID
+        Path books = dir.resolve("books.txt");
+        run("openLazy", n, 1, () -> {
+            try (LazyCatalog lazy = new LazyCatalog(books, new LazyCatalog.Settings())) {
+                return lazy.size();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        });
+        try (LazyCatalog lazy = new LazyCatalog(books, new LazyCatalog.Settings())) {
+            run("lazyGet", n, 1, () -> lazy.get(1 + ThreadLocalRandom.current().nextInt(lazy.size())));
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    // Single-threaded benchmark: call op repeatedly for each iteration
+    void run(String name, int n, int threads, Supplier<Object> op) {
+        double[] rates = new double[warmup + iterations];
+        Object sink = null;
+        for (int it = 0; it < rates.length; it++) {
+            long ops = 0;
+            long begin = System.nanoTime();
+            long deadline = begin + millis * 1_000_000L;
+            long now;
+            do {
+                sink = op.get();
+                ops++;
+                now = System.nanoTime();
+            } while (now < deadline);
+            rates[it] = ops / ((now - begin) / 1e9);
+        }
+        if (sink == null) {
+            console.println("(no result)");
+        }
+        record(name, n, threads, rates);
+    }
+
+    private void record(String name, int n, int threads, double[] rates) {
+        double sum = 0;
+        for (int i = warmup; i < rates.length; i++) {
+            sum += rates[i];
+        }
+        double mean = sum / iterations;
+        double var = 0;
+        for (int i = warmup; i < rates.length; i++) {
+            var += (rates[i] - mean) * (rates[i] - mean);
+        }
+        double error = iterations > 1 ? 100 * Math.sqrt(var / (iterations - 1)) / mean : 0;
+        Result r = new Result(name, n, threads, mean, threads * 1e6 / mean, error);
+        results.add(r);
+        console.printf(Locale.ROOT, "%-60s %3d thr %14.1f ops/s %12.3f us/op  +-%.1f%%%n",
+                name, threads, mean, r.avgMicros, error);
+    }
+
+    void writeJson(Path file) throws IOException {
+        try (PrintWriter out = new PrintWriter(Files.newBufferedWriter(file, StandardCharsets.UTF_8))) {
+            out.println("[");
+            for (int i = 0; i < results.size(); i++) {
+                out.println("  " + results.get(i).toJson() + (i + 1 < results.size() ? "," : ""));
+            }
+            out.println("]");
+        }
+    }
+
+    // Synthetic catalog: multi-word titles, a Zipf-ish author pool, one user per 20 books
+    static LibraryManagementSystem catalog(int n, Path dir) {
+        Random random = new Random(n);
+        LibraryManagementSystem lms = new LibraryManagementSystem(dir);
+        int authors = Math.max(10, n / 50);
+        ArrayList<Book> batch = new ArrayList<>(100_000);
+        for (int i = 0; i < n; i++) {
+            String title = WORDS[random.nextInt(WORDS.length)] + " " + WORDS[random.nextInt(WORDS.length)] + " "
+                    + WORDS[random.nextInt(WORDS.length)] + " " + i;
+            int a = (int) Math.min(authors - 1, Math.abs(random.nextGaussian()) * authors / 3);
+            Book book = new Book(title, "Author " + a, CATEGORIES[random.nextInt(CATEGORIES.length)]);
+            book.setPublicationDate(String.format(Locale.ROOT, "%04d-%02d-%02d",
+                    1950 + random.nextInt(75), 1 + random.nextInt(12), 1 + random.nextInt(28)));
+            book.setAvailable(random.nextInt(10) != 0);
+            batch.add(book);
+            if (batch.size() == 100_000) {
+                lms.addBooks(batch);
+                batch.clear();
+            }
+        }
+        lms.addBooks(batch);
+        int users = Math.max(100, n / 20);
+        for (int i = 0; i < users; i++) {
+            lms.addUser(new User("Patron " + i, "U" + i));
+        }
+        return lms;
+    }
+
+    private static String defaultThreads() {
+        StringBuilder sb = new StringBuilder("1");
+        for (int t = 2; t <= Runtime.getRuntime().availableProcessors(); t *= 2) {
+            sb.append(',').append(t);
+        }
+        return sb.toString();
+    }
+
+    private static void deleteRecursively(Path dir) throws IOException {
+        try (Stream<Path> paths = Files.walk(dir)) {
+            for (Path p : (Iterable<Path>) paths.sorted(Comparator.reverseOrder())::iterator) {
+                Files.delete(p);
+            }
+        }
+    }
+}
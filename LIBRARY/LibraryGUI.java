@@ -1,24 +1,61 @@
 import javax.swing.*;
+import javax.swing.event.DocumentEvent;
+import javax.swing.event.DocumentListener;
 import java.awt.*;
 import java.util.Date;
 import java.text.SimpleDateFormat;
 import java.io.BufferedWriter;
-import java.io.BufferedReader;
 import java.io.FileWriter;
-import java.io.FileReader;
 import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.time.LocalDateTime;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashMap;
-import java.util.stream.Collectors;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.function.Supplier;
+import java.util.function.UnaryOperator;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.logging.Logger;
 
 // Book class
 // Modified Book class with a constructor that accepts title, author, and category
 class Book {
+    private static final VarHandle AVAILABLE;
+    static {
+        try {
+            AVAILABLE = MethodHandles.lookup().findVarHandle(Book.class, "isAvailable", boolean.class);
+        } catch (ReflectiveOperationException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
+    private int id;  // stable catalog ID, assigned by LibraryManagementSystem.addBook
     private final String title;
     private final String author;
     private String publicationDate;
     private String category;
-    private boolean isAvailable;
+    // Folded forms (TextKeys.fold) of title, author and category, used for matching
+    private final String titleKey;
+    private final String authorKey;
+    private String categoryKey;
+    private volatile boolean isAvailable;
+    private volatile BookListener listener;  // catalog that holds this book, told about changes so its indexes stay current
 
     public Book(String title, String author, String category) { // Modified constructor
         this.title = title;
@@ -26,26 +63,77 @@ class Book {
         this.category = category;
         this.publicationDate = "";
         this.isAvailable = true;
+        this.titleKey = TextKeys.fold(title);
+        this.authorKey = TextKeys.fold(author);
+        this.categoryKey = TextKeys.fold(category);
     }
 
     // Getters and setters for all fields
+    public int getId() { return id; }
     public String getTitle() { return title; }
     public String getAuthor() { return author; }
     public String getPublicationDate() { return publicationDate; }
     public String getCategory() { return category; }
     public boolean isAvailable() { return isAvailable; }
-    public void setAvailable(boolean isAvailable) { this.isAvailable = isAvailable; }
-    public void setPublicationDate(String publicationDate) { this.publicationDate = publicationDate; }
-    public void setCategory(String category) { this.category = category; }  // Added setter for category
+    public String getTitleKey() { return titleKey; }
+    public String getAuthorKey() { return authorKey; }
+    public String getCategoryKey() { return categoryKey; }
+    public void setAvailable(boolean isAvailable) {
+        boolean changed = (boolean) AVAILABLE.getAndSet(this, isAvailable) != isAvailable;
+        BookListener l = listener;
+        if (changed && l != null) l.availabilityChanged(this);
+    }
+    // Atomic check-then-act on availability; only one caller can win a given flip
+    boolean compareAndSetAvailable(boolean expected, boolean isAvailable) {
+        if (!AVAILABLE.compareAndSet(this, expected, isAvailable)) {
+            return false;
+        }
+        BookListener l = listener;
+        if (l != null) l.availabilityChanged(this);
+        return true;
+    }
+    public void setPublicationDate(String publicationDate) {
+        String old = this.publicationDate;
+        this.publicationDate = publicationDate;
+        BookListener l = listener;
+        if (l != null) l.publicationDateChanged(this, old);
+    }
+    public void setCategory(String category) {  // Added setter for category
+        String old = this.category;
+        this.category = category;
+        this.categoryKey = TextKeys.fold(category);
+        BookListener l = listener;
+        if (l != null) l.categoryChanged(this, old);
+    }
+    void setListener(BookListener listener) { this.listener = listener; }
+    // Called by ColumnarCatalog.View, whose availability is not in this object
+    void notifyAvailabilityChanged() {
+        BookListener l = listener;
+        if (l != null) l.availabilityChanged(this);
+    }
+    // Called by FictionBook/NonFictionBook when the genre or subject changes
+    void notifyExtraChanged(String oldExtra) {
+        BookListener l = listener;
+        if (l != null) l.extraChanged(this, oldExtra);
+    }
+    void setId(int id) { this.id = id; }
 
     @Override
     public String toString() {
-        return "Title: " + title + ", Author: " + author +
-                ", Publication Date: " + publicationDate +
-                ", Category: " + category +
-                ", Available: " + (isAvailable ? "Yes" : "No");
+        return "Title: " + getTitle() + ", Author: " + getAuthor() +
+                ", Publication Date: " + getPublicationDate() +
+                ", Category: " + getCategory() +
+                ", Available: " + (isAvailable() ? "Yes" : "No");
     }
 }
+// Callback used by LibraryManagementSystem to keep its indexes in sync with book changes
+interface BookListener {
+    void availabilityChanged(Book book);
+    void categoryChanged(Book book, String oldCategory);
+    void publicationDateChanged(Book book, String oldDate);
+    void extraChanged(Book book, String oldExtra);  // genre or subject
+}
+
 // Specialized FictionBook class
 class FictionBook extends Book {
     private String genre;
@@ -56,7 +144,11 @@ class FictionBook extends Book {
     }
 
     public String getGenre() { return genre; }
-    public void setGenre(String genre) { this.genre = genre; }
+    public void setGenre(String genre) {
+        String old = this.genre;
+        this.genre = genre;
+        notifyExtraChanged(old);
+    }
 
     @Override
     public String toString() {
@@ -73,7 +165,11 @@ class NonFictionBook extends Book {
     }
 
     public String getSubject() { return subject; }
-    public void setSubject(String subject) { this.subject = subject; }
+    public void setSubject(String subject) {
+        String old = this.subject;
+        this.subject = subject;
+        notifyExtraChanged(old);
+    }
 
     @Override
     public String toString() {
@@ -102,115 +198,1017 @@ class User {
 }
 
 // Library Management System class
-class LibraryManagementSystem {
-    private ArrayList<Book> books;
-    private ArrayList<User> users;
-    private HashMap<User, Book> borrowedBooks;
+// Safe to share between circulation desks: the keyed registries are concurrent maps,
+// availability flips are a per-book CAS, and the catalog lock is only taken for
+// writing when books are added or removed (searches and availability changes share it).
+// Listings, saves and snapshots read a published CatalogSnapshot instead, which needs no lock.
+class LibraryManagementSystem implements Library, BookListener {
+    // Debug output; enable with "LibraryManagementSystem.level = FINE" in a logging.properties
+    private static final Logger LOG = Logger.getLogger(LibraryManagementSystem.class.getName());
+    private static final int LAZY_INDEX_BATCH = 10_000;  // books per acquisition of the catalog lock during openLazy
+    // Current catalog version; every change swaps in a new one (see publish)
+    private final AtomicReference<CatalogSnapshot> catalog = new AtomicReference<>(CatalogSnapshot.EMPTY);
+    private LoanLedger loans;
+    private int loanDays = 14;
+    private CatalogIndex index;
+    private RankedIndex rankedIndex;
+    private final QueryCache queryCache = new QueryCache();
+    private final ReentrantReadWriteLock catalogLock = new ReentrantReadWriteLock();
+    // Keyed registries for the borrow/return path
+    private ConcurrentHashMap<Integer, Book> booksById;
+    private ConcurrentHashMap<String, CopyOnWriteArrayList<Book>> copiesByTitle;
+    private ConcurrentHashMap<String, User> usersById;
+    private int nextBookId = 1;
+    // Optional write-ahead journal; when attached every mutation is appended to it
+    private volatile LibraryJournal journal;
+    private ScheduledExecutorService compactor;
+    private volatile OverdueScheduler overdueScheduler;  // fines and overdue notices, once started
+    private volatile CirculationAnalytics analytics;     // circulation rollups, once started
+    // Lazy start (see openLazy): books.txt as mapped, until all of it is indexed
+    private volatile LazyCatalog seed;
+    private volatile int seedIndexed;
+    private final HoldQueues holds;
+    private CredentialStore credentials;
+    private final Path dataDir;  // where books.txt and users.txt live
+    // Operation counts and latencies, kept in fields so recording skips the name lookup
+    private final LibraryMetrics metrics = new LibraryMetrics();
+    private final LatencyHistogram searchLatency = metrics.histogram("search");
+    private final LatencyHistogram rankedSearchLatency = metrics.histogram("search.ranked");
+    private final LatencyHistogram availableLatency = metrics.histogram("available");
+    private final LatencyHistogram borrowLatency = metrics.histogram("borrow");
+    private final LatencyHistogram returnLatency = metrics.histogram("return");
+    private final LatencyHistogram borrowBatchLatency = metrics.histogram("borrow.batch");
+    private final LatencyHistogram returnBatchLatency = metrics.histogram("return.batch");
+    private final LatencyHistogram loadBooksLatency = metrics.histogram("load.books");
+    private final LatencyHistogram loadUsersLatency = metrics.histogram("load.users");
+    private final LatencyHistogram saveBooksLatency = metrics.histogram("save.books");
+    private final LatencyHistogram saveUsersLatency = metrics.histogram("save.users");
+    private final LongAdder borrowsRefused = metrics.counter("borrow.refused");
+    private final LongAdder returnsUnknown = metrics.counter("return.unknown");
 
     public LibraryManagementSystem() {
-        books = new ArrayList<>();
-        users = new ArrayList<>();
-        borrowedBooks = new HashMap<>();
+        this(Paths.get("."));
+    }
+
+    public LibraryManagementSystem(Path dataDir) {
+        this.dataDir = dataDir;
+        loans = new LoanLedger();
+        index = new CatalogIndex();
+        rankedIndex = new RankedIndex();
+        booksById = new ConcurrentHashMap<>();
+        copiesByTitle = new ConcurrentHashMap<>();
+        usersById = new ConcurrentHashMap<>();
+        holds = new HoldQueues(this, new HoldQueues.Settings(), LocalDateTime::now);
+        metrics.gauge("holds.active", () -> holds.size());
+        metrics.gauge("catalog.books", () -> booksById.size());
+        metrics.gauge("catalog.users", () -> usersById.size());
+        metrics.gauge("loans.open", () -> loans.size());
+        metrics.gauge("catalog.version", () -> catalog.get().getVersion());
+        metrics.gauge("catalog.indexing", () -> isIndexing() ? 1 : 0);
+        metrics.gauge("cache.entries", () -> queryCache.size());
+        metrics.gauge("cache.hitRate", () -> {
+            long hits = queryCache.getHits();
+            long total = hits + queryCache.getMisses();
+            return total == 0 ? 0.0 : (double) hits / total;
+        });
+    }
+
+    public void addBook(Book book) {
+        requireIndexed();
+        catalogLock.writeLock().lock();
+        try {
+            addBookLocked(book);
+            publishBooks(List.of(book));
+            queryCache.bookChanged(book);
+        } finally {
+            catalogLock.writeLock().unlock();
+        }
+        holds.copyAdded(book);
+    }
+
+    // Add many books under a single acquisition of the catalog lock. All or nothing: preset IDs
+    // are checked before anything changes, so a clash leaves the catalog as it was.
+    public void addBooks(List<? extends Book> batch) {
+        requireIndexed();
+        addBatch(batch);
+    }
+
+    private void addBatch(List<? extends Book> batch) {
+        catalogLock.writeLock().lock();
+        try {
+            HashSet<Integer> ids = new HashSet<>();
+            for (Book book : batch) {
+                if (book.getId() != 0 && (booksById.containsKey(book.getId()) || !ids.add(book.getId()))) {
+                    throw new IllegalArgumentException("Duplicate book ID: " + book.getId());
+                }
+            }
+            for (Book book : batch) {
+                addBookLocked(book);
+            }
+            publishBooks(batch);
+            queryCache.clear();  // cheaper than checking each cached result per book
+        } finally {
+            catalogLock.writeLock().unlock();
+        }
+        if (holds.size() > 0) {
+            for (Book book : batch) {
+                holds.copyAdded(book);
+            }
+        }
+    }
+
+    private void addBookLocked(Book book) {
+        if (book.getId() == 0) {
+            book.setId(nextBookId++);
+        } else if (booksById.containsKey(book.getId())) {
+            throw new IllegalArgumentException("Duplicate book ID: " + book.getId());
+        } else {
+            nextBookId = Math.max(nextBookId, book.getId() + 1);
+        }
+        booksById.put(book.getId(), book);
+        copiesByTitle.computeIfAbsent(book.getTitleKey(), t -> new CopyOnWriteArrayList<>()).add(book);
+        index.add(book);
+        rankedIndex.add(book);
+        book.setListener(this);
+        LibraryJournal j = journal;
+        if (j != null) {
+            j.append(LibraryJournal.bookRecord(book));
+        }
+    }
+    public void removeBook(Book book) {
+        requireIndexed();
+        catalogLock.writeLock().lock();
+        try {
+            if (booksById.get(book.getId()) != book) {
+                return;
+            }
+            booksById.remove(book.getId());
+            publish(c -> c.withBooks(c.bookVector().edit().set(book.getId(), null).build()));
+            copiesByTitle.computeIfPresent(book.getTitleKey(), (t, copies) -> {
+                copies.remove(book);
+                return copies.isEmpty() ? null : copies;
+            });
+            index.remove(book);
+            rankedIndex.remove(book);
+            queryCache.bookChanged(book);
+            book.setListener(null);
+            LibraryJournal j = journal;
+            if (j != null) {
+                j.append(LibraryJournal.join("R", String.valueOf(book.getId())));
+            }
+        } finally {
+            catalogLock.writeLock().unlock();
+        }
+        holds.copyRemoved(book);  // after the lock: queues are taken before the catalog
+    }
+    // Swap in the next catalog version. Writers under the catalog write lock never race each
+    // other, but availability flips and new users publish concurrently, so this is a CAS loop
+    // and change must be cheap to redo.
+    private CatalogSnapshot publish(UnaryOperator<CatalogSnapshot> change) {
+        while (true) {
+            CatalogSnapshot current = catalog.get();
+            CatalogSnapshot next = change.apply(current);
+            if (next == current || catalog.compareAndSet(current, next)) {
+                return next;
+            }
+        }
+    }
+
+    // One new version for a batch of added books
+    private void publishBooks(List<? extends Book> added) {
+        publish(c -> {
+            PersistentVector.Editor<Book> edit = c.bookVector().edit();
+            for (Book book : added) {
+                edit.set(book.getId(), book).setFlag(book.getId(), book.isAvailable());
+            }
+            return c.withBooks(edit.build());
+        });
     }
 
-    public void addBook(Book book) { books.add(book); }
-    public void removeBook(Book book) { books.remove(book); }
-    public void addUser(User user) { users.add(user); }
+    // Returns false if a user with the same ID is already registered
+    public boolean addUser(User user) {
+        if (usersById.putIfAbsent(user.getUserID(), user) != null) {
+            return false;
+        }
+        publish(c -> c.withUsers(c.userVector().edit().add(user).build()));
+        LibraryJournal j = journal;
+        if (j != null) {
+            j.append(LibraryJournal.userRecord(user));
+        }
+        return true;
+    }
+
+    // Lookups by key
+    public User findUserById(String userID) { return usersById.get(userID); }
+    public Book findBookById(int id) {
+        Book book = booksById.get(id);
+        LazyCatalog s = seed;
+        return book == null && s != null ? s.get(id) : book;  // the same object indexing will add
+    }
+
+    public boolean hasTitle(String title) { return copiesByTitle.containsKey(TextKeys.fold(title)); }
+
+    // First available copy of a title (matched on the folded title), or null if every copy is out
+    public Book findAvailableCopy(String title) {
+        CopyOnWriteArrayList<Book> copies = copiesByTitle.get(TextKeys.fold(title));
+        if (copies != null) {
+            for (Book copy : copies) {
+                if (copy.isAvailable()) {
+                    return copy;
+                }
+            }
+        }
+        return null;
+    }
+
+    // Copies of a title on the shelf right now (matched on the folded title)
+    public int countAvailableCopies(String title) {
+        CopyOnWriteArrayList<Book> copies = copiesByTitle.get(TextKeys.fold(title));
+        int n = 0;
+        if (copies != null) {
+            for (Book copy : copies) {
+                if (copy.isAvailable()) {
+                    n++;
+                }
+            }
+        }
+        return n;
+    }
+
+    // The copy to lend this user: one set aside by their hold, otherwise one off the shelf
+    public Book findCopyFor(User user, String title) {
+        Book held = holds.readyCopyFor(user, title);
+        return held != null ? held : findAvailableCopy(title);
+    }
 
     //check if a book is available
     public boolean isBookAvailable(Book book) {
-        return book.isAvailable() && books.contains(book);
+        return book.isAvailable() && booksById.get(book.getId()) == book;
     }
 
     public boolean borrowBook(User user, Book book) {
-        if (book.isAvailable() && users.contains(user)) {
-            book.setAvailable(false);
-            System.out.println(user.getName() + " borrowed " + book.getTitle());
-            return true;
-        }else {
-            System.out.println("Book is not available.");
-            return false;
+        return checkOut(user, book) != null;
+    }
+
+    // Borrow a copy and record the loan; returns null if the copy or user is not valid.
+    // The availability CAS is what stops two desks from checking out the same copy;
+    // a copy set aside for a hold can only be claimed by its holder.
+    public Loan checkOut(User user, Book book) {
+        requireIndexed();
+        long start = System.nanoTime();
+        try {
+            if (usersById.get(user.getUserID()) == user && booksById.get(book.getId()) == book
+                    && (book.compareAndSetAvailable(true, false) || holds.claim(user, book))) {
+                LocalDateTime now = LocalDateTime.now();
+                Loan loan = loans.open(user, book, now, now.plusDays(loanDays));
+                LOG.fine(() -> user.getName() + " borrowed " + book.getTitle());
+                return loan;
+            }else {
+                borrowsRefused.increment();
+                LOG.fine("Book is not available.");
+                return null;
+            }
+        } finally {
+            borrowLatency.recordSince(start);
         }
     }
 
+    // Returns the user's oldest open loan
     public Book returnBook(User user) {
-        if (borrowedBooks.containsKey(user)) {
-            Book book = borrowedBooks.remove(user);
-            book.setAvailable(true);
-            return book;
+        Loan loan = loans.oldestLoanFor(user);
+        if (loan != null && returnLoan(loan.getLoanId()) != null) {
+            return loan.getBook();
         }
         return null; // No book was returned
     }
-    // Search books by criteria
+
+    // Close a specific loan and put the copy back on the shelf
+    public Loan returnLoan(long loanId) {
+        long start = System.nanoTime();
+        Loan loan = loans.close(loanId);
+        if (loan != null) {
+            Hold next = holds.shelve(loan.getBook());  // the next holder gets it, or back on the shelf
+            if (next != null) {
+                LOG.fine(() -> loan.getBook().getTitle() + " set aside for " + next.getUser().getName());
+            }
+            OverdueScheduler s = overdueScheduler;
+            if (s != null) {
+                s.loanReturned(loan);
+            }
+        } else {
+            returnsUnknown.increment();
+        }
+        returnLatency.recordSince(start);
+        return loan;
+    }
+
+    // Check out a batch of scanned copies. Users and books are resolved in one pass, each copy
+    // is claimed with the same CAS as checkOut, and the loans are opened under one acquisition
+    // of the ledger lock and journaled as one batch. One result per request, in order.
+    public List<Circulation.Result> checkOutAll(List<Circulation.Request> requests) {
+        requireIndexed();
+        long start = System.nanoTime();
+        Circulation.Result[] results = new Circulation.Result[requests.size()];
+        List<User> users = new ArrayList<>();
+        List<Book> claimed = new ArrayList<>();
+        List<Integer> slots = new ArrayList<>();
+        HashSet<Integer> seen = new HashSet<>();
+        for (int i = 0; i < results.length; i++) {
+            Circulation.Request r = requests.get(i);
+            User user = r.getUserID() == null ? null : usersById.get(r.getUserID());
+            Book book = booksById.get(r.getBookId());
+            Circulation.Status status;
+            if (user == null) {
+                status = Circulation.Status.UNKNOWN_USER;
+            } else if (book == null) {
+                status = Circulation.Status.UNKNOWN_BOOK;
+            } else if (!seen.add(book.getId())) {
+                status = Circulation.Status.DUPLICATE;
+            } else if (book.compareAndSetAvailable(true, false) || holds.claim(user, book)) {
+                users.add(user);
+                claimed.add(book);
+                slots.add(i);
+                continue;
+            } else {
+                status = Circulation.Status.UNAVAILABLE;
+                borrowsRefused.increment();
+            }
+            results[i] = new Circulation.Result(r, status, null, 0);
+        }
+        LocalDateTime now = LocalDateTime.now();
+        ArrayList<Loan> opened = loans.openAll(users, claimed, now, now.plusDays(loanDays));
+        for (int k = 0; k < opened.size(); k++) {
+            int i = slots.get(k);
+            results[i] = new Circulation.Result(requests.get(i), Circulation.Status.OK, opened.get(k), 0);
+        }
+        borrowBatchLatency.recordSince(start);
+        return Arrays.asList(results);
+    }
+
+    // Return a batch of scanned copies (an end-of-day return bin). Books are resolved in one
+    // pass, their loans closed under one acquisition of the ledger lock and journaled as one
+    // batch, and the copies handed to waiting holds under one acquisition of the hold queues.
+    public List<Circulation.Result> returnAll(List<Integer> bookIds) {
+        long start = System.nanoTime();
+        Circulation.Result[] results = new Circulation.Result[bookIds.size()];
+        Circulation.Request[] requests = new Circulation.Request[results.length];
+        List<Book> found = new ArrayList<>();
+        List<Integer> slots = new ArrayList<>();
+        HashSet<Integer> seen = new HashSet<>();
+        for (int i = 0; i < results.length; i++) {
+            Circulation.Request r = requests[i] = new Circulation.Request(null, bookIds.get(i));
+            Book book = booksById.get(r.getBookId());
+            if (book == null) {
+                results[i] = new Circulation.Result(r, Circulation.Status.UNKNOWN_BOOK, null, 0);
+            } else if (!seen.add(book.getId())) {
+                results[i] = new Circulation.Result(r, Circulation.Status.DUPLICATE, null, 0);
+            } else {
+                found.add(book);
+                slots.add(i);
+            }
+        }
+        ArrayList<Loan> closed = loans.closeForBooks(found);
+        List<Book> returned = new ArrayList<>();
+        for (Loan loan : closed) {
+            if (loan != null) {
+                returned.add(loan.getBook());
+            }
+        }
+        holds.shelveAll(returned);
+        OverdueScheduler s = overdueScheduler;
+        for (int k = 0; k < closed.size(); k++) {
+            int i = slots.get(k);
+            Circulation.Request r = requests[i];
+            Loan loan = closed.get(k);
+            if (loan == null) {
+                returnsUnknown.increment();
+                results[i] = new Circulation.Result(r, Circulation.Status.NOT_ON_LOAN, null, 0);
+            } else {
+                results[i] = new Circulation.Result(r, Circulation.Status.OK, loan, s != null ? s.loanReturned(loan) : 0);
+            }
+        }
+        returnBatchLatency.recordSince(start);
+        return Arrays.asList(results);
+    }
+
+    public ArrayList<Loan> getLoansFor(User user) { return loans.loansFor(user); }
+    public ArrayList<Loan> getOverdueLoans() { return loans.overdue(LocalDateTime.now()); }
+
+    // Start fine accounting and overdue notices (written to overdue-notices.txt in the data directory)
+    public OverdueScheduler startOverdueScheduler(OverdueScheduler.Settings settings) throws IOException {
+        OverdueScheduler s = new OverdueScheduler(this, dataDir.resolve(OverdueScheduler.NOTICE_FILE), settings);
+        overdueScheduler = s;
+        s.start();
+        return s;
+    }
+
+    public OverdueScheduler getOverdueScheduler() { return overdueScheduler; }
+
+    // Start the circulation rollups (closed loans go to loan-history.txt in the data directory).
+    // Start after the journal is open, so recovered loans are not counted as new checkouts.
+    public CirculationAnalytics startAnalytics(CirculationAnalytics.Settings settings) throws IOException {
+        CirculationAnalytics a = new CirculationAnalytics(this, dataDir.resolve(CirculationAnalytics.HISTORY_FILE), settings);
+        analytics = a;
+        a.start();
+        return a;
+    }
+
+    public CirculationAnalytics getAnalytics() { return analytics; }
+
+    // Text report of top titles/authors, category utilization and loan durations
+    public String analyticsReport() {
+        CirculationAnalytics a = analytics;
+        return a != null ? a.report() : "Circulation analytics are not running.\n";
+    }
+
+    // Copies per folded category, from the catalog index
+    public HashMap<String, Integer> getCategorySizes() {
+        catalogLock.readLock().lock();
+        try {
+            return index.categorySizes();
+        } finally {
+            catalogLock.readLock().unlock();
+        }
+    }
+
+    // Login credentials in credentials.txt next to the catalog, opened on first use
+    public synchronized CredentialStore getCredentials() throws IOException {
+        if (credentials == null) {
+            credentials = new CredentialStore(dataDir.resolve(CredentialStore.FILE), new CredentialStore.Settings(), metrics);
+        }
+        return credentials;
+    }
+
+    public boolean authenticate(String userID, char[] password) throws IOException {
+        return getCredentials().authenticate(userID, password);
+    }
+
+    // Sign-up from the login page: only the first STAFF login of a new installation. After
+    // that, staff set logins with setCredentials, so nobody can give themselves a password
+    // for someone else's user ID. Never creates a library user.
+    public boolean registerCredentials(String userID, char[] password) throws IOException {
+        return findUserById(userID) == null && getCredentials().registerFirstStaff(userID, password);
+    }
+
+    // Set or reset a login, for staff: a STAFF login for a user ID that is not a library
+    // user, or a PATRON login for an existing library user. False otherwise.
+    public boolean setCredentials(String userID, char[] password, boolean staff) throws IOException {
+        if ((findUserById(userID) != null) == staff) {
+            return false;
+        }
+        getCredentials().setPassword(userID, password, staff ? CredentialStore.Role.STAFF : CredentialStore.Role.PATRON);
+        return true;
+    }
+
+    // True for a STAFF login
+    public boolean isStaff(String userID) throws IOException {
+        return getCredentials().roleOf(userID) == CredentialStore.Role.STAFF;
+    }
+
+    // Join the hold queue for a title that has no copy on the shelf; null if the title is
+    // not in the catalog or a copy is available now
+    public Hold placeHold(User user, String title) {
+        requireIndexed();
+        return holds.place(user, title);
+    }
+    public boolean cancelHold(long holdId) { return holds.cancel(holdId); }
+    public int getHoldPosition(Hold hold) { return holds.position(hold); }
+    public ArrayList<Hold> getHoldsFor(User user) { return holds.holdsFor(user); }
+    public HoldQueues getHolds() { return holds; }
+
+    // Posted fines plus what the user's overdue loans have accrued, in cents
+    public long getOutstandingFine(User user) {
+        OverdueScheduler s = overdueScheduler;
+        return s != null ? s.getOutstandingFine(user) : loans.getFine(user.getUserID());
+    }
+    public void setLoanDays(int loanDays) { this.loanDays = loanDays; }
+    // Search books by criteria (posting lists from the catalog index are intersected instead of scanning every book)
+    // Results are served from the query cache when the same (folded) criteria were searched before.
     public ArrayList<Book> searchBooks(String title, String author,String category, String publicationDate, Boolean isAvailable) {
-        return books.stream()
-                .filter(b -> (title.isEmpty() || b.getTitle().contains(title)) &&
-                        (author.isEmpty() || b.getAuthor().contains(author)) &&
-                        (publicationDate.isEmpty() || b.getPublicationDate().contains(publicationDate)) &&
-                        (category.isEmpty() || b.getCategory().equalsIgnoreCase(category)) &&
-                        (isAvailable == null || b.isAvailable() == isAvailable))
-                .collect(Collectors.toCollection(ArrayList::new));
+        long start = System.nanoTime();
+        try {
+            LazyCatalog s = seed;
+            if (s != null) {
+                return s.search(title, author, category, publicationDate, isAvailable, Integer.MAX_VALUE);
+            }
+            return searchBooksCached(title, author, category, publicationDate, isAvailable);
+        } finally {
+            searchLatency.recordSince(start);
+        }
+    }
+
+    private ArrayList<Book> searchBooksCached(String title, String author, String category, String publicationDate, Boolean isAvailable) {
+        String titleKey = TextKeys.fold(title);
+        String authorKey = TextKeys.fold(author);
+        String categoryKey = TextKeys.fold(category);
+        String key = QueryCache.key(titleKey, authorKey, categoryKey, publicationDate, isAvailable);
+        ArrayList<Book> cached = queryCache.get(key);
+        if (cached != null) {
+            return cached;
+        }
+        catalogLock.readLock().lock();
+        try {
+            long generation = queryCache.generation();
+            ArrayList<Book> results = index.search(titleKey, authorKey, categoryKey, publicationDate, isAvailable);
+            queryCache.put(key, generation, titleKey, authorKey, categoryKey, publicationDate, isAvailable, results);
+            return results;
+        } finally {
+            catalogLock.readLock().unlock();
+        }
+    }
+
+    // Only the first limit matches, for showing the top of a result list quickly
+    public ArrayList<Book> searchBooks(String title, String author, String category, String publicationDate, Boolean isAvailable, int limit) {
+        long start = System.nanoTime();
+        LazyCatalog s = seed;
+        if (s != null) {
+            try {
+                return s.search(title, author, category, publicationDate, isAvailable, limit);
+            } finally {
+                searchLatency.recordSince(start);
+            }
+        }
+        ArrayList<Book> cached = queryCache.get(QueryCache.key(TextKeys.fold(title), TextKeys.fold(author),
+                TextKeys.fold(category), publicationDate, isAvailable));
+        if (cached != null) {
+            searchLatency.recordSince(start);
+            return cached.size() > limit ? new ArrayList<>(cached.subList(0, limit)) : cached;
+        }
+        catalogLock.readLock().lock();
+        try {
+            return index.search(title, author, category, publicationDate, isAvailable, limit);
+        } finally {
+            catalogLock.readLock().unlock();
+            searchLatency.recordSince(start);
+        }
+    }
+
+    // One page of matches in ID order: IDs above afterId, at most limit. For handing a large
+    // result out a page at a time (LibraryServer); not cached.
+    public ArrayList<Book> searchBooksAfter(String title, String author, String category, String publicationDate, Boolean isAvailable,
+                                            int afterId, int limit) {
+        long start = System.nanoTime();
+        catalogLock.readLock().lock();
+        try {
+            return index.searchAfter(title, author, category, publicationDate, isAvailable, afterId, limit);
+        } finally {
+            catalogLock.readLock().unlock();
+            searchLatency.recordSince(start);
+        }
+    }
+
+    // The first limit matches in the given order, for merging results across catalogs.
+    // Only limit books are held at a time and nothing goes into the query cache.
+    public ArrayList<Book> searchBooks(String title, String author, String category, String publicationDate, Boolean isAvailable,
+                                       Comparator<? super Book> order, int limit) {
+        long start = System.nanoTime();
+        catalogLock.readLock().lock();
+        try {
+            return index.searchTop(title, author, category, publicationDate, isAvailable, order, limit);
+        } finally {
+            catalogLock.readLock().unlock();
+            searchLatency.recordSince(start);
+        }
+    }
+
+    // Filter the results of an earlier search down to a narrower query instead of
+    // searching the whole catalog again. Books removed since then are dropped.
+    public ArrayList<Book> refineSearch(List<Book> previous, String title, String author, String category, String publicationDate, Boolean isAvailable) {
+        String titleKey = TextKeys.fold(title);
+        String authorKey = TextKeys.fold(author);
+        String categoryKey = TextKeys.fold(category);
+        ArrayList<Book> results = new ArrayList<>();
+        catalogLock.readLock().lock();
+        try {
+            int seen = 0;
+            for (Book b : previous) {
+                CatalogIndex.checkCancelled(++seen);
+                if (booksById.get(b.getId()) == b && CatalogIndex.matches(b, titleKey, authorKey, categoryKey, publicationDate, isAvailable)) {
+                    results.add(b);
+                }
+            }
+        } finally {
+            catalogLock.readLock().unlock();
+        }
+        return results;
+    }
+
+    // Ranked full-text search over title, author, category and genre/subject.
+    // Returns the best limit books by BM25 score; fuzzy also matches misspelled
+    // and partial words.
+    public List<RankedIndex.Hit> searchRanked(String query, int limit, boolean fuzzy) {
+        long start = System.nanoTime();
+        catalogLock.readLock().lock();
+        try {
+            return rankedIndex.search(query, limit, fuzzy);
+        } finally {
+            catalogLock.readLock().unlock();
+            rankedSearchLatency.recordSince(start);
+        }
+    }
+
+    // Possible duplicate records: books whose folded title and author are the same but
+    // whose stored spelling differs ("happy place" / "HAPPY PLACE", "love " / "love").
+    // Copies entered with identical text are normal and are not reported.
+    public List<List<Book>> findDuplicateBooks() {
+        LinkedHashMap<String, List<Book>> groups = new LinkedHashMap<>();
+        for (Book b : catalog.get().books()) {
+            groups.computeIfAbsent(b.getTitleKey() + '\u0000' + b.getAuthorKey(), k -> new ArrayList<>()).add(b);
+        }
+        List<List<Book>> duplicates = new ArrayList<>();
+        for (List<Book> group : groups.values()) {
+            Book first = group.get(0);
+            for (Book b : group) {
+                if (!b.getTitle().equals(first.getTitle()) || !b.getAuthor().equals(first.getAuthor())) {
+                    duplicates.add(group);
+                    break;
+                }
+            }
+        }
+        return duplicates;
     }
 
     // New method to get available books only
+    // Read from the current catalog version, so it never waits for the catalog lock.
+    // Cached the same way as searchBooks("", "", "", "", true), which returns the same list
     public ArrayList<Book> getAvailableBooks() {
-        return books.stream()
-                .filter(Book::isAvailable)
-                .collect(Collectors.toCollection(ArrayList::new));
+        long start = System.nanoTime();
+        LazyCatalog s = seed;
+        if (s != null) {
+            try {
+                return s.search("", "", "", "", true, Integer.MAX_VALUE);
+            } finally {
+                availableLatency.recordSince(start);
+            }
+        }
+        String key = QueryCache.key("", "", "", "", true);
+        ArrayList<Book> cached = queryCache.get(key);
+        if (cached != null) {
+            availableLatency.recordSince(start);
+            return cached;
+        }
+        // Flips publish a new version before they bump the cache generation, so a result read
+        // from an older version than the generation taken here is never cached
+        long generation = queryCache.generation();
+        ArrayList<Book> results = catalog.get().getAvailableBooks();
+        queryCache.put(key, generation, "", "", "", "", true, results);
+        availableLatency.recordSince(start);
+        return results;
+    }
+
+    public QueryCache getQueryCache() { return queryCache; }
+    public LibraryMetrics getMetrics() { return metrics; }
+
+    // Text dump of the counters, gauges and latency percentiles
+    public String metricsSnapshot() { return metrics.snapshot(); }
+
+    // BookListener callbacks, keep the index current when a book in the catalog changes.
+    // Availability bits are atomic, so flips only need the shared side of the lock.
+    @Override
+    public void availabilityChanged(Book book) {
+        catalogLock.readLock().lock();
+        try {
+            index.availabilityChanged(book);
+            // under the book's monitor, like the journal record, so the last publish carries the latest flag
+            synchronized (book) {
+                publish(c -> c.withAvailable(book));
+            }
+            queryCache.availabilityChanged(book);
+            LibraryJournal j = journal;
+            if (j != null && booksById.get(book.getId()) == book) {
+                // read the flag under the book's monitor so the last record always carries the latest value
+                synchronized (book) {
+                    j.append(LibraryJournal.join("A", String.valueOf(book.getId()), String.valueOf(book.isAvailable())));
+                }
+            }
+        } finally {
+            catalogLock.readLock().unlock();
+        }
+    }
+    @Override
+    public void categoryChanged(Book book, String oldCategory) {
+        catalogLock.writeLock().lock();
+        try {
+            index.categoryChanged(book, oldCategory);
+            queryCache.categoryChanged(book, oldCategory);
+            rankedIndex.update(book, oldCategory, RankedIndex.extra(book));
+            CirculationAnalytics a = analytics;
+            if (a != null) {
+                a.categoryChanged(book);
+            }
+            LibraryJournal j = journal;
+            if (j != null && booksById.get(book.getId()) == book) {
+                j.append(LibraryJournal.join("C", String.valueOf(book.getId()), book.getCategory()));
+            }
+        } finally {
+            catalogLock.writeLock().unlock();
+        }
+    }
+    @Override
+    public void publicationDateChanged(Book book, String oldDate) {
+        catalogLock.writeLock().lock();
+        try {
+            index.publicationDateChanged(book, oldDate);
+            queryCache.publicationDateChanged(book, oldDate);
+            LibraryJournal j = journal;
+            if (j != null && booksById.get(book.getId()) == book) {
+                j.append(LibraryJournal.join("D", String.valueOf(book.getId()), book.getPublicationDate()));
+            }
+        } finally {
+            catalogLock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public void extraChanged(Book book, String oldExtra) {
+        catalogLock.writeLock().lock();
+        try {
+            rankedIndex.update(book, book.getCategory(), oldExtra);
+            LibraryJournal j = journal;
+            if (j != null && booksById.get(book.getId()) == book) {
+                j.append(LibraryJournal.join("G", String.valueOf(book.getId()), RankedIndex.extra(book)));
+            }
+        } finally {
+            catalogLock.writeLock().unlock();
+        }
+    }
+
+    // Attach a journal in dir. Existing snapshot + journal state is recovered first;
+    // a brand new journal is seeded from books.txt. Compaction then runs in the background.
+    public void openJournal(Path dir, LibraryJournal.Settings settings) throws IOException {
+        boolean fresh = !LibraryJournal.exists(dir);
+        if (fresh) {
+            loadBooks();
+            loadUsers();
+        }
+        LibraryJournal j = LibraryJournal.recover(dir, settings, this);
+        journal = j;
+        loans.setJournal(j);
+        holds.setJournal(j);
+        if (fresh) {
+            j.compact(this);
+        }
+        compactor = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "library-journal-compactor");
+            t.setDaemon(true);
+            return t;
+        });
+        compactor.scheduleWithFixedDelay(() -> {
+            try {
+                if (j.segmentBytes() >= settings.compactionMinBytes) {
+                    j.compact(this);
+                }
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }, settings.compactionIntervalSeconds, settings.compactionIntervalSeconds, TimeUnit.SECONDS);
+        holds.start();
+        Runtime.getRuntime().addShutdownHook(new Thread(this::closeJournal));
+    }
+
+    public void openJournal(Path dir) throws IOException {
+        openJournal(dir, new LibraryJournal.Settings());
+    }
+
+    // Write the full state to a snapshot and drop the journal it covers
+    public void compactJournal() throws IOException {
+        if (journal != null) {
+            journal.compact(this);
+        }
+    }
+
+    public void closeJournal() {
+        LibraryJournal j = journal;
+        if (j == null) {
+            return;
+        }
+        journal = null;
+        loans.setJournal(null);
+        holds.setJournal(null);
+        holds.close();
+        compactor.shutdownNow();
+        OverdueScheduler s = overdueScheduler;
+        if (s != null) {
+            s.close();
+        }
+        CirculationAnalytics a = analytics;
+        if (a != null) {
+            a.close();
+        }
+        try {
+            j.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    // With a journal every change is already logged, so saving only waits for it to reach disk
+    private boolean syncJournal() {
+        LibraryJournal j = journal;
+        if (j == null) {
+            return false;
+        }
+        try {
+            j.sync();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        return true;
     }
 
     // Save books to file
     public void saveBooks() {
-        try (BufferedWriter writer = new BufferedWriter(new FileWriter("books.txt"))) {
-            for (Book book : books) {
-                writer.write(book.getTitle() + "|" + book.getAuthor() + "|" + book.getPublicationDate() + "|" + book.getCategory() + "|" + book.isAvailable());
-                writer.newLine(); // This is correct because 'writer' is a BufferedWriter
-            }
+        if (isIndexing()) {
+            return;  // read-only until indexed, so books.txt is still current (and this catalog is not yet)
+        }
+        long start = System.nanoTime();
+        if (syncJournal()) {
+            saveBooksLatency.recordSince(start);
+            return;
+        }
+        try {
+            writeBooks();
         } catch (IOException e) {
             e.printStackTrace();
+        } finally {
+            saveBooksLatency.recordSince(start);
+        }
+    }
+
+    // Write books.txt even with a journal attached, for readers of the plain file such as
+    // LazyCatalog. Once a journal exists recovery never reads books.txt, so this does not
+    // change what the next start loads.
+    public void exportBooks() throws IOException {
+        if (isIndexing()) {
+            return;  // as in saveBooks
+        }
+        long start = System.nanoTime();
+        try {
+            writeBooks();
+        } finally {
+            saveBooksLatency.recordSince(start);
+        }
+    }
+
+    private void writeBooks() throws IOException {
+        // One catalog version, written without holding any lock, so checkouts and returns carry on
+        CatalogSnapshot snapshot = catalog.get();
+        try (BufferedWriter writer = new BufferedWriter(new FileWriter(dataDir.resolve("books.txt").toFile()))) {
+            for (Book book : snapshot.books()) {
+                writer.write(book.getTitle() + "|" + book.getAuthor() + "|" + book.getPublicationDate() + "|" + book.getCategory() + "|" + snapshot.isAvailable(book));
+                writer.newLine(); // This is correct because 'writer' is a BufferedWriter
+            }
         }
     }
 
     // Save users to file
     public void saveUsers() {
-        try (BufferedWriter writer = new BufferedWriter(new FileWriter("users.txt"))) {
-            for (User user : users) {
+        long start = System.nanoTime();
+        if (syncJournal()) {
+            saveUsersLatency.recordSince(start);
+            return;
+        }
+        try (BufferedWriter writer = new BufferedWriter(new FileWriter(dataDir.resolve("users.txt").toFile()))) {
+            for (User user : catalog.get().users()) {
                 writer.write(user.getName() + "|" + user.getUserID());
                 writer.newLine();
             }
         } catch (IOException e) {
             e.printStackTrace();
         }
+        saveUsersLatency.recordSince(start);
     }
 
-    // Load books from file
-    public void loadBooks() {
-        try (BufferedReader reader = new BufferedReader(new FileReader("books.txt"))) {
-            String line;
-            while ((line = reader.readLine()) != null) {
-                String[] parts = line.split("\\|");
-                if (parts.length == 5) {
-                    Book book = new Book(parts[0], parts[1], parts[3]); // parts[3] is category
-                    book.setPublicationDate(parts[2]); // Use setter to set publication date
-                    book.setAvailable(Boolean.parseBoolean(parts[4]));
-                    books.add(book);
+    // Lazy start for a books.txt too large to wait for: map it (see LazyCatalog) and index it
+    // into this catalog on a background thread. Until that finishes the catalog is read-only:
+    // searches and the available list scan the mapped file, findBookById decodes from it, and
+    // changes throw IllegalStateException. Other reads see the books indexed so far. There is
+    // no journal in this mode; changes made afterwards are saved to books.txt by saveBooks().
+    public void openLazy(LazyCatalog.Settings settings) throws IOException {
+        if (journal != null || !booksById.isEmpty()) {
+            throw new IllegalStateException("A lazy start needs an empty catalog without a journal");
+        }
+        LazyCatalog s = new LazyCatalog(dataDir.resolve("books.txt"), settings);
+        seed = s;
+        Thread indexer = new Thread(() -> {
+            long start = System.nanoTime();
+            try {
+                // books come from s.get, so a book handed out by a search before it was
+                // indexed is the one the catalog ends up with
+                List<Book> batch = new ArrayList<>();
+                for (int id = 1, n = s.size(); id <= n; id++) {
+                    batch.add(s.get(id));
+                    if (batch.size() == LAZY_INDEX_BATCH || id == n) {
+                        addBatch(batch);
+                        seedIndexed = id;
+                        batch = new ArrayList<>();
+                    }
                 }
+                seed = null;  // the mappings go once nothing uses them
+                loadBooksLatency.recordSince(start);
+            } catch (RuntimeException e) {
+                e.printStackTrace();  // stays read-only, so a partial catalog is never saved
+            }
+        }, "library-lazy-indexer");
+        indexer.setDaemon(true);
+        indexer.start();
+    }
+
+    public boolean isIndexing() { return seed != null; }
+
+    // Books indexed so far and in all, during a lazy start
+    public int getIndexedCount() { return isIndexing() ? seedIndexed : booksById.size(); }
+
+    public int getIndexingTotal() {
+        LazyCatalog s = seed;
+        return s != null ? s.size() : booksById.size();
+    }
+
+    private void requireIndexed() {
+        if (seed != null) {
+            throw new IllegalStateException("The catalog is read-only until indexing finishes ("
+                    + seedIndexed + " of " + getIndexingTotal() + " books)");
+        }
+    }
+
+    // Load books from file (memory-mapped and parsed in parallel, see CatalogLoader)
+    public void loadBooks() {
+        long start = System.nanoTime();
+        try {
+            addBooks(CatalogLoader.readBooks(dataDir.resolve("books.txt")));
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        loadBooksLatency.recordSince(start);
+    }
+
+    // Write books and users to a binary snapshot (see BinaryCatalogFormat)
+    public void writeBinarySnapshot(Path file) throws IOException {
+        BinaryCatalogFormat.write(file, getBooksSnapshot(), getUsersSnapshot());
+    }
+
+    // Add the books and users from a binary snapshot to this catalog. The books keep their
+    // snapshot IDs; if any is already taken, no book is added (IllegalArgumentException).
+    public void readBinarySnapshot(Path file) throws IOException {
+        BinaryCatalogFormat.Contents contents = BinaryCatalogFormat.read(file);
+        addBooks(contents.books);
+        for (User user : contents.users) {
+            addUser(user);
+        }
+    }
+
+    // Load users from file
+    public void loadUsers() {
+        long start = System.nanoTime();
+        try {
+            for (User user : CatalogLoader.readUsers(dataDir.resolve("users.txt"))) {
+                addUser(user);
             }
         } catch (IOException e) {
             e.printStackTrace();
         }
+        loadUsersLatency.recordSince(start);
     }
 
     // Getters
-    public ArrayList<Book> getBooks() { return books; }
-    public ArrayList<User> getUsers() { return users; }
-    public HashMap<User, Book> getBorrowedBooks() { return borrowedBooks; }
+    // Read-only lists of the current catalog version; they do not change as desks keep working
+    public List<Book> getBooks() { return Collections.unmodifiableList(catalog.get().getBooks()); }
+    public List<User> getUsers() { return Collections.unmodifiableList(catalog.get().getUsers()); }
+    public LoanLedger getLoanLedger() { return loans; }
+    public Path getDataDir() { return dataDir; }
+
+    // The current catalog version, for scans that want membership and availability from one
+    // consistent point in time. Costs one volatile read; no lock is taken.
+    public CatalogSnapshot getCatalogSnapshot() { return catalog.get(); }
+    public long getCatalogVersion() { return catalog.get().getVersion(); }
+
+    // Copies that the caller may sort or edit
+    public ArrayList<Book> getBooksSnapshot() { return catalog.get().getBooks(); }
+    public ArrayList<User> getUsersSnapshot() { return catalog.get().getUsers(); }
+
+    int peekNextBookId() {
+        catalogLock.readLock().lock();
+        try {
+            return nextBookId;
+        } finally {
+            catalogLock.readLock().unlock();
+        }
+    }
+    void advanceBookId(int next) {
+        catalogLock.writeLock().lock();
+        try {
+            nextBookId = Math.max(nextBookId, next);
+        } finally {
+            catalogLock.writeLock().unlock();
+        }
+    }
 }
 
 
 // Main GUI class integrating both Library and User Management
 public class LibraryGUI {
-    private LibraryManagementSystem lms;
+    private static final Logger LOG = Logger.getLogger(LibraryGUI.class.getName());
+    private Library lms;
     private JFrame frame;
     private JTextArea textArea;
     private JTextField bookTitleField;
@@ -220,19 +1218,72 @@ public class LibraryGUI {
     private JTextField userNameField;
     private JTextField userIDField;
     private JCheckBox availableCheckBox;
+    private JCheckBox rankedCheckBox;  // search mode: ranked, typo-tolerant full-text search
     private JList<String> bookList;  // List to display book titles
     private DefaultListModel<String> listModel;
+    // Search results: a JTable over a paged model, filled by a background worker
+    private BookTableModel resultsModel;
+    private JLabel resultsStatus;
+    private JButton cancelQueryButton;
+    private QueryWorker queryWorker;
+    private static final int RANKED_RESULTS = 100;
+    private static final int FIRST_RESULTS = 200;  // shown while a long search finishes
+    // Live search: debounced keystrokes, and the last complete result to narrow from
+    private Timer liveSearchTimer;
+    private SearchQuery lastSearch;
+    private List<Book> lastSearchResults;
+    private long lastSearchVersion;  // catalog version the last search started from
 
-    public LibraryGUI(LibraryManagementSystem lms) {
+    public LibraryGUI(Library lms) {
         this.lms = lms;
         frame = new JFrame("Library Management System");
         frame.setSize(1000, 600);
         frame.setDefaultCloseOperation(JFrame.EXIT_ON_CLOSE);
         frame.setLayout(new BorderLayout());
 
+        JMenuBar menuBar = new JMenuBar();
+        JMenu fileMenu = new JMenu("File");
+        JMenuItem importItem = new JMenuItem("Import Catalog Feed...");
+        importItem.addActionListener(e -> importFeed());
+        fileMenu.add(importItem);
+        JMenuItem scanItem = new JMenuItem("Scan Desk...");
+        scanItem.addActionListener(e -> openScanDesk());
+        fileMenu.add(scanItem);
+        JMenuItem metricsItem = new JMenuItem("Show Metrics");
+        metricsItem.addActionListener(e -> textArea.append("Metrics:\n" + lms.metricsSnapshot() + "--------------------------\n"));
+        fileMenu.add(metricsItem);
+        JMenuItem reportItem = new JMenuItem("Circulation Report");
+        reportItem.addActionListener(e -> showCirculationReport());
+        fileMenu.add(reportItem);
+        menuBar.add(fileMenu);
+        JMenu usersMenu = new JMenu("Users");
+        JMenuItem setLoginItem = new JMenuItem("Set Login...");
+        setLoginItem.addActionListener(e -> setLogin());
+        usersMenu.add(setLoginItem);
+        menuBar.add(usersMenu);
+        frame.setJMenuBar(menuBar);
+
         textArea = new JTextArea();
         textArea.setEditable(false);
-        frame.add(new JScrollPane(textArea), BorderLayout.CENTER);
+
+        resultsModel = new BookTableModel();
+        JTable resultsTable = new JTable(resultsModel);
+        resultsTable.setFillsViewportHeight(true);
+        JScrollPane resultsScroll = new JScrollPane(resultsTable);
+        resultsStatus = new JLabel(" ");
+        cancelQueryButton = new JButton("Cancel");
+        cancelQueryButton.setEnabled(false);
+        cancelQueryButton.addActionListener(e -> cancelQuery());
+        JPanel resultsHeader = new JPanel(new BorderLayout());
+        resultsHeader.add(resultsStatus, BorderLayout.CENTER);
+        resultsHeader.add(cancelQueryButton, BorderLayout.EAST);
+        JPanel resultsPanel = new JPanel(new BorderLayout());
+        resultsPanel.add(resultsHeader, BorderLayout.NORTH);
+        resultsPanel.add(resultsScroll, BorderLayout.CENTER);
+
+        JSplitPane split = new JSplitPane(JSplitPane.VERTICAL_SPLIT, resultsPanel, new JScrollPane(textArea));
+        split.setResizeWeight(0.7);
+        frame.add(split, BorderLayout.CENTER);
 
         JPanel panel = new JPanel();
         panel.setLayout(new GridLayout(12, 3));
@@ -244,6 +1295,7 @@ public class LibraryGUI {
         userNameField = new JTextField();
         userIDField = new JTextField();
         availableCheckBox = new JCheckBox("Available");
+        rankedCheckBox = new JCheckBox("Ranked search");
 
         panel.add(new JLabel("Book Title:"));
         panel.add(bookTitleField);
@@ -265,6 +1317,7 @@ public class LibraryGUI {
         JButton returnBookButton = new JButton("Return Book");
         JButton viewAvailableBooksButton = new JButton("View Available Books");
         JButton searchBookButton = new JButton("Search Books");
+        JButton duplicatesButton = new JButton("Find Duplicates");
 
         panel.add(addBookButton);
         panel.add(addUserButton);
@@ -272,9 +1325,26 @@ public class LibraryGUI {
         panel.add(returnBookButton);
         panel.add(viewAvailableBooksButton);
         panel.add(searchBookButton);
+        panel.add(duplicatesButton);
+        panel.add(rankedCheckBox);
 
         frame.add(panel, BorderLayout.NORTH);
 
+        // Search as the user types, once they pause for a moment
+        liveSearchTimer = new Timer(150, e -> liveSearch());
+        liveSearchTimer.setRepeats(false);
+        DocumentListener typing = new DocumentListener() {
+            @Override public void insertUpdate(DocumentEvent e) { liveSearchTimer.restart(); }
+            @Override public void removeUpdate(DocumentEvent e) { liveSearchTimer.restart(); }
+            @Override public void changedUpdate(DocumentEvent e) { liveSearchTimer.restart(); }
+        };
+        bookTitleField.getDocument().addDocumentListener(typing);
+        bookAuthorField.getDocument().addDocumentListener(typing);
+        bookCategoryField.addActionListener(e -> liveSearchTimer.restart());
+        availableCheckBox.addActionListener(e -> liveSearchTimer.restart());
+        rankedCheckBox.addActionListener(e -> liveSearchTimer.restart());
+
+
         // Corrected the closing parenthesis and added the closing brace
 
         addBookButton.addActionListener(e -> {
@@ -283,12 +1353,15 @@ public class LibraryGUI {
             String category = (String) bookCategoryField.getSelectedItem();
             String publicationDate = bookPublicationDateField.getText();
 
-            // Debugging prints
-            System.out.println("Add Book button clicked");
-            System.out.println("Title: " + title + ", Author: " + author + ", Category: " + category);
+            LOG.fine(() -> "Add Book button clicked. Title: " + title + ", Author: " + author + ", Category: " + category);
 
             if (!title.isEmpty() && !author.isEmpty() && category != null) {
-                lms.addBook(new Book(title, author, category));
+                try {
+                    lms.addBook(new Book(title, author, category));
+                } catch (IllegalStateException ex) {
+                    textArea.append("Error: " + ex.getMessage() + "\n");
+                    return;
+                }
                 textArea.append("Book added:\n");
                 textArea.append("Title: " + title + "\n");
                 textArea.append("Author: " + author + "\n");
@@ -303,74 +1376,124 @@ public class LibraryGUI {
         addUserButton.addActionListener(e -> {
             String name = userNameField.getText();
             String userID = userIDField.getText();
-            // Debugging prints
-            System.out.println("Add User button clicked");
-            System.out.println("Name: " + name + ", UserID: " + userID);
+            LOG.fine(() -> "Add User button clicked. Name: " + name + ", UserID: " + userID);
 
             if (!name.isEmpty() && !userID.isEmpty()) {
-                lms.addUser(new User(name, userID));
-                textArea.append("User added: " + name + "\n");
+                if (lms.addUser(new User(name, userID))) {
+                    textArea.append("User added: " + name + "\n");
+                } else {
+                    textArea.append("Error: User ID " + userID + " already exists.\n");
+                }
             } else {
                 textArea.append("Error: Please fill in all fields.\n");
             }
         });
 
+        // Borrow and return run their lookups and the checkout on a worker: against a
+        // LibraryServer each call is a network round trip
         borrowBookButton.addActionListener(e -> {
             String title = bookTitleField.getText();
             String userID = userIDField.getText();
-            Book book = lms.getBooks().stream()
-                    .filter(b -> b.getTitle().equals(title) && b.isAvailable())
-                    .findFirst().orElse(null);
-            User user = lms.getUsers().stream()
-                    .filter(u -> u.getUserID().equals(userID))
-                    .findFirst().orElse(null);
-            if (book != null && user != null && lms.borrowBook(user, book)) {
-                textArea.append("Book borrowed: " + book.getTitle() + "\n");
-            } else {
-                textArea.append("Book or user not found, or book unavailable.\n");
-            }
+            borrowBookButton.setEnabled(false);
+            new SwingWorker<Object[], Void>() {
+                @Override
+                protected Object[] doInBackground() {
+                    User user = lms.findUserById(userID);
+                    Book book = user != null ? lms.findCopyFor(user, title) : null;
+                    Loan loan = book != null ? lms.checkOut(user, book) : null;
+                    boolean holdable = loan == null && user != null && lms.hasTitle(title);
+                    return new Object[] {user, loan, holdable};
+                }
+
+                @Override
+                protected void done() {
+                    borrowBookButton.setEnabled(true);
+                    Object[] r;
+                    try {
+                        r = get();
+                    } catch (InterruptedException | ExecutionException ex) {
+                        textArea.append("[ERROR] Borrow failed: " + ex.getCause() + "\n");
+                        return;
+                    }
+                    User user = (User) r[0];
+                    Loan loan = (Loan) r[1];
+                    if (loan != null) {
+                        textArea.append("Book borrowed: " + loan.getBook().getTitle() + " (loan #" + loan.getLoanId() + ")\n");
+                    } else if ((Boolean) r[2]) {
+                        // Every copy is out: offer a place in the queue instead of making them try again later
+                        int choice = JOptionPane.showConfirmDialog(frame, "No copy of \"" + title + "\" is available. Place a hold?",
+                                "Borrow Book", JOptionPane.YES_NO_OPTION);
+                        if (choice == JOptionPane.YES_OPTION) {
+                            placeHold(user, title);
+                        }
+                    } else {
+                        textArea.append("Book or user not found, or book unavailable.\n");
+                    }
+                }
+            }.execute();
         });
 
         returnBookButton.addActionListener(e -> {
             String userID = userIDField.getText();
-            User user = lms.getUsers().stream()
-                    .filter(u -> u.getUserID().equals(userID))
-                    .findFirst().orElse(null);
-
-            if (user != null) {
-                // Attempt to return the book
-                Book returnedBook = lms.returnBook(user);
-                if (returnedBook != null) {
-                    // Get current date and time
-                    SimpleDateFormat sdf = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss");
-                    String currentDateTime = sdf.format(new Date());
-
-                    // Display return information
-                    textArea.append("Book returned:\n");
-                    textArea.append("Date and Time: " + currentDateTime + "\n");
-                    textArea.append("User Name: " + user.getName() + "\n");
-                    textArea.append("User ID: " + user.getUserID() + "\n");
-                    textArea.append("Title of the Book: " + returnedBook.getTitle() + "\n");
-                } else {
-                    textArea.append("No book was borrowed by this user or the book could not be returned.\n");
+            String title = bookTitleField.getText().trim();
+            returnBookButton.setEnabled(false);
+            new SwingWorker<Object[], Void>() {
+                @Override
+                protected Object[] doInBackground() {
+                    User user = lms.findUserById(userID);
+                    ArrayList<Loan> userLoans = user != null ? lms.getLoansFor(user) : new ArrayList<>();
+                    return new Object[] {user, userLoans};
                 }
-            } else {
-                textArea.append("User not found.\n");
-            }
+
+                @Override
+                @SuppressWarnings("unchecked")
+                protected void done() {
+                    returnBookButton.setEnabled(true);
+                    Object[] r;
+                    try {
+                        r = get();
+                    } catch (InterruptedException | ExecutionException ex) {
+                        textArea.append("[ERROR] Return failed: " + ex.getCause() + "\n");
+                        return;
+                    }
+                    User user = (User) r[0];
+                    if (user == null) {
+                        textArea.append("User not found.\n");
+                        return;
+                    }
+                    // Pick the loan to return: the one matching the title field, the only one, or ask
+                    ArrayList<Loan> userLoans = (ArrayList<Loan>) r[1];
+                    if (!title.isEmpty()) {
+                        userLoans.removeIf(l -> !l.getBook().getTitleKey().equals(TextKeys.fold(title)));
+                    }
+                    Loan loan = null;
+                    if (userLoans.size() == 1) {
+                        loan = userLoans.get(0);
+                    } else if (userLoans.size() > 1) {
+                        loan = (Loan) JOptionPane.showInputDialog(frame, "Select the loan to return:", "Return Book",
+                                JOptionPane.QUESTION_MESSAGE, null, userLoans.toArray(), userLoans.get(0));
+                        if (loan == null) {
+                            return;  // cancelled
+                        }
+                    }
+                    if (loan == null) {
+                        textArea.append("No book was borrowed by this user or the book could not be returned.\n");
+                        return;
+                    }
+                    returnLoan(user, loan);
+                }
+            }.execute();
         });
         // ActionListener for "View Available Books" button
-        viewAvailableBooksButton.addActionListener(e -> {
-            ArrayList<Book> availableBooks = lms.getAvailableBooks();
-            if (availableBooks.isEmpty()) {
-                textArea.append("No books are currently available.\n");
-            } else {
-                textArea.append("list all Available Books:\n");
-                for (Book book : availableBooks) {
-                    textArea.append(book.toString() + "\n");
-                }
-                textArea.append("--------------------------\n");
+        viewAvailableBooksButton.addActionListener(e -> runQuery("Available books", lms::getAvailableBooks));
+        // Books that look like the same record typed differently, grouped together in the table
+        duplicatesButton.addActionListener(e -> runQuery("Possible duplicates", () -> {
+            List<Book> rows = new ArrayList<>();
+            for (List<Book> group : lms.findDuplicateBooks()) {
+                rows.addAll(group);
             }
-        });
+            return rows;
+        }));
         // Add ActionListener for Search Books button
         searchBookButton.addActionListener(e -> {
             textArea.append("[INFO] Searching books...\n");
@@ -394,36 +1517,465 @@ public class LibraryGUI {
                     return;  // Stop further processing
                 }
             }
-            // Search books based on criteria, including availability
-            ArrayList<Book> results = lms.searchBooks(title, author, category, publicationDate, isAvailable ? true : null);
+            liveSearchTimer.stop();
+            if (rankedCheckBox.isSelected()) {
+                runRankedSearch("Ranked results", title + " " + author);
+                return;
+            }
+            // Search books based on criteria, including availability (runs off the EDT).
+            // The button always searches the whole catalog.
+            resultsModel.clear();
+            startQuery(new QueryWorker("Search results",
+                    new SearchQuery(title, author, category, publicationDate, isAvailable ? true : null), null, 0));
+        });
 
-            if (results.isEmpty()) {
-                textArea.append("No books found matching the criteria.\n");
-            } else {
-                textArea.append("Search Results:\n");
-                for (Book book : results) {
-                    // Check if the title or author matches the user's input
-                    boolean titleMatches = title.isEmpty() || book.getTitle().equalsIgnoreCase(title);
-                    boolean authorMatches = author.isEmpty() || book.getAuthor().equalsIgnoreCase(author);
-
-                    if (titleMatches || authorMatches) {
-                        textArea.append("Title: " + book.getTitle() + "\n");
-                        textArea.append("Author: " + book.getAuthor() + "\n");
-                        textArea.append("Publication Date: " + book.getPublicationDate() + "\n");
-                        textArea.append("Category: " + book.getCategory() + "\n");
-                        textArea.append("Available: " + (book.isAvailable() ? "Yes" : "No") + "\n");
+
+        frame.setVisible(true);
+    }
+
+    // Run a catalog query on a background worker and show the result in the table.
+    // Starting a new query cancels the one in flight.
+    private void runQuery(String label, Supplier<List<Book>> query) {
+        resultsModel.clear();
+        startQuery(new QueryWorker(label, query));
+    }
+
+    // Called by the debounce timer. If the new criteria only narrow the last complete
+    // search and the catalog has not changed since it started, its results are filtered
+    // rather than searching the catalog again.
+    private void liveSearch() {
+        String title = bookTitleField.getText().trim();
+        String author = bookAuthorField.getText().trim();
+        if (title.isEmpty() && author.isEmpty()) {
+            cancelQuery();
+            resultsModel.clear();
+            resultsStatus.setText(" ");
+            return;
+        }
+        if (rankedCheckBox.isSelected()) {
+            runRankedSearch("Ranked search", title + " " + author);
+            return;
+        }
+        SearchQuery query = new SearchQuery(title, author, (String) bookCategoryField.getSelectedItem(),
+                bookPublicationDateField.getText().trim(), availableCheckBox.isSelected() ? true : null);
+        startQuery(new QueryWorker("Live search", query, query.narrows(lastSearch) ? lastSearchResults : null, lastSearchVersion));
+    }
+
+    // Title and author text as one free-text query, best matches first (typos allowed)
+    private void runRankedSearch(String label, String text) {
+        runQuery(label, () -> {
+            List<Book> books = new ArrayList<>();
+            for (RankedIndex.Hit hit : lms.searchRanked(text, RANKED_RESULTS, true)) {
+                books.add(hit.getBook());
+            }
+            return books;
+        });
+    }
+
+    private void startQuery(QueryWorker worker) {
+        cancelQuery();
+        resultsStatus.setText(worker.label + ": searching...");
+        cancelQueryButton.setEnabled(true);
+        queryWorker = worker;
+        worker.execute();
+    }
+
+    // Circulation report on a background worker (over a remote catalog it is a server round trip)
+    private void showCirculationReport() {
+        new SwingWorker<String, Void>() {
+            @Override
+            protected String doInBackground() {
+                return lms.analyticsReport();
+            }
+
+            @Override
+            protected void done() {
+                try {
+                    textArea.append(get() + "--------------------------\n");
+                } catch (InterruptedException | ExecutionException ex) {
+                    textArea.append("[ERROR] Circulation report failed: " + ex.getCause() + "\n");
+                }
+            }
+        }.execute();
+    }
+
+    private void placeHold(User user, String title) {
+        new SwingWorker<String, Void>() {
+            @Override
+            protected String doInBackground() {
+                Hold hold = lms.placeHold(user, title);
+                if (hold == null) {
+                    return "A copy of " + title + " just became available, try borrowing again.\n";
+                }
+                return "Hold placed: " + hold + ", position " + lms.getHoldPosition(hold) + " in line\n";
+            }
+
+            @Override
+            protected void done() {
+                try {
+                    textArea.append(get());
+                } catch (InterruptedException | ExecutionException ex) {
+                    textArea.append("[ERROR] Hold failed: " + ex.getCause() + "\n");
+                }
+            }
+        }.execute();
+    }
+
+    private void returnLoan(User user, Loan loan) {
+        new SwingWorker<Object[], Void>() {
+            @Override
+            protected Object[] doInBackground() {
+                Loan returned = lms.returnLoan(loan.getLoanId());
+                return new Object[] {returned, returned != null ? lms.getOutstandingFine(user) : 0L};
+            }
+
+            @Override
+            protected void done() {
+                Object[] r;
+                try {
+                    r = get();
+                } catch (InterruptedException | ExecutionException ex) {
+                    textArea.append("[ERROR] Return failed: " + ex.getCause() + "\n");
+                    return;
+                }
+                Loan returned = (Loan) r[0];
+                if (returned == null) {
+                    textArea.append("No book was borrowed by this user or the book could not be returned.\n");
+                    return;
+                }
+                Book returnedBook = returned.getBook();
+                // Get current date and time
+                SimpleDateFormat sdf = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss");
+                String currentDateTime = sdf.format(new Date());
+
+                // Display return information
+                textArea.append("Book returned:\n");
+                textArea.append("Date and Time: " + currentDateTime + "\n");
+                textArea.append("User Name: " + user.getName() + "\n");
+                textArea.append("User ID: " + user.getUserID() + "\n");
+                textArea.append("Title of the Book: " + returnedBook.getTitle() + "\n");
+                textArea.append("Loan ID: " + returned.getLoanId() + "\n");
+                textArea.append("Due Date: " + returned.getDueDate().toLocalDate() + "\n");
+                long fines = (Long) r[1];
+                if (fines > 0) {
+                    textArea.append(String.format("Outstanding fines: %d.%02d%n", fines / 100, fines % 100));
+                }
+            }
+        }.execute();
+    }
+
+    // Staff set or reset a login: a patron's, for the user ID in the form, or a staff login
+    private void setLogin() {
+        JTextField idField = new JTextField(userIDField.getText(), 20);
+        JPasswordField passwordField = new JPasswordField(20);
+        JPasswordField confirmField = new JPasswordField(20);
+        JCheckBox staffBox = new JCheckBox("Staff login (not a library user)");
+        Object[] form = {"User ID:", idField, "Password:", passwordField, "Confirm Password:", confirmField, staffBox};
+        if (JOptionPane.showConfirmDialog(frame, form, "Set Login", JOptionPane.OK_CANCEL_OPTION) != JOptionPane.OK_OPTION) {
+            return;
+        }
+        String userID = idField.getText().trim();
+        char[] password = passwordField.getPassword();
+        char[] confirm = confirmField.getPassword();
+        boolean match = Arrays.equals(password, confirm);
+        Arrays.fill(confirm, '\0');
+        if (userID.isEmpty() || !match || password.length < 8) {
+            Arrays.fill(password, '\0');
+            textArea.append("Error: Enter a user ID and the same password of at least 8 characters twice.\n");
+            return;
+        }
+        boolean staff = staffBox.isSelected();
+        new SwingWorker<Boolean, Void>() {
+            @Override
+            protected Boolean doInBackground() throws IOException {
+                try {
+                    return lms.setCredentials(userID, password, staff);
+                } finally {
+                    Arrays.fill(password, '\0');
+                }
+            }
+
+            @Override
+            protected void done() {
+                try {
+                    textArea.append(get() ? "Login set for " + userID + "\n"
+                            : staff ? "Error: " + userID + " is a library user; a staff login needs its own ID.\n"
+                            : "Error: No library user with ID " + userID + ".\n");
+                } catch (InterruptedException | ExecutionException ex) {
+                    textArea.append("[ERROR] Setting the login failed: " + ex.getCause() + "\n");
+                }
+            }
+        }.execute();
+    }
+
+    // Bulk import of a CSV/TSV feed on a background worker, with progress in the status line.
+    // Rejected rows go to <feed>.rejects next to the feed.
+    private void importFeed() {
+        JFileChooser chooser = new JFileChooser(".");
+        if (chooser.showOpenDialog(frame) != JFileChooser.APPROVE_OPTION) {
+            return;
+        }
+        Path feed = chooser.getSelectedFile().toPath();
+        Path rejects = Paths.get(feed + ".rejects");
+        textArea.append("[INFO] Importing " + feed + "...\n");
+        new SwingWorker<BulkImporter.Result, String>() {
+            @Override
+            protected BulkImporter.Result doInBackground() throws IOException {
+                return new BulkImporter(lms)
+                        .setProgressListener(r -> publish("Importing: " + r))
+                        .importFeed(feed, rejects);
+            }
+
+            @Override
+            protected void process(List<String> progress) {
+                resultsStatus.setText(progress.get(progress.size() - 1));
+            }
+
+            @Override
+            protected void done() {
+                try {
+                    BulkImporter.Result result = get();
+                    resultsStatus.setText("Import finished: " + result);
+                    textArea.append("[INFO] Import finished: " + result + "\n");
+                    if (result.rejected > 0) {
+                        textArea.append("[INFO] Rejected rows written to " + rejects + "\n");
+                    }
+                } catch (InterruptedException | ExecutionException ex) {
+                    resultsStatus.setText("Import failed");
+                    textArea.append("[ERROR] Import failed: " + ex.getCause() + "\n");
+                }
+            }
+        }.execute();
+    }
+
+    // Batch checkout/return for a barcode scanner: each scan is a book ID followed by Enter.
+    // Scans collect in the list and go to the catalog as one batch when Process is pressed
+    // (or an empty line is scanned).
+    private void openScanDesk() {
+        JDialog dialog = new JDialog(frame, "Scan Desk", false);
+        dialog.setLayout(new BorderLayout());
+        JRadioButton borrowMode = new JRadioButton("Borrow", true);
+        JRadioButton returnMode = new JRadioButton("Return");
+        ButtonGroup modes = new ButtonGroup();
+        modes.add(borrowMode);
+        modes.add(returnMode);
+        JTextField patronField = new JTextField(12);
+        JTextField scanField = new JTextField(12);
+        DefaultListModel<String> scans = new DefaultListModel<>();
+        JButton processButton = new JButton("Process");
+
+        JPanel top = new JPanel(new FlowLayout(FlowLayout.LEFT));
+        top.add(borrowMode);
+        top.add(returnMode);
+        top.add(new JLabel("Patron ID:"));
+        top.add(patronField);
+        top.add(new JLabel("Scan:"));
+        top.add(scanField);
+        top.add(processButton);
+        returnMode.addActionListener(e -> patronField.setEnabled(false));
+        borrowMode.addActionListener(e -> patronField.setEnabled(true));
+        dialog.add(top, BorderLayout.NORTH);
+        dialog.add(new JScrollPane(new JList<>(scans)), BorderLayout.CENTER);
+
+        Runnable process = () -> {
+            if (scans.isEmpty()) {
+                return;
+            }
+            boolean borrowing = borrowMode.isSelected();
+            String patron = patronField.getText().trim();
+            List<Integer> bookIds = new ArrayList<>();
+            for (int i = 0; i < scans.size(); i++) {
+                bookIds.add(Circulation.parseBookId(scans.get(i)));
+            }
+            scans.clear();
+            processButton.setEnabled(false);
+            new SwingWorker<List<Circulation.Result>, Void>() {
+                @Override
+                protected List<Circulation.Result> doInBackground() {
+                    if (!borrowing) {
+                        return lms.returnAll(bookIds);
+                    }
+                    List<Circulation.Request> requests = new ArrayList<>();
+                    for (int id : bookIds) {
+                        requests.add(new Circulation.Request(patron, id));
+                    }
+                    return lms.checkOutAll(requests);
+                }
+
+                @Override
+                protected void done() {
+                    processButton.setEnabled(true);
+                    try {
+                        List<Circulation.Result> results = get();
+                        int ok = 0;
+                        textArea.append((borrowing ? "Batch checkout for " + patron : "Batch return") + ":\n");
+                        for (Circulation.Result r : results) {
+                            textArea.append("  " + r + "\n");
+                            ok += r.isOk() ? 1 : 0;
+                        }
+                        textArea.append(ok + " of " + results.size() + " processed\n");
                         textArea.append("--------------------------\n");
+                    } catch (InterruptedException | ExecutionException ex) {
+                        textArea.append("[ERROR] Batch failed: " + ex.getCause() + "\n");
                     }
+                    scanField.requestFocusInWindow();
                 }
+            }.execute();
+        };
+        // Scanners finish each barcode with Enter
+        scanField.addActionListener(e -> {
+            String scan = scanField.getText().trim();
+            scanField.setText("");
+            if (scan.isEmpty()) {
+                process.run();
+            } else {
+                scans.addElement(scan);
             }
         });
+        processButton.addActionListener(e -> process.run());
+
+        dialog.setSize(600, 400);
+        dialog.setLocationRelativeTo(frame);
+        dialog.setVisible(true);
+        scanField.requestFocusInWindow();
+    }
+
+    private void cancelQuery() {
+        if (queryWorker != null) {
+            queryWorker.cancel(true);
+            queryWorker = null;
+            resultsStatus.setText("Cancelled");
+            cancelQueryButton.setEnabled(false);
+        }
+    }
 
+    // Background query. Searches publish the first page of matches as soon as they
+    // are found and then fill in the complete result.
+    private class QueryWorker extends SwingWorker<List<Book>, List<Book>> {
+        private final String label;
+        private final Supplier<List<Book>> query;
+        private final SearchQuery search;
+        private final List<Book> narrowFrom;
+        private final long narrowVersion;
+        private long version;  // read before searching, so a change during the search counts as stale
 
-        frame.setVisible(true);
+        QueryWorker(String label, Supplier<List<Book>> query) {
+            this.label = label;
+            this.query = query;
+            this.search = null;
+            this.narrowFrom = null;
+            this.narrowVersion = 0;
+        }
+
+        QueryWorker(String label, SearchQuery search, List<Book> narrowFrom, long narrowVersion) {
+            this.label = label;
+            this.query = null;
+            this.search = search;
+            this.narrowFrom = narrowFrom;
+            this.narrowVersion = narrowVersion;
+        }
+
+        @Override
+        protected List<Book> doInBackground() {
+            if (search == null) {
+                return query.get();
+            }
+            version = lms.getCatalogVersion();
+            if (narrowFrom != null && version == narrowVersion) {
+                return search.refine(lms, narrowFrom);
+            }
+            List<Book> top = search.run(lms, FIRST_RESULTS);
+            if (top.size() < FIRST_RESULTS) {
+                return top;
+            }
+            publish(top);
+            return isCancelled() ? top : search.run(lms);
+        }
+
+        @Override
+        protected void process(List<List<Book>> chunks) {
+            if (isCancelled() || queryWorker != this) {
+                return;
+            }
+            resultsModel.setResults(chunks.get(chunks.size() - 1));
+            resultsStatus.setText(label + ": showing first " + resultsModel.getTotalCount() + ", searching for more...");
+        }
+
+        @Override
+        protected void done() {
+            if (isCancelled() || queryWorker != this) {
+                return;
+            }
+            queryWorker = null;
+            cancelQueryButton.setEnabled(false);
+            try {
+                List<Book> results = get();
+                resultsModel.setResults(results);
+                resultsStatus.setText(results.isEmpty() ? label + ": no books found" : label + ": " + results.size() + " books");
+                if (search != null) {
+                    lastSearch = search;
+                    lastSearchResults = results;
+                    lastSearchVersion = version;
+                }
+            } catch (InterruptedException | ExecutionException ex) {
+                resultsStatus.setText(label + ": failed");
+                textArea.append("[ERROR] " + ex.getCause() + "\n");
+            }
+        }
+    }
+
+    // Show indexing progress in the title bar during a lazy start
+    void watchIndexing(LibraryManagementSystem local) {
+        String title = frame.getTitle();
+        Timer timer = new Timer(500, null);
+        timer.addActionListener(e -> {
+            if (local.isIndexing()) {
+                frame.setTitle(title + " (read-only, indexing " + local.getIndexedCount() + " of " + local.getIndexingTotal() + " books)");
+            } else {
+                frame.setTitle(title);
+                timer.stop();
+            }
+        });
+        timer.start();
     }
 
+    // java LibraryGUI                       local catalog in the current directory
+    // java LibraryGUI --lazy                the same without a journal, for a large books.txt:
+    //                                       browse at once, circulate once it is indexed
+    // java LibraryGUI --connect host:port   desk client of a LibraryServer, after a login
     public static void main(String[] args) {
+        if (args.length >= 2 && args[0].equals("--connect")) {
+            try {
+                new LoginPage(RemoteLibraryManagementSystem.connect(args[1]));  // checked against the server's logins
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+            return;
+        }
         LibraryManagementSystem lms = new LibraryManagementSystem();
+        if (args.length >= 1 && args[0].equals("--lazy")) {
+            try {
+                lms.openLazy(new LazyCatalog.Settings());
+                lms.loadUsers();
+                lms.getMetrics().registerMBean("library:type=Metrics");
+                new LibraryGUI(lms).watchIndexing(lms);
+                return;
+            } catch (IOException e) {
+                e.printStackTrace();  // e.g. books.txt older than the journal; start normally
+            }
+        }
+        try {
+            lms.openJournal(Paths.get("."));
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        lms.getMetrics().registerMBean("library:type=Metrics");
+        try {
+            lms.startOverdueScheduler(new OverdueScheduler.Settings());
+            lms.startAnalytics(new CirculationAnalytics.Settings());
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
         new LibraryGUI(lms);
     }
 }
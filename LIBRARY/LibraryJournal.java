@@ -0,0 +1,544 @@
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.TreeMap;
+
+// Append-only write-ahead journal for LibraryManagementSystem.
+// Every mutation is appended as one line "lsn|type|fields..." through a FileChannel.
+// A background writer group-commits whatever has been appended since its last write,
+// and fsyncs according to Settings. compact() writes the full state to a snapshot and
+// starts a new journal segment; recover() loads the snapshot and replays the tail.
+// Replaying a record is idempotent, so records that are already in the snapshot do no harm.
+class LibraryJournal implements Closeable {
+    static final String SNAPSHOT_FILE = "library.snapshot";
+    static final String SEGMENT_PREFIX = "library.journal.";
+    private static final int SNAPSHOT_VERSION = 1;
+
+    // Tuning knobs
+    static class Settings {
+        int maxBatch = 512;                    // records per write before the writer stops lingering
+        long lingerMillis = 2;                 // how long the writer waits for more records to join a batch
+        int fsyncEveryBatches = 1;             // 1 = fsync every batch, N = every Nth batch, 0 = only on sync()/close()
+        long compactionIntervalSeconds = 300;  // how often to check whether to compact
+        long compactionMinBytes = 4L << 20;    // compact once the current segment has grown this much
+    }
+
+    private final Path dir;
+    private final Settings settings;
+    private final Object lock = new Object();  // guards the pending batch and LSN counters
+    private final Object io = new Object();    // held while writing, so rotation never reorders batches
+    private FileChannel channel;
+    private long generation;
+    private long segmentBytes;
+    private StringBuilder pending = new StringBuilder();
+    private int pendingCount;
+    private long lastLsn;
+    private long syncedLsn;
+    private boolean syncRequested;
+    private boolean closed;
+    private IOException failure;
+    private final Thread writer;
+
+    private LibraryJournal(Path dir, Settings settings, long generation, long lastLsn) throws IOException {
+        this.dir = dir;
+        this.settings = settings;
+        this.generation = generation;
+        this.lastLsn = lastLsn;
+        this.syncedLsn = lastLsn;
+        this.channel = openSegment(generation);
+        this.writer = new Thread(this::writeLoop, "library-journal-writer");
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    // True if dir holds a snapshot or journal segments
+    static boolean exists(Path dir) throws IOException {
+        return Files.exists(dir.resolve(SNAPSHOT_FILE)) || (Files.isDirectory(dir) && !segments(dir).isEmpty());
+    }
+
+    // Newest modification time among the snapshot and segments in dir, in millis; 0 if there are none
+    static long lastModified(Path dir) throws IOException {
+        long newest = 0;
+        Path snapshot = dir.resolve(SNAPSHOT_FILE);
+        if (Files.exists(snapshot)) {
+            newest = Files.getLastModifiedTime(snapshot).toMillis();
+        }
+        if (Files.isDirectory(dir)) {
+            for (Path segment : segments(dir).values()) {
+                newest = Math.max(newest, Files.getLastModifiedTime(segment).toMillis());
+            }
+        }
+        return newest;
+    }
+
+    // Load the snapshot and journal segments from dir into lms, then open a new segment for appends
+    static LibraryJournal recover(Path dir, Settings settings, LibraryManagementSystem lms) throws IOException {
+        Files.createDirectories(dir);
+        long cut = 0;
+        Path snapshot = dir.resolve(SNAPSHOT_FILE);
+        if (Files.exists(snapshot)) {
+            List<String> lines = Files.readAllLines(snapshot, StandardCharsets.UTF_8);
+            String[] header = split(lines.get(0));
+            if (!header[0].equals("SNAPSHOT") || Integer.parseInt(header[1]) != SNAPSHOT_VERSION) {
+                throw new IOException("Unsupported snapshot: " + lines.get(0));
+            }
+            cut = Long.parseLong(header[2]);
+            lms.advanceBookId(Integer.parseInt(header[3]));
+            lms.getLoanLedger().advanceLoanId(Long.parseLong(header[4]));
+            for (int i = 1; i < lines.size(); i++) {
+                apply(lms, split(lines.get(i)), 0);
+            }
+        }
+
+        long lastLsn = cut;
+        long lastGeneration = 0;
+        TreeMap<Long, Path> segments = segments(dir);
+        for (var entry : segments.entrySet()) {
+            lastGeneration = entry.getKey();
+            lastLsn = Math.max(lastLsn, replaySegment(entry.getValue(), cut, lms));
+            if (Files.size(entry.getValue()) == 0) {
+                Files.delete(entry.getValue());
+            }
+        }
+        return new LibraryJournal(dir, settings, lastGeneration + 1, lastLsn);
+    }
+
+    // Replays one segment and returns the highest LSN seen. A torn last line is cut off.
+    private static long replaySegment(Path segment, long cut, LibraryManagementSystem lms) throws IOException {
+        byte[] data = Files.readAllBytes(segment);
+        long lastLsn = 0;
+        int start = 0;
+        while (start < data.length) {
+            int end = start;
+            while (end < data.length && data[end] != '\n') {
+                end++;
+            }
+            if (end == data.length) {
+                break;  // no newline, the write was interrupted
+            }
+            String[] fields;
+            long lsn;
+            try {
+                fields = split(new String(data, start, end - start, StandardCharsets.UTF_8));
+                lsn = Long.parseLong(fields[0]);
+            } catch (RuntimeException e) {
+                break;
+            }
+            if (lsn > cut) {
+                apply(lms, fields, 1);
+            }
+            lastLsn = lsn;
+            start = end + 1;
+        }
+        if (start < data.length) {
+            try (FileChannel ch = FileChannel.open(segment, StandardOpenOption.WRITE)) {
+                ch.truncate(start);
+            }
+        }
+        return lastLsn;
+    }
+
+    // Apply one record to lms. Every record type is safe to apply twice.
+    private static void apply(LibraryManagementSystem lms, String[] f, int o) {
+        switch (f[o]) {
+            case "B": {
+                int id = Integer.parseInt(f[o + 1]);
+                if (lms.findBookById(id) == null) {
+                    lms.addBook(bookFromFields(f, o + 1));
+                }
+                break;
+            }
+            case "R": {
+                Book book = lms.findBookById(Integer.parseInt(f[o + 1]));
+                if (book != null) {
+                    lms.removeBook(book);
+                }
+                break;
+            }
+            case "A": {
+                Book book = lms.findBookById(Integer.parseInt(f[o + 1]));
+                if (book != null) {
+                    book.setAvailable(Boolean.parseBoolean(f[o + 2]));
+                }
+                break;
+            }
+            case "C": {
+                Book book = lms.findBookById(Integer.parseInt(f[o + 1]));
+                if (book != null) {
+                    book.setCategory(f[o + 2]);
+                }
+                break;
+            }
+            case "D": {
+                Book book = lms.findBookById(Integer.parseInt(f[o + 1]));
+                if (book != null) {
+                    book.setPublicationDate(f[o + 2]);
+                }
+                break;
+            }
+            case "G": {
+                Book book = lms.findBookById(Integer.parseInt(f[o + 1]));
+                if (book instanceof FictionBook) {
+                    ((FictionBook) book).setGenre(f[o + 2]);
+                } else if (book instanceof NonFictionBook) {
+                    ((NonFictionBook) book).setSubject(f[o + 2]);
+                }
+                break;
+            }
+            case "U":
+                lms.addUser(new User(f[o + 1], f[o + 2]));
+                break;
+            case "L": {
+                User user = lms.findUserById(f[o + 2]);
+                Book book = lms.findBookById(Integer.parseInt(f[o + 3]));
+                if (user != null && book != null) {
+                    lms.getLoanLedger().restore(Long.parseLong(f[o + 1]), user, book,
+                            LocalDateTime.parse(f[o + 4]), LocalDateTime.parse(f[o + 5]));
+                }
+                break;
+            }
+            case "X":
+                lms.getLoanLedger().close(Long.parseLong(f[o + 1]));
+                break;
+            case "P":
+                lms.getLoanLedger().setFine(f[o + 1], Long.parseLong(f[o + 2]));
+                break;
+            case "H": {
+                User user = lms.findUserById(f[o + 2]);
+                Book book = f[o + 5].isEmpty() ? null : lms.findBookById(Integer.parseInt(f[o + 5]));
+                if (user != null) {
+                    lms.getHolds().restore(Long.parseLong(f[o + 1]), user, f[o + 3], LocalDateTime.parse(f[o + 4]),
+                            book, book == null ? null : LocalDateTime.parse(f[o + 6]));
+                }
+                break;
+            }
+            case "Y":
+                lms.getHolds().restoreClosed(Long.parseLong(f[o + 1]), Hold.State.valueOf(f[o + 2]));
+                break;
+            default:
+                throw new IllegalStateException("Unknown journal record: " + f[o]);
+        }
+    }
+
+    // Record builders
+    static String bookRecord(Book book) {
+        String kind = "B";
+        String extra = "";
+        if (book instanceof FictionBook) {
+            kind = "F";
+            extra = ((FictionBook) book).getGenre();
+        } else if (book instanceof NonFictionBook) {
+            kind = "N";
+            extra = ((NonFictionBook) book).getSubject();
+        }
+        return join("B", String.valueOf(book.getId()), kind, book.getTitle(), book.getAuthor(),
+                book.getPublicationDate(), book.getCategory(), String.valueOf(book.isAvailable()), extra);
+    }
+
+    static String loanRecord(Loan loan) {
+        return join("L", String.valueOf(loan.getLoanId()), loan.getUser().getUserID(),
+                String.valueOf(loan.getBook().getId()), loan.getBorrowedAt().toString(), loan.getDueDate().toString());
+    }
+
+    static String userRecord(User user) {
+        return join("U", user.getName(), user.getUserID());
+    }
+
+    // f[o] is the book id, followed by kind, title, author, date, category, available, extra
+    static Book bookFromFields(String[] f, int o) {
+        Book book;
+        switch (f[o + 1]) {
+            case "F":
+                book = new FictionBook(f[o + 2], f[o + 3], f[o + 7]);
+                break;
+            case "N":
+                book = new NonFictionBook(f[o + 2], f[o + 3], f[o + 7]);
+                break;
+            default:
+                book = new Book(f[o + 2], f[o + 3], f[o + 5]);
+        }
+        book.setId(Integer.parseInt(f[o]));
+        book.setCategory(f[o + 5]);
+        book.setPublicationDate(f[o + 4]);
+        book.setAvailable(Boolean.parseBoolean(f[o + 6]));
+        return book;
+    }
+
+    // Queue a record for the next group commit and return its LSN
+    public long append(String record) {
+        synchronized (lock) {
+            if (closed) {
+                throw new IllegalStateException("Journal is closed");
+            }
+            long lsn = ++lastLsn;
+            pending.append(lsn).append('|').append(record).append('\n');
+            if (++pendingCount == 1 || pendingCount >= settings.maxBatch) {
+                lock.notifyAll();
+            }
+            return lsn;
+        }
+    }
+
+    // Queue several records as one unit, so they land in the same group commit; returns the last LSN
+    public long appendAll(List<String> records) {
+        synchronized (lock) {
+            if (closed) {
+                throw new IllegalStateException("Journal is closed");
+            }
+            boolean wasEmpty = pendingCount == 0;
+            for (String record : records) {
+                pending.append(++lastLsn).append('|').append(record).append('\n');
+            }
+            pendingCount += records.size();
+            if (!records.isEmpty() && (wasEmpty || pendingCount >= settings.maxBatch)) {
+                lock.notifyAll();
+            }
+            return lastLsn;
+        }
+    }
+
+    // Block until every record appended so far is on disk
+    public void sync() throws IOException {
+        synchronized (lock) {
+            long target = lastLsn;
+            while (syncedLsn < target) {
+                if (failure != null) {
+                    throw failure;
+                }
+                syncRequested = true;
+                lock.notifyAll();
+                try {
+                    lock.wait();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new IOException("Interrupted while waiting for journal sync", e);
+                }
+            }
+            if (failure != null) {
+                throw failure;
+            }
+        }
+    }
+
+    public long segmentBytes() {
+        synchronized (io) {
+            return segmentBytes;
+        }
+    }
+
+    // Write lms's full state to a new snapshot and drop the journal segments it covers
+    public void compact(LibraryManagementSystem lms) throws IOException {
+        long cut;
+        long oldGeneration;
+        synchronized (io) {
+            synchronized (lock) {
+                cut = lastLsn;
+                write(takePending(), true, cut);
+            }
+            channel.close();
+            oldGeneration = generation;
+            channel = openSegment(++generation);
+            segmentBytes = 0;
+        }
+
+        // Anything changed after the cut is also in the new segment and replays on top of this
+        Path tmp = dir.resolve(SNAPSHOT_FILE + ".tmp");
+        try (Writer out = Files.newBufferedWriter(tmp, StandardCharsets.UTF_8)) {
+            out.write(join("SNAPSHOT", String.valueOf(SNAPSHOT_VERSION), String.valueOf(cut),
+                    String.valueOf(lms.peekNextBookId()), String.valueOf(lms.getLoanLedger().peekNextLoanId())));
+            out.write('\n');
+            for (User user : lms.getUsersSnapshot()) {
+                out.write(userRecord(user));
+                out.write('\n');
+            }
+            for (Book book : lms.getBooksSnapshot()) {
+                out.write(bookRecord(book));
+                out.write('\n');
+            }
+            for (Loan loan : lms.getLoanLedger().all()) {
+                out.write(loanRecord(loan));
+                out.write('\n');
+            }
+            for (Hold hold : lms.getHolds().all()) {
+                out.write(HoldQueues.holdRecord(hold));
+                out.write('\n');
+            }
+            for (var fine : lms.getLoanLedger().allFines().entrySet()) {
+                out.write(join("P", fine.getKey(), String.valueOf(fine.getValue())));
+                out.write('\n');
+            }
+        }
+        try (FileChannel ch = FileChannel.open(tmp, StandardOpenOption.WRITE)) {
+            ch.force(true);
+        }
+        Files.move(tmp, dir.resolve(SNAPSHOT_FILE), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        for (var entry : segments(dir).entrySet()) {
+            if (entry.getKey() <= oldGeneration) {
+                Files.deleteIfExists(entry.getValue());
+            }
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        sync();
+        synchronized (lock) {
+            closed = true;
+            lock.notifyAll();
+        }
+        try {
+            writer.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        synchronized (io) {
+            channel.close();
+        }
+    }
+
+    private void writeLoop() {
+        long batches = 0;
+        while (true) {
+            // wait for work without holding io, so compaction can rotate in the meantime
+            synchronized (lock) {
+                try {
+                    while (pendingCount == 0 && !syncRequested && !closed) {
+                        lock.wait();
+                    }
+                    if (pendingCount > 0 && pendingCount < settings.maxBatch && !syncRequested
+                            && !closed && settings.lingerMillis > 0) {
+                        lock.wait(settings.lingerMillis);
+                    }
+                } catch (InterruptedException e) {
+                    return;
+                }
+            }
+            synchronized (io) {
+                String batch;
+                boolean force;
+                long upTo;
+                synchronized (lock) {
+                    if (closed && pendingCount == 0) {
+                        return;
+                    }
+                    batch = takePending();
+                    upTo = lastLsn;
+                    batches++;
+                    force = syncRequested || (settings.fsyncEveryBatches > 0 && batches % settings.fsyncEveryBatches == 0);
+                    syncRequested = false;
+                }
+                write(batch, force, upTo);
+            }
+        }
+    }
+
+    // Caller holds io
+    private void write(String batch, boolean force, long upTo) {
+        try {
+            if (!batch.isEmpty()) {
+                ByteBuffer buf = ByteBuffer.wrap(batch.getBytes(StandardCharsets.UTF_8));
+                segmentBytes += buf.remaining();
+                while (buf.hasRemaining()) {
+                    channel.write(buf);
+                }
+            }
+            if (force) {
+                channel.force(false);
+            }
+            synchronized (lock) {
+                if (force) {
+                    syncedLsn = Math.max(syncedLsn, upTo);
+                }
+                lock.notifyAll();
+            }
+        } catch (IOException e) {
+            synchronized (lock) {
+                failure = e;
+                lock.notifyAll();
+            }
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    // Caller holds lock
+    private String takePending() {
+        String batch = pending.toString();
+        pending = new StringBuilder();
+        pendingCount = 0;
+        return batch;
+    }
+
+    private FileChannel openSegment(long generation) throws IOException {
+        return FileChannel.open(dir.resolve(SEGMENT_PREFIX + generation),
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+    }
+
+    private static TreeMap<Long, Path> segments(Path dir) throws IOException {
+        TreeMap<Long, Path> segments = new TreeMap<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(dir, SEGMENT_PREFIX + "*")) {
+            for (Path p : stream) {
+                try {
+                    segments.put(Long.parseLong(p.getFileName().toString().substring(SEGMENT_PREFIX.length())), p);
+                } catch (NumberFormatException e) {
+                    // not one of ours
+                }
+            }
+        }
+        return segments;
+    }
+
+    // Fields are '|'-separated like books.txt; '\' escapes '|', '\' and newlines
+    static String join(String... fields) {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < fields.length; i++) {
+            if (i > 0) {
+                sb.append('|');
+            }
+            String field = fields[i] == null ? "" : fields[i];
+            for (int j = 0; j < field.length(); j++) {
+                char c = field.charAt(j);
+                if (c == '|') {
+                    sb.append("\\p");
+                } else if (c == '\\') {
+                    sb.append("\\\\");
+                } else if (c == '\n') {
+                    sb.append("\\n");
+                } else {
+                    sb.append(c);
+                }
+            }
+        }
+        return sb.toString();
+    }
+
+    static String[] split(String line) {
+        ArrayList<String> fields = new ArrayList<>();
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < line.length(); i++) {
+            char c = line.charAt(i);
+            if (c == '\\' && i + 1 < line.length()) {
+                char n = line.charAt(++i);
+                sb.append(n == 'p' ? '|' : n == 'n' ? '\n' : n);
+            } else if (c == '|') {
+                fields.add(sb.toString());
+                sb.setLength(0);
+            } else {
+                sb.append(c);
+            }
+        }
+        fields.add(sb.toString());
+        return fields.toArray(new String[0]);
+    }
+}
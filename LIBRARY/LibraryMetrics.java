@@ -0,0 +1,186 @@
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+import javax.management.Attribute;
+import javax.management.AttributeList;
+import javax.management.AttributeNotFoundException;
+import javax.management.DynamicMBean;
+import javax.management.JMException;
+import javax.management.MBeanAttributeInfo;
+import javax.management.MBeanInfo;
+import javax.management.MBeanOperationInfo;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.management.ReflectionException;
+
+// Counters, latency histograms and gauges for one LibraryManagementSystem.
+// Recording is lock-free (LongAdder / LatencyHistogram); reading walks everything, so
+// snapshot() and the JMX attributes are meant for dashboards, not for the hot path.
+// Latencies are in nanoseconds.
+class LibraryMetrics implements DynamicMBean {
+    static final double[] PERCENTILES = {0.5, 0.9, 0.99, 0.999};
+    static final String[] PERCENTILE_NAMES = {"p50", "p90", "p99", "p999"};
+
+    private final Map<String, LongAdder> counters = new ConcurrentSkipListMap<>();
+    private final Map<String, LatencyHistogram> histograms = new ConcurrentSkipListMap<>();
+    private final Map<String, Supplier<Number>> gauges = new ConcurrentSkipListMap<>();
+
+    // Created on first use. Hot paths should keep the returned object in a field
+    // rather than looking it up by name on every call.
+    public LongAdder counter(String name) {
+        return counters.computeIfAbsent(name, n -> new LongAdder());
+    }
+
+    public LatencyHistogram histogram(String name) {
+        return histograms.computeIfAbsent(name, n -> new LatencyHistogram());
+    }
+
+    public void gauge(String name, Supplier<Number> value) {
+        gauges.put(name, value);
+    }
+
+    public void increment(String name) {
+        counter(name).increment();
+    }
+
+    // Record the time since start (a System.nanoTime() value)
+    public void recordSince(String name, long start) {
+        histogram(name).record(System.nanoTime() - start);
+    }
+
+    // Plain text, one metric per line:
+    //   counter borrow.refused 3
+    //   gauge catalog.books 1000000
+    //   latency search count=120 mean=41230 p50=30719 p90=... max=... (ns)
+    public String snapshot() {
+        StringBuilder sb = new StringBuilder();
+        for (Map.Entry<String, LongAdder> e : counters.entrySet()) {
+            sb.append("counter ").append(e.getKey()).append(' ').append(e.getValue().sum()).append('\n');
+        }
+        for (Map.Entry<String, Supplier<Number>> e : gauges.entrySet()) {
+            sb.append("gauge ").append(e.getKey()).append(' ').append(readGauge(e.getValue())).append('\n');
+        }
+        for (Map.Entry<String, LatencyHistogram> e : histograms.entrySet()) {
+            LatencyHistogram h = e.getValue();
+            sb.append("latency ").append(e.getKey())
+                    .append(" count=").append(h.getCount())
+                    .append(" mean=").append(Math.round(h.getMean()));
+            for (int i = 0; i < PERCENTILES.length; i++) {
+                sb.append(' ').append(PERCENTILE_NAMES[i]).append('=').append(h.getPercentile(PERCENTILES[i]));
+            }
+            sb.append(" max=").append(h.getMax()).append(" ns\n");
+        }
+        return sb.toString();
+    }
+
+    private static Number readGauge(Supplier<Number> gauge) {
+        try {
+            return gauge.get();
+        } catch (RuntimeException e) {
+            return Double.NaN;
+        }
+    }
+
+    // Register under name (for example "library:type=Metrics") with the platform MBean server
+    public void registerMBean(String name) {
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName objectName = new ObjectName(name);
+            if (server.isRegistered(objectName)) {
+                server.unregisterMBean(objectName);
+            }
+            server.registerMBean(this, objectName);
+        } catch (JMException e) {
+            e.printStackTrace();
+        }
+    }
+
+    // JMX: every counter and gauge is an attribute, and each histogram is exported as
+    // <name>.count, <name>.mean, <name>.p50 ... <name>.max
+    @Override
+    public Object getAttribute(String attribute) throws AttributeNotFoundException {
+        LongAdder c = counters.get(attribute);
+        if (c != null) {
+            return c.sum();
+        }
+        Supplier<Number> g = gauges.get(attribute);
+        if (g != null) {
+            return readGauge(g).doubleValue();
+        }
+        int dot = attribute.lastIndexOf('.');
+        LatencyHistogram h = dot < 0 ? null : histograms.get(attribute.substring(0, dot));
+        if (h != null) {
+            String stat = attribute.substring(dot + 1);
+            switch (stat) {
+                case "count": return h.getCount();
+                case "mean": return Math.round(h.getMean());
+                case "max": return h.getMax();
+                default:
+                    for (int i = 0; i < PERCENTILES.length; i++) {
+                        if (PERCENTILE_NAMES[i].equals(stat)) {
+                            return h.getPercentile(PERCENTILES[i]);
+                        }
+                    }
+            }
+        }
+        throw new AttributeNotFoundException(attribute);
+    }
+
+    @Override
+    public AttributeList getAttributes(String[] attributes) {
+        AttributeList list = new AttributeList();
+        for (String name : attributes) {
+            try {
+                list.add(new Attribute(name, getAttribute(name)));
+            } catch (AttributeNotFoundException e) {
+                // skipped, as the DynamicMBean contract allows
+            }
+        }
+        return list;
+    }
+
+    @Override
+    public void setAttribute(Attribute attribute) throws AttributeNotFoundException {
+        throw new AttributeNotFoundException("Library metrics are read-only");
+    }
+
+    @Override
+    public AttributeList setAttributes(AttributeList attributes) {
+        return new AttributeList();
+    }
+
+    @Override
+    public Object invoke(String actionName, Object[] params, String[] signature) throws ReflectionException {
+        if (actionName.equals("snapshot")) {
+            return snapshot();
+        }
+        throw new ReflectionException(new NoSuchMethodException(actionName), "Unknown operation " + actionName);
+    }
+
+    @Override
+    public MBeanInfo getMBeanInfo() {
+        List<MBeanAttributeInfo> attributes = new ArrayList<>();
+        for (String name : counters.keySet()) {
+            attributes.add(new MBeanAttributeInfo(name, "long", "Counter", true, false, false));
+        }
+        for (String name : gauges.keySet()) {
+            attributes.add(new MBeanAttributeInfo(name, "double", "Gauge", true, false, false));
+        }
+        for (String name : histograms.keySet()) {
+            attributes.add(new MBeanAttributeInfo(name + ".count", "long", "Operations recorded", true, false, false));
+            attributes.add(new MBeanAttributeInfo(name + ".mean", "long", "Mean latency (ns)", true, false, false));
+            for (String p : PERCENTILE_NAMES) {
+                attributes.add(new MBeanAttributeInfo(name + "." + p, "long", "Latency percentile (ns)", true, false, false));
+            }
+            attributes.add(new MBeanAttributeInfo(name + ".max", "long", "Max latency (ns)", true, false, false));
+        }
+        MBeanOperationInfo snapshot = new MBeanOperationInfo("snapshot", "All metrics as text",
+                null, "java.lang.String", MBeanOperationInfo.INFO);
+        return new MBeanInfo(getClass().getName(), "Library operation metrics",
+                attributes.toArray(new MBeanAttributeInfo[0]), null, new MBeanOperationInfo[]{snapshot}, null);
+    }
+}
@@ -0,0 +1,599 @@
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.UncheckedIOException;
+import java.lang.reflect.Method;
+import java.net.ProtocolException;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// Headless circulation server: one LibraryManagementSystem shared by many desk clients
+// over a line protocol, so branches stop keeping their own copies of books.txt.
+//
+// Requests and responses are single lines of '|'-separated fields, escaped the same way
+// as the journal (LibraryJournal.join/split):
+//   request:  <requestId>|<COMMAND>|<args...>
+//   response: <requestId>|OK|<values...>   or   <requestId>|ERR|<message>
+// Commands that return books or loans answer <requestId>|OK|<n> followed by n record
+// lines (journal B and L records). SEARCH, AVAILABLE and BOOKS answer one page: at most
+// limit books (capped by Settings.maxPageRows) with IDs above afterId, in ID order, so a
+// client pages by passing the last ID it got. ADD_BOOKS is followed by n book lines and
+// adds them as one batch. A client may pipeline: send many requests without waiting.
+// They are answered in order, and the output is flushed once the client has nothing more
+// queued.
+//
+// A connection starts anonymous and may only PING, LOGIN, or REGISTER (the first staff
+// login of a new installation). After LOGIN it acts as that user: a staff login may do
+// anything, a patron login only reads the catalog and borrows, returns, holds and looks
+// up fines for itself. Request lines are capped in length, and a connection is dropped
+// after too many failed logins; password hashing for all connections shares a few permits,
+// so anonymous callers cannot tie up every core with PBKDF2.
+// LOGIN, REGISTER and SET_CREDENTIALS carry the password in clear, like everything else on
+// the wire, so run the server on the library's own network.
+//
+// Each connection gets its own thread: a virtual thread on JDK 21+, otherwise a thread
+// from a cached pool (looked up reflectively, so this still builds on JDK 17).
+public class LibraryServer implements Closeable {
+    static final int DEFAULT_PORT = 7070;
+
+    // Tuning knobs
+    static class Settings {
+        int maxLineChars = 64 * 1024;   // a longer request line ends the connection
+        int maxFailedLogins = 5;        // per connection, then it is closed
+        int hashPermits = 4;            // logins being hashed at once, over all connections
+        int maxPageRows = 1000;         // books per SEARCH/AVAILABLE/BOOKS answer
+    }
+
+    // Most books in one ADD_BOOKS request
+    static final int MAX_BATCH = 10_000;
+
+    // Who a connection is logged in as; null until LOGIN succeeds
+    static class Session {
+        String userID;
+        boolean staff;
+        int failedLogins;
+    }
+
+    private final LibraryManagementSystem lms;
+    private final Settings settings;
+    private final Semaphore hashing;
+    private final ServerSocket serverSocket;
+    private final ExecutorService connections = newConnectionExecutor();
+    private final AtomicInteger clients = new AtomicInteger();
+    private final Thread acceptor;
+    // Commands a patron login may not send
+    private static final Set<String> STAFF_ONLY = Set.of("ADD_BOOK", "REMOVE_BOOK", "ADD_USER", "USERS", "OVERDUE",
+            "RETURN_BATCH", "SET_CREDENTIALS", "METRICS", "ANALYTICS", "ADD_BOOKS");
+    private volatile boolean closed;
+
+    LibraryServer(LibraryManagementSystem lms, int port) throws IOException {
+        this(lms, port, new Settings());
+    }
+
+    LibraryServer(LibraryManagementSystem lms, int port, Settings settings) throws IOException {
+        this.lms = lms;
+        this.settings = settings;
+        this.hashing = new Semaphore(settings.hashPermits);
+        this.serverSocket = new ServerSocket(port, 1024);
+        this.acceptor = new Thread(this::acceptLoop, "library-server-accept");
+    }
+
+    public void start() { acceptor.start(); }
+    public int getPort() { return serverSocket.getLocalPort(); }
+    public int getClientCount() { return clients.get(); }
+
+    private void acceptLoop() {
+        while (!closed) {
+            try {
+                Socket socket = serverSocket.accept();
+                connections.execute(() -> serve(socket));
+            } catch (IOException e) {
+                if (!closed) {
+                    e.printStackTrace();
+                }
+            }
+        }
+    }
+
+    private void serve(Socket socket) {
+        clients.incrementAndGet();
+        try (Socket s = socket;
+             BufferedReader in = new BufferedReader(new InputStreamReader(s.getInputStream(), StandardCharsets.UTF_8));
+             BufferedWriter out = new BufferedWriter(new OutputStreamWriter(s.getOutputStream(), StandardCharsets.UTF_8))) {
+            s.setTcpNoDelay(true);
+            Session session = new Session();
+            String line;
+            try {
+                while ((line = readLine(in)) != null) {
+                    for (String response : handle(line, session, in)) {
+                        out.write(response);
+                        out.newLine();
+                    }
+                    if (session.failedLogins >= settings.maxFailedLogins) {
+                        throw new ProtocolException("Too many failed logins");
+                    }
+                    if (!in.ready()) {
+                        out.flush();
+                    }
+                }
+            } catch (ProtocolException e) {
+                // the connection is dropped; tell the client why
+                out.write(LibraryJournal.join("0", "ERR", e.getMessage()));
+                out.newLine();
+            }
+        } catch (SocketException e) {
+            // client went away
+        } catch (IOException e) {
+            e.printStackTrace();
+        } finally {
+            clients.decrementAndGet();
+        }
+    }
+
+    // A request line without its line break, or null at the end of the stream
+    private String readLine(BufferedReader in) throws IOException {
+        StringBuilder line = new StringBuilder();
+        int c;
+        while ((c = in.read()) != '\n') {
+            if (c == -1) {
+                return line.length() == 0 ? null : line.toString();
+            }
+            if (line.length() == settings.maxLineChars) {
+                throw new ProtocolException("Request line longer than " + settings.maxLineChars + " characters");
+            }
+            line.append((char) c);
+        }
+        int end = line.length();
+        return end > 0 && line.charAt(end - 1) == '\r' ? line.substring(0, end - 1) : line.toString();
+    }
+
+    // One request to its response lines; in supplies the lines that follow ADD_BOOKS
+    List<String> handle(String line, Session session, BufferedReader in) throws IOException {
+        String[] f = LibraryJournal.split(line);
+        String id = f[0];
+        String command = f.length > 1 ? f[1] : "";
+        List<String> out = new ArrayList<>();
+        List<String[]> body = new ArrayList<>();
+        if (command.equals("ADD_BOOKS")) {
+            // the body is read before the request is handled, so one that cannot be read in
+            // full, or should not be, ends the connection instead of running out of step
+            if (!session.staff) {
+                throw new ProtocolException("ADD_BOOKS needs a staff login");
+            }
+            int n;
+            try {
+                n = Integer.parseInt(arg(f, 0));
+            } catch (NumberFormatException e) {
+                throw new ProtocolException("ADD_BOOKS without a book count");
+            }
+            if (n < 0 || n > MAX_BATCH) {
+                throw new ProtocolException("ADD_BOOKS of " + n + " books; at most " + MAX_BATCH);
+            }
+            for (int i = 0; i < n; i++) {
+                String record = readLine(in);
+                if (record == null) {
+                    throw new ProtocolException("ADD_BOOKS cut short");
+                }
+                body.add(LibraryJournal.split(record));
+            }
+        }
+        try {
+            if (session.userID == null && !command.equals("PING") && !command.equals("LOGIN") && !command.equals("REGISTER")) {
+                throw new SecurityException("Log in first");
+            }
+            if (!session.staff && STAFF_ONLY.contains(command)) {
+                throw new SecurityException(command + " needs a staff login");
+            }
+            switch (command) {
+                case "PING":
+                    out.add(LibraryJournal.join(id, "OK", "PONG"));
+                    break;
+                case "ADD_BOOK": {
+                    Book b = bookFromRequest(f, 2);
+                    lms.addBook(b);
+                    out.add(LibraryJournal.join(id, "OK", String.valueOf(b.getId())));
+                    break;
+                }
+                case "ADD_BOOKS": {
+                    // n, then one book per line in the ADD_BOOK format; all are added or none
+                    List<Book> batch = new ArrayList<>(body.size());
+                    for (String[] record : body) {
+                        batch.add(bookFromRequest(record, 0));
+                    }
+                    lms.addBooks(batch);
+                    String[] ids = new String[batch.size() + 2];
+                    ids[0] = id;
+                    ids[1] = "OK";
+                    for (int i = 0; i < batch.size(); i++) {
+                        ids[i + 2] = String.valueOf(batch.get(i).getId());
+                    }
+                    out.add(LibraryJournal.join(ids));
+                    break;
+                }
+                case "REMOVE_BOOK": {
+                    Book b = lms.findBookById(Integer.parseInt(arg(f, 0)));
+                    if (b != null) {
+                        lms.removeBook(b);
+                    }
+                    out.add(LibraryJournal.join(id, "OK", String.valueOf(b != null)));
+                    break;
+                }
+                case "ADD_USER":
+                    out.add(LibraryJournal.join(id, "OK", String.valueOf(lms.addUser(new User(arg(f, 0), arg(f, 1))))));
+                    break;
+                case "USER": {
+                    requireSelf(session, arg(f, 0));
+                    User user = lms.findUserById(arg(f, 0));
+                    out.add(user == null ? LibraryJournal.join(id, "OK") : LibraryJournal.join(id, "OK", user.getName(), user.getUserID()));
+                    break;
+                }
+                case "GET_BOOK":
+                    books(id, single(lms.findBookById(Integer.parseInt(arg(f, 0)))), out);
+                    break;
+                case "FIND_COPY": {
+                    // optional user: a copy held for them counts too
+                    if (!arg(f, 1).isEmpty()) {
+                        requireSelf(session, arg(f, 1));
+                    }
+                    User user = arg(f, 1).isEmpty() ? null : lms.findUserById(arg(f, 1));
+                    books(id, single(user != null ? lms.findCopyFor(user, arg(f, 0)) : lms.findAvailableCopy(arg(f, 0))), out);
+                    break;
+                }
+                case "HAS_TITLE":
+                    out.add(LibraryJournal.join(id, "OK", String.valueOf(lms.hasTitle(arg(f, 0)))));
+                    break;
+                case "PLACE_HOLD": {
+                    requireSelf(session, arg(f, 0));
+                    User user = lms.findUserById(arg(f, 0));
+                    Hold hold = user == null ? null : lms.placeHold(user, arg(f, 1));
+                    holds(id, single(hold), out);
+                    break;
+                }
+                case "CANCEL_HOLD": {
+                    Hold hold = lms.getHolds().get(Long.parseLong(arg(f, 0)));
+                    if (hold != null) {
+                        requireSelf(session, hold.getUser().getUserID());
+                    }
+                    out.add(LibraryJournal.join(id, "OK", String.valueOf(hold != null && lms.cancelHold(hold.getHoldId()))));
+                    break;
+                }
+                case "HOLDS": {
+                    requireSelf(session, arg(f, 0));
+                    User user = lms.findUserById(arg(f, 0));
+                    holds(id, user == null ? new ArrayList<>() : lms.getHoldsFor(user), out);
+                    break;
+                }
+                case "SEARCH": {
+                    // title|author|category|date|available|limit|afterId
+                    String available = arg(f, 4);
+                    Boolean isAvailable = available.isEmpty() ? null : Boolean.valueOf(available);
+                    books(id, lms.searchBooksAfter(arg(f, 0), arg(f, 1), arg(f, 2), arg(f, 3), isAvailable,
+                            afterId(f, 6), pageRows(f, 5)), out);
+                    break;
+                }
+                case "AVAILABLE":
+                    // limit|afterId
+                    books(id, lms.searchBooksAfter("", "", "", "", true, afterId(f, 1), pageRows(f, 0)), out);
+                    break;
+                case "BOOKS":
+                    books(id, lms.searchBooksAfter("", "", "", "", null, afterId(f, 1), pageRows(f, 0)), out);
+                    break;
+                case "USERS": {
+                    List<User> users = lms.getUsers();
+                    out.add(LibraryJournal.join(id, "OK", String.valueOf(users.size())));
+                    for (User user : users) {
+                        out.add(LibraryJournal.userRecord(user));
+                    }
+                    break;
+                }
+                case "CATEGORIES": {
+                    Map<String, Integer> sizes = lms.getCategorySizes();
+                    out.add(LibraryJournal.join(id, "OK", String.valueOf(sizes.size())));
+                    for (Map.Entry<String, Integer> e : sizes.entrySet()) {
+                        out.add(LibraryJournal.join(e.getKey(), String.valueOf(e.getValue())));
+                    }
+                    break;
+                }
+                case "RANKED": {
+                    List<RankedIndex.Hit> hits = lms.searchRanked(arg(f, 0), Integer.parseInt(arg(f, 1)), Boolean.parseBoolean(arg(f, 2)));
+                    out.add(LibraryJournal.join(id, "OK", String.valueOf(hits.size())));
+                    for (RankedIndex.Hit hit : hits) {
+                        out.add(LibraryJournal.bookRecord(hit.getBook()) + "|" + hit.getScore());
+                    }
+                    break;
+                }
+                case "DUPLICATES": {
+                    List<Book> books = new ArrayList<>();
+                    for (List<Book> group : lms.findDuplicateBooks()) {
+                        books.addAll(group);
+                    }
+                    books(id, books, out);
+                    break;
+                }
+                case "BORROW": {
+                    requireSelf(session, arg(f, 0));
+                    User user = lms.findUserById(arg(f, 0));
+                    Book book = lms.findBookById(Integer.parseInt(arg(f, 1)));
+                    Loan loan = user == null || book == null ? null : lms.checkOut(user, book);
+                    loans(id, loan == null ? new ArrayList<>() : single(loan), out);
+                    break;
+                }
+                case "RETURN": {
+                    Loan open = lms.getLoanLedger().get(Long.parseLong(arg(f, 0)));
+                    if (open != null) {
+                        requireSelf(session, open.getUser().getUserID());
+                    }
+                    Loan loan = open == null ? null : lms.returnLoan(open.getLoanId());
+                    loans(id, loan == null ? new ArrayList<>() : single(loan), out);
+                    break;
+                }
+                case "RETURN_OLDEST": {
+                    // the user's oldest loan, as LibraryManagementSystem.returnBook picks it
+                    requireSelf(session, arg(f, 0));
+                    User user = lms.findUserById(arg(f, 0));
+                    Loan oldest = user == null ? null : lms.getLoanLedger().oldestLoanFor(user);
+                    Loan loan = oldest == null ? null : lms.returnLoan(oldest.getLoanId());
+                    loans(id, loan == null ? new ArrayList<>() : single(loan), out);
+                    break;
+                }
+                case "OVERDUE":
+                    loans(id, lms.getOverdueLoans(), out);
+                    break;
+                case "LOGIN": {
+                    // a new login replaces the old one, even if it fails
+                    session.userID = null;
+                    session.staff = false;
+                    boolean ok = withPassword(arg(f, 1), password -> {
+                        if (!lms.authenticate(arg(f, 0), password)) {
+                            return false;
+                        }
+                        session.staff = lms.isStaff(arg(f, 0));
+                        session.userID = arg(f, 0);
+                        return true;
+                    });
+                    if (!ok) {
+                        session.failedLogins++;
+                    }
+                    out.add(LibraryJournal.join(id, "OK", String.valueOf(ok)));
+                    break;
+                }
+                case "REGISTER": {
+                    boolean ok = withPassword(arg(f, 1), password -> lms.registerCredentials(arg(f, 0), password));
+                    if (!ok) {
+                        session.failedLogins++;
+                    }
+                    out.add(LibraryJournal.join(id, "OK", String.valueOf(ok)));
+                    break;
+                }
+                case "SET_CREDENTIALS": {
+                    boolean ok = withPassword(arg(f, 1), password -> lms.setCredentials(arg(f, 0), password, Boolean.parseBoolean(arg(f, 2))));
+                    out.add(LibraryJournal.join(id, "OK", String.valueOf(ok)));
+                    break;
+                }
+                case "FINES": {
+                    requireSelf(session, arg(f, 0));
+                    User user = lms.findUserById(arg(f, 0));
+                    out.add(LibraryJournal.join(id, "OK", String.valueOf(user == null ? 0 : lms.getOutstandingFine(user))));
+                    break;
+                }
+                case "METRICS": {
+                    String[] lines = lms.metricsSnapshot().split("\n");
+                    out.add(LibraryJournal.join(id, "OK", String.valueOf(lines.length)));
+                    for (String metric : lines) {
+                        out.add(LibraryJournal.join(metric));
+                    }
+                    break;
+                }
+                case "ANALYTICS": {
+                    String[] lines = lms.analyticsReport().split("\n");
+                    out.add(LibraryJournal.join(id, "OK", String.valueOf(lines.length)));
+                    for (String reportLine : lines) {
+                        out.add(LibraryJournal.join(reportLine));
+                    }
+                    break;
+                }
+                case "BORROW_BATCH": {
+                    // userID|bookId|bookId...
+                    requireSelf(session, arg(f, 0));
+                    List<Circulation.Request> requests = new ArrayList<>();
+                    for (int i = 1; i + 2 < f.length; i++) {
+                        requests.add(new Circulation.Request(arg(f, 0), Integer.parseInt(arg(f, i))));
+                    }
+                    results(id, lms.checkOutAll(requests), out);
+                    break;
+                }
+                case "RETURN_BATCH": {
+                    List<Integer> bookIds = new ArrayList<>();
+                    for (int i = 0; i + 2 < f.length; i++) {
+                        bookIds.add(Integer.parseInt(arg(f, i)));
+                    }
+                    results(id, lms.returnAll(bookIds), out);
+                    break;
+                }
+                case "LOANS": {
+                    requireSelf(session, arg(f, 0));
+                    User user = lms.findUserById(arg(f, 0));
+                    loans(id, user == null ? new ArrayList<>() : lms.getLoansFor(user), out);
+                    break;
+                }
+                default:
+                    out.add(LibraryJournal.join(id, "ERR", "Unknown command " + (f.length > 1 ? f[1] : "")));
+            }
+        } catch (RuntimeException e) {
+            out.clear();
+            out.add(LibraryJournal.join(id, "ERR", String.valueOf(e)));
+        }
+        return out;
+    }
+
+    // A patron login may only act for itself
+    private static void requireSelf(Session session, String userID) {
+        if (!session.staff && !session.userID.equals(userID)) {
+            throw new SecurityException("Not allowed for user " + userID);
+        }
+    }
+
+    private interface PasswordCheck {
+        boolean apply(char[] password) throws IOException;
+    }
+
+    // Run a hashing call under one of the hash permits, wiping the password afterwards
+    private boolean withPassword(String text, PasswordCheck check) {
+        char[] password = text.toCharArray();
+        try {
+            hashing.acquire();
+            try {
+                return check.apply(password);
+            } finally {
+                hashing.release();
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while waiting to hash", e);
+        } finally {
+            Arrays.fill(password, '\0');
+        }
+    }
+
+    // kind|title|author|date|category|available|extra from f[from], as in a journal B record without the id
+    private static Book bookFromRequest(String[] f, int from) {
+        String[] book = new String[9];
+        book[0] = "B";
+        book[1] = "0";
+        System.arraycopy(f, from, book, 2, Math.max(0, Math.min(7, f.length - from)));
+        for (int i = 2; i < book.length; i++) {
+            book[i] = book[i] == null ? "" : book[i];
+        }
+        return LibraryJournal.bookFromFields(book, 1);
+    }
+
+    // The page size asked for, capped; the cap when none was given
+    private int pageRows(String[] f, int i) {
+        String limit = arg(f, i);
+        return limit.isEmpty() ? settings.maxPageRows : Math.min(Integer.parseInt(limit), settings.maxPageRows);
+    }
+
+    private static int afterId(String[] f, int i) {
+        String after = arg(f, i);
+        return after.isEmpty() ? 0 : Math.max(0, Integer.parseInt(after));
+    }
+
+    private static String arg(String[] f, int i) {
+        return i + 2 < f.length ? f[i + 2] : "";
+    }
+
+    private static <T> List<T> single(T value) {
+        List<T> list = new ArrayList<>();
+        if (value != null) {
+            list.add(value);
+        }
+        return list;
+    }
+
+    private static void books(String id, List<Book> books, List<String> out) {
+        out.add(LibraryJournal.join(id, "OK", String.valueOf(books.size())));
+        for (Book book : books) {
+            out.add(LibraryJournal.bookRecord(book));
+        }
+    }
+
+    // Each loan is sent as its L record followed by the B record of its book
+    private static void loans(String id, List<Loan> loans, List<String> out) {
+        out.add(LibraryJournal.join(id, "OK", String.valueOf(loans.size() * 2)));
+        for (Loan loan : loans) {
+            out.add(LibraryJournal.loanRecord(loan));
+            out.add(LibraryJournal.bookRecord(loan.getBook()));
+        }
+    }
+
+    // Per-item batch results: status|fineCents|hasLoan, followed by the loan's L and B records when it has one
+    private static void results(String id, List<Circulation.Result> results, List<String> out) {
+        List<String> lines = new ArrayList<>();
+        for (Circulation.Result r : results) {
+            Loan loan = r.getLoan();
+            lines.add(LibraryJournal.join(r.getStatus().name(), String.valueOf(r.getFineCents()), String.valueOf(loan != null)));
+            if (loan != null) {
+                lines.add(LibraryJournal.loanRecord(loan));
+                lines.add(LibraryJournal.bookRecord(loan.getBook()));
+            }
+        }
+        out.add(LibraryJournal.join(id, "OK", String.valueOf(lines.size())));
+        out.addAll(lines);
+    }
+
+    // Hold records (journal H records) with the hold's state and queue position appended
+    private void holds(String id, List<Hold> holds, List<String> out) {
+        out.add(LibraryJournal.join(id, "OK", String.valueOf(holds.size())));
+        for (Hold hold : holds) {
+            out.add(HoldQueues.holdRecord(hold) + "|" + hold.getState() + "|" + lms.getHoldPosition(hold));
+        }
+    }
+
+    // Virtual threads when the JDK has them, otherwise a cached pool of daemon threads
+    static ExecutorService newConnectionExecutor() {
+        try {
+            Method virtual = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            return (ExecutorService) virtual.invoke(null);
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            AtomicInteger n = new AtomicInteger();
+            return Executors.newCachedThreadPool(r -> {
+                Thread t = new Thread(r, "library-client-" + n.incrementAndGet());
+                t.setDaemon(true);
+                return t;
+            });
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        closed = true;
+        serverSocket.close();
+        connections.shutdownNow();
+        try {
+            connections.awaitTermination(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    // java LibraryServer [--port 7070] [--data-dir .]
+    public static void main(String[] args) throws Exception {
+        int port = DEFAULT_PORT;
+        Path dataDir = Paths.get(".");
+        for (int i = 0; i + 1 < args.length; i += 2) {
+            switch (args[i]) {
+                case "--port": port = Integer.parseInt(args[i + 1]); break;
+                case "--data-dir": dataDir = Paths.get(args[i + 1]); break;
+                default: throw new IllegalArgumentException("Unknown option " + args[i]);
+            }
+        }
+        LibraryManagementSystem lms = new LibraryManagementSystem(dataDir);
+        lms.openJournal(dataDir);
+        lms.getMetrics().registerMBean("library:type=Metrics");
+        lms.startOverdueScheduler(new OverdueScheduler.Settings());
+        lms.startAnalytics(new CirculationAnalytics.Settings());
+        LibraryServer server = new LibraryServer(lms, port);
+        server.start();
+        System.out.println("Library server listening on port " + server.getPort() + " (data in " + dataDir.toAbsolutePath() + ")");
+        server.acceptor.join();
+    }
+}
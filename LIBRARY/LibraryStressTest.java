@@ -0,0 +1,186 @@
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+
+// Stress test for concurrent circulation desks: many threads call checkOut and returnLoan on
+// the same few copies. Every loan a thread gets must be the only open loan on its copy (no
+// double loan), and every returnLoan of a loan it holds must succeed (no lost return).
+// Between rounds the desks stop and the ledger, the copies' availability and the published
+// catalog snapshot are checked against each other. Exits with status 1 on any violation.
+//
+//   javac -d out *.java && java -cp out LibraryStressTest
+//   --threads 16 --books 32 --users 64 --rounds 10 --millis 500
+public class LibraryStressTest {
+    private final LibraryManagementSystem lms;
+    private final List<Book> books;
+    private final List<User> users;
+    // The loan each copy is out on, as far as the desks know; null while on the shelf
+    private final AtomicReferenceArray<Loan> holder;
+    private final LongAdder checkOuts = new LongAdder();
+    private final LongAdder returns = new LongAdder();
+    private final LongAdder refused = new LongAdder();
+    private final List<String> failures = new ArrayList<>();
+
+    LibraryStressTest(LibraryManagementSystem lms) {
+        this.lms = lms;
+        this.books = lms.getBooksSnapshot();
+        this.users = lms.getUsersSnapshot();
+        this.holder = new AtomicReferenceArray<>(books.size());
+    }
+
+    public static void main(String[] args) throws Exception {
+        int threads = 16;
+        int bookCount = 32;
+        int userCount = 64;
+        int rounds = 10;
+        long millis = 500;
+        for (int i = 0; i + 1 < args.length; i += 2) {
+            switch (args[i]) {
+                case "--threads": threads = Integer.parseInt(args[i + 1]); break;
+                case "--books": bookCount = Integer.parseInt(args[i + 1]); break;
+                case "--users": userCount = Integer.parseInt(args[i + 1]); break;
+                case "--rounds": rounds = Integer.parseInt(args[i + 1]); break;
+                case "--millis": millis = Long.parseLong(args[i + 1]); break;
+                default: throw new IllegalArgumentException("Unknown option " + args[i]);
+            }
+        }
+
+        Path dir = Files.createTempDirectory("library-stress");
+        LibraryManagementSystem lms = new LibraryManagementSystem(dir);
+        ArrayList<Book> batch = new ArrayList<>();
+        for (int i = 0; i < bookCount; i++) {
+            batch.add(new Book("Copy " + (i % 4), "Author " + i, "Fiction"));  // a few titles, several copies each
+        }
+        lms.addBooks(batch);
+        for (int i = 0; i < userCount; i++) {
+            lms.addUser(new User("Patron " + i, "U" + i));
+        }
+
+        LibraryStressTest test = new LibraryStressTest(lms);
+        for (int round = 1; round <= rounds; round++) {
+            test.round(threads, millis);
+            test.verify(round);
+            System.out.printf("round %d: %d checkouts, %d returns, %d refused, %d open loans%n", round,
+                    test.checkOuts.sum(), test.returns.sum(), test.refused.sum(), lms.getLoanLedger().size());
+            if (!test.failures.isEmpty()) {
+                break;
+            }
+        }
+        if (!test.failures.isEmpty()) {
+            System.out.println("FAILED");
+            for (String failure : test.failures.subList(0, Math.min(20, test.failures.size()))) {
+                System.out.println("  " + failure);
+            }
+            System.exit(1);
+        }
+        System.out.println("OK");
+    }
+
+    // Run every desk for millis: each picks a random copy and borrows it, or returns it if
+    // it is out; a few returns are repeated to check that a closed loan cannot be closed twice
+    void round(int threads, long millis) throws Exception {
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        try {
+            AtomicBoolean stop = new AtomicBoolean();
+            CountDownLatch start = new CountDownLatch(1);
+            List<Future<?>> futures = new ArrayList<>();
+            for (int t = 0; t < threads; t++) {
+                futures.add(pool.submit(() -> {
+                    ThreadLocalRandom random = ThreadLocalRandom.current();
+                    start.await();
+                    while (!stop.get()) {
+                        int i = random.nextInt(books.size());
+                        Loan current = holder.get(i);
+                        if (current == null) {
+                            borrow(i, users.get(random.nextInt(users.size())));
+                        } else if (holder.compareAndSet(i, current, null)) {
+                            giveBack(current, random.nextInt(16) == 0);
+                        }
+                    }
+                    return null;
+                }));
+            }
+            start.countDown();
+            Thread.sleep(millis);
+            stop.set(true);
+            for (Future<?> f : futures) {
+                f.get();
+            }
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    private void borrow(int i, User user) {
+        Book book = books.get(i);
+        Loan loan = lms.checkOut(user, book);
+        if (loan == null) {
+            refused.increment();
+            return;
+        }
+        checkOuts.increment();
+        if (loan.getBook() != book) {
+            fail("loan " + loan.getLoanId() + " is for " + loan.getBook() + ", not " + book);
+        }
+        // Only the desk that won the copy's CAS may get here; anyone else is a double loan
+        Loan other = holder.getAndSet(i, loan);
+        if (other != null) {
+            fail("double loan of book " + book.getId() + ": loans " + other.getLoanId() + " and " + loan.getLoanId());
+        }
+    }
+
+    // The caller has taken the loan out of holder, so no other desk returns it meanwhile
+    private void giveBack(Loan loan, boolean twice) {
+        if (lms.returnLoan(loan.getLoanId()) != loan) {
+            fail("lost return of loan " + loan.getLoanId() + " on book " + loan.getBook().getId());
+            return;
+        }
+        returns.increment();
+        if (twice && lms.returnLoan(loan.getLoanId()) != null) {
+            fail("loan " + loan.getLoanId() + " was returned twice");
+        }
+    }
+
+    // With the desks stopped, the ledger, each copy's flag and the snapshot must agree
+    void verify(int round) {
+        LoanLedger ledger = lms.getLoanLedger();
+        CatalogSnapshot snapshot = lms.getCatalogSnapshot();
+        int out = 0;
+        for (int i = 0; i < books.size(); i++) {
+            Book book = books.get(i);
+            Loan loan = ledger.loanFor(book);
+            Loan held = holder.get(i);
+            if (loan != held) {
+                fail("round " + round + ": book " + book.getId() + " has ledger loan "
+                        + (loan == null ? "none" : loan.getLoanId()) + " but desk loan " + (held == null ? "none" : held.getLoanId()));
+            }
+            if (book.isAvailable() == (loan != null)) {
+                fail("round " + round + ": book " + book.getId() + " is " + (book.isAvailable() ? "available" : "unavailable")
+                        + " with " + (loan == null ? "no open loan" : "open loan " + loan.getLoanId()));
+            }
+            if (snapshot.isAvailable(book) != book.isAvailable()) {
+                fail("round " + round + ": snapshot " + snapshot.getVersion() + " disagrees on book " + book.getId());
+            }
+            out += held != null ? 1 : 0;
+        }
+        if (ledger.size() != out) {
+            fail("round " + round + ": ledger has " + ledger.size() + " open loans, desks hold " + out);
+        }
+        if (checkOuts.sum() - returns.sum() != out) {
+            fail("round " + round + ": " + checkOuts.sum() + " checkouts and " + returns.sum() + " returns leave " + out + " out");
+        }
+    }
+
+    private synchronized void fail(String message) {
+        failures.add(message);
+    }
+}
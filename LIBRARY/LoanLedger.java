@@ -0,0 +1,299 @@
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+// One checkout of one copy
+class Loan {
+    private static final DateTimeFormatter FORMAT = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm");
+
+    private final long loanId;
+    private final User user;
+    private final Book book;
+    private final LocalDateTime borrowedAt;
+    private final LocalDateTime dueDate;
+
+    public Loan(long loanId, User user, Book book, LocalDateTime borrowedAt, LocalDateTime dueDate) {
+        this.loanId = loanId;
+        this.user = user;
+        this.book = book;
+        this.borrowedAt = borrowedAt;
+        this.dueDate = dueDate;
+    }
+
+    public long getLoanId() { return loanId; }
+    public User getUser() { return user; }
+    public Book getBook() { return book; }
+    public LocalDateTime getBorrowedAt() { return borrowedAt; }
+    public LocalDateTime getDueDate() { return dueDate; }
+    public boolean isOverdue(LocalDateTime now) { return dueDate.isBefore(now); }
+
+    @Override
+    public String toString() {
+        return "Loan #" + loanId + ": " + book.getTitle() + " (due " + FORMAT.format(dueDate) + ")";
+    }
+}
+
+// Told about every loan opened or closed, under the ledger lock (so keep it quick)
+interface LoanListener {
+    void loanOpened(Loan loan);
+    void loanClosed(Loan loan);
+}
+
+// Open loans, indexed by loan ID, by user, by book and by due date.
+// Also holds each user's fine balance (in cents) from overdue returns.
+class LoanLedger {
+    private static final Comparator<Loan> BY_DUE_DATE =
+            Comparator.comparing(Loan::getDueDate).thenComparingLong(Loan::getLoanId);
+
+    // Open loans per due day in a Fenwick tree, so counting the loans due before a day is
+    // O(log days) however many there are
+    private static class DueDays {
+        long firstDay;              // epoch day of slot 1
+        int[] tree = new int[0];    // 1-based
+
+        boolean covers(long day) {
+            return day >= firstDay && day - firstDay + 1 < tree.length;
+        }
+
+        void update(long day, int delta) {
+            for (int i = (int) (day - firstDay) + 1; i < tree.length; i += i & -i) {
+                tree[i] += delta;
+            }
+        }
+
+        // Loans due on days before this one
+        int countBefore(long day) {
+            int sum = 0;
+            for (int i = (int) Math.min(day - firstDay, tree.length - 1); i > 0; i -= i & -i) {
+                sum += tree[i];
+            }
+            return sum;
+        }
+
+        // Span the days of these loans plus the same again ahead, and count them afresh
+        void rebuild(TreeSet<Loan> loans) {
+            firstDay = day(loans.first());
+            long span = day(loans.last()) - firstDay + 1;
+            tree = new int[(int) Math.max(17, 2 * span + 2)];
+            for (Loan loan : loans) {
+                update(day(loan), 1);
+            }
+        }
+
+        static long day(Loan loan) {
+            return loan.getDueDate().toLocalDate().toEpochDay();
+        }
+    }
+
+    private final HashMap<Long, Loan> byId = new HashMap<>();
+    private final HashMap<String, TreeMap<Long, Loan>> byUser = new HashMap<>();
+    private final HashMap<Integer, Loan> byBook = new HashMap<>();
+    private final TreeSet<Loan> byDueDate = new TreeSet<>(BY_DUE_DATE);
+    private final DueDays dueDays = new DueDays();
+    private final HashMap<String, Long> fines = new HashMap<>();
+    private long nextLoanId = 1;
+    private LibraryJournal journal;  // loans are journaled under the ledger lock so open/close stay ordered
+    private LoanListener listener;
+
+    public synchronized Loan open(User user, Book book, LocalDateTime borrowedAt, LocalDateTime dueDate) {
+        Loan loan = new Loan(nextLoanId++, user, book, borrowedAt, dueDate);
+        add(loan);
+        if (journal != null) {
+            journal.append(LibraryJournal.loanRecord(loan));
+        }
+        if (listener != null) {
+            listener.loanOpened(loan);
+        }
+        return loan;
+    }
+
+    // Open one loan per (users[i], books[i]) under a single acquisition of the ledger lock,
+    // journaled as one batch
+    public synchronized ArrayList<Loan> openAll(List<User> users, List<Book> books, LocalDateTime borrowedAt, LocalDateTime dueDate) {
+        ArrayList<Loan> opened = new ArrayList<>(books.size());
+        ArrayList<String> records = new ArrayList<>(books.size());
+        for (int i = 0; i < books.size(); i++) {
+            Loan loan = new Loan(nextLoanId++, users.get(i), books.get(i), borrowedAt, dueDate);
+            add(loan);
+            opened.add(loan);
+            records.add(LibraryJournal.loanRecord(loan));
+            if (listener != null) {
+                listener.loanOpened(loan);
+            }
+        }
+        if (journal != null) {
+            journal.appendAll(records);
+        }
+        return opened;
+    }
+
+    // Re-open a loan read back from the journal or a snapshot
+    public synchronized Loan restore(long loanId, User user, Book book, LocalDateTime borrowedAt, LocalDateTime dueDate) {
+        Loan loan = byId.get(loanId);
+        if (loan == null) {
+            loan = new Loan(loanId, user, book, borrowedAt, dueDate);
+            add(loan);
+            advanceLoanId(loanId + 1);
+        }
+        return loan;
+    }
+
+    // Returns the closed loan, or null if it was not open
+    public synchronized Loan close(long loanId) {
+        Loan loan = remove(loanId);
+        if (loan != null && journal != null) {
+            journal.append(LibraryJournal.join("X", String.valueOf(loanId)));
+        }
+        if (loan != null && listener != null) {
+            listener.loanClosed(loan);
+        }
+        return loan;
+    }
+
+    // Close whatever loan each book is out on, under one acquisition of the ledger lock and
+    // journaled as one batch. An entry is null where the book was not on loan.
+    public synchronized ArrayList<Loan> closeForBooks(List<Book> books) {
+        ArrayList<Loan> closed = new ArrayList<>(books.size());
+        ArrayList<String> records = new ArrayList<>(books.size());
+        for (Book book : books) {
+            Loan loan = byBook.get(book.getId());
+            if (loan != null && loan.getBook() == book) {
+                remove(loan.getLoanId());
+                records.add(LibraryJournal.join("X", String.valueOf(loan.getLoanId())));
+                if (listener != null) {
+                    listener.loanClosed(loan);
+                }
+            } else {
+                loan = null;
+            }
+            closed.add(loan);
+        }
+        if (journal != null) {
+            journal.appendAll(records);
+        }
+        return closed;
+    }
+
+    private Loan remove(long loanId) {
+        Loan loan = byId.remove(loanId);
+        if (loan == null) {
+            return null;
+        }
+        TreeMap<Long, Loan> userLoans = byUser.get(loan.getUser().getUserID());
+        userLoans.remove(loanId);
+        if (userLoans.isEmpty()) {
+            byUser.remove(loan.getUser().getUserID());
+        }
+        byBook.remove(loan.getBook().getId());
+        byDueDate.remove(loan);
+        dueDays.update(DueDays.day(loan), -1);
+        return loan;
+    }
+
+    public synchronized Loan get(long loanId) { return byId.get(loanId); }
+
+    // Who has this copy
+    public synchronized Loan loanFor(Book book) { return byBook.get(book.getId()); }
+
+    // What a user has out, oldest first
+    public synchronized ArrayList<Loan> loansFor(User user) {
+        TreeMap<Long, Loan> userLoans = byUser.get(user.getUserID());
+        return userLoans == null ? new ArrayList<>() : new ArrayList<>(userLoans.values());
+    }
+
+    public synchronized Loan oldestLoanFor(User user) {
+        TreeMap<Long, Loan> userLoans = byUser.get(user.getUserID());
+        return userLoans == null ? null : userLoans.firstEntry().getValue();
+    }
+
+    // Loans due before the given time, earliest first
+    public synchronized ArrayList<Loan> overdue(LocalDateTime now) {
+        ArrayList<Loan> result = new ArrayList<>();
+        for (Loan loan : byDueDate) {
+            if (!loan.isOverdue(now)) {
+                break;
+            }
+            result.add(loan);
+        }
+        return result;
+    }
+
+    // Loans with a due date in (from, to], earliest first. O(log n) to find the range.
+    public synchronized ArrayList<Loan> dueBetween(LocalDateTime from, LocalDateTime to) {
+        if (!from.isBefore(to)) {
+            return new ArrayList<>();
+        }
+        return new ArrayList<>(byDueDate.subSet(probe(from), false, probe(to), true));
+    }
+
+    // How many loans are due at or before the given time, without copying them: whole days
+    // from the Fenwick tree, then only the loans due earlier on the same day are walked
+    public synchronized int countDueBy(LocalDateTime to) {
+        LocalDateTime midnight = to.toLocalDate().atStartOfDay();
+        return dueDays.countBefore(to.toLocalDate().toEpochDay())
+                + byDueDate.subSet(probe(midnight.minusNanos(1)), false, probe(to), true).size();
+    }
+
+    // Sorts after every loan due at the same time
+    private static Loan probe(LocalDateTime due) {
+        return new Loan(Long.MAX_VALUE, null, null, null, due);
+    }
+
+    public synchronized int size() { return byId.size(); }
+
+    // Fine balances, in cents
+    public synchronized long getFine(String userID) { return fines.getOrDefault(userID, 0L); }
+
+    public synchronized long addFine(String userID, long cents) {
+        return setFine(userID, getFine(userID) + cents);
+    }
+
+    // Journaled as the new balance, so replaying the record twice is harmless
+    public synchronized long setFine(String userID, long cents) {
+        if (cents == 0) {
+            fines.remove(userID);
+        } else {
+            fines.put(userID, cents);
+        }
+        if (journal != null) {
+            journal.append(LibraryJournal.join("P", userID, String.valueOf(cents)));
+        }
+        return cents;
+    }
+
+    public synchronized HashMap<String, Long> allFines() { return new HashMap<>(fines); }
+
+    synchronized void setJournal(LibraryJournal journal) { this.journal = journal; }
+
+    // Attach (or with null, detach) the listener. It is first told about every loan open at
+    // that moment, under the same lock, so a concurrent checkout is neither missed nor counted twice.
+    synchronized void setListener(LoanListener listener) {
+        this.listener = listener;
+        if (listener != null) {
+            for (Loan loan : byId.values()) {
+                listener.loanOpened(loan);
+            }
+        }
+    }
+    synchronized long peekNextLoanId() { return nextLoanId; }
+    synchronized void advanceLoanId(long next) { nextLoanId = Math.max(nextLoanId, next); }
+
+    public synchronized ArrayList<Loan> all() { return new ArrayList<>(byId.values()); }
+
+    private void add(Loan loan) {
+        byId.put(loan.getLoanId(), loan);
+        byUser.computeIfAbsent(loan.getUser().getUserID(), u -> new TreeMap<>()).put(loan.getLoanId(), loan);
+        byBook.put(loan.getBook().getId(), loan);
+        byDueDate.add(loan);
+        if (dueDays.covers(DueDays.day(loan))) {
+            dueDays.update(DueDays.day(loan), 1);
+        } else {
+            dueDays.rebuild(byDueDate);
+        }
+    }
+}
@@ -2,14 +2,18 @@ import javax.swing.*;
 import java.awt.*;
 import java.awt.event.ActionEvent;
 import java.awt.event.ActionListener;
+import java.io.IOException;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.concurrent.ExecutionException;
 
 public class LoginPage {
     private JFrame frame;
     private JTextField usernameField;
     private JPasswordField passwordField;
-    private LibraryManagementSystem lms;
+    private Library lms;
 
-    public LoginPage(LibraryManagementSystem lms) {
+    public LoginPage(Library lms) {
         this.lms = lms;
         frame = new JFrame("Login Page");
         frame.setSize(400, 250);
@@ -60,16 +64,51 @@ public class LoginPage {
         loginButton.addActionListener(new ActionListener() {
             @Override
             public void actionPerformed(ActionEvent e) {
-                String username = usernameField.getText();
-                String password = new String(passwordField.getPassword());
-
-                // For demonstration purposes, assume login is successful
-                JOptionPane.showMessageDialog(frame, "Login Successful!\nWelcome " + username);
-
-                frame.dispose(); // Close login window
+                String username = usernameField.getText().trim();
+                char[] password = passwordField.getPassword();
+                if (username.isEmpty() || password.length == 0) {
+                    JOptionPane.showMessageDialog(frame, "Please enter your username and password.");
+                    return;
+                }
 
-                // Show main library GUI after login
-                new LibraryGUI(lms);
+                // Password hashing is slow on purpose, so check it off the EDT
+                loginButton.setEnabled(false);
+                registerButton.setEnabled(false);
+                new SwingWorker<Boolean, Void>() {
+                    @Override
+                    protected Boolean doInBackground() throws IOException {
+                        try {
+                            return lms.authenticate(username, password);
+                        } finally {
+                            Arrays.fill(password, '\0');
+                        }
+                    }
+
+                    @Override
+                    protected void done() {
+                        loginButton.setEnabled(true);
+                        registerButton.setEnabled(true);
+                        boolean ok;
+                        try {
+                            ok = get();
+                        } catch (InterruptedException | ExecutionException ex) {
+                            ex.printStackTrace();
+                            JOptionPane.showMessageDialog(frame, "Login failed: " + ex.getCause());
+                            return;
+                        }
+                        if (!ok) {
+                            passwordField.setText("");
+                            JOptionPane.showMessageDialog(frame, "Invalid username or password.");
+                            return;
+                        }
+                        JOptionPane.showMessageDialog(frame, "Login Successful!\nWelcome " + username);
+
+                        frame.dispose(); // Close login window
+
+                        // Show main library GUI after login
+                        new LibraryGUI(lms);
+                    }
+                }.execute();
             }
         });
 
@@ -96,18 +135,24 @@ public class LoginPage {
 
     public static void main(String[] args) {
         LibraryManagementSystem lms = new LibraryManagementSystem();
+        try {
+            lms.openJournal(Paths.get("."));
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
         new LoginPage(lms);
     }
 }
 
 class RegistrationPage {
+    private static final int MIN_PASSWORD_LENGTH = 8;
     private JFrame frame;
     private JTextField usernameField;
     private JPasswordField passwordField;
     private JPasswordField confirmPasswordField;
-    private LibraryManagementSystem lms;
+    private Library lms;
 
-    public RegistrationPage(LibraryManagementSystem lms) {
+    public RegistrationPage(Library lms) {
         this.lms = lms;
         frame = new JFrame("Register");
         frame.setSize(400, 250);
@@ -167,17 +212,23 @@ class RegistrationPage {
         registerButton.addActionListener(new ActionListener() {
             @Override
             public void actionPerformed(ActionEvent e) {
-                String username = usernameField.getText();
-                String password = new String(passwordField.getPassword());
-                String confirmPassword = new String(confirmPasswordField.getPassword());
-
-                if (password.equals(confirmPassword)) {
-                    // For demonstration purposes, assume registration is successful
-                    JOptionPane.showMessageDialog(frame, "Registration Successful!\nYou can now log in.");
-                    frame.dispose(); // Close registration window
-                } else {
+                String username = usernameField.getText().trim();
+                char[] password = passwordField.getPassword();
+                char[] confirmPassword = confirmPasswordField.getPassword();
+
+                if (username.isEmpty()) {
+                    JOptionPane.showMessageDialog(frame, "Please enter a username.");
+                } else if (!Arrays.equals(password, confirmPassword)) {
                     JOptionPane.showMessageDialog(frame, "Passwords do not match. Please try again.");
+                } else if (password.length < MIN_PASSWORD_LENGTH) {
+                    JOptionPane.showMessageDialog(frame, "Passwords must be at least " + MIN_PASSWORD_LENGTH + " characters.");
+                } else {
+                    Arrays.fill(confirmPassword, '\0');
+                    register(registerButton, username, password);  // wipes password once it is hashed
+                    return;
                 }
+                Arrays.fill(password, '\0');
+                Arrays.fill(confirmPassword, '\0');
             }
         });
 
@@ -194,6 +245,37 @@ class RegistrationPage {
         // Set frame visibility
         frame.setVisible(true);
     }
-}
 
+    // Store the password hash off the EDT. Sign-up only creates the first staff login of a
+    // new installation; after that staff set logins from the desk (Users > Set Login).
+    private void register(JButton registerButton, String username, char[] password) {
+        registerButton.setEnabled(false);
+        new SwingWorker<Boolean, Void>() {
+            @Override
+            protected Boolean doInBackground() throws IOException {
+                try {
+                    return lms.registerCredentials(username, password);
+                } finally {
+                    Arrays.fill(password, '\0');
+                }
+            }
 
+            @Override
+            protected void done() {
+                registerButton.setEnabled(true);
+                try {
+                    if (!get()) {
+                        JOptionPane.showMessageDialog(frame, "Registration is closed. Ask library staff to set up your login.");
+                        return;
+                    }
+                } catch (InterruptedException | ExecutionException ex) {
+                    ex.printStackTrace();
+                    JOptionPane.showMessageDialog(frame, "Registration failed: " + ex.getCause());
+                    return;
+                }
+                JOptionPane.showMessageDialog(frame, "Staff login created!\nYou can now log in.");
+                frame.dispose(); // Close registration window
+            }
+        }.execute();
+    }
+}
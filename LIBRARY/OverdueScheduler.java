@@ -0,0 +1,229 @@
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+// Background overdue processing for the loan ledger.
+// Each run only looks at what changed since the last one: loans that fell due since the
+// previous run are found with a range query on the ledger's due-date index, and reminders
+// already scheduled come off a priority queue ordered by when they are due. So a run costs
+// O(log n) per loan it touches, not a scan of every open loan.
+// Fines accrue per started day late up to a cap. They are not stored while a loan is open
+// (they are computed from the due date when asked for) and are posted to the user's
+// balance in the ledger when the book comes back.
+// Notices are appended to the notice file in one batch per run:
+//   sentAt|level|loanId|userID|userName|bookID|title|dueDate|daysLate|fineCents
+// The file also tells a restarted scheduler which notices already went out.
+class OverdueScheduler implements AutoCloseable {
+    static final String NOTICE_FILE = "overdue-notices.txt";
+
+    // Tuning knobs
+    static class Settings {
+        long finePerDayCents = 25;         // charged for every started day late
+        long maxFineCents = 1000;          // cap per loan
+        int[] noticeDays = {1, 7, 14, 28}; // reminders this many days after the due date
+        long intervalSeconds = 3600;       // how often the scheduler runs
+    }
+
+    // A reminder for one loan, due at a given time
+    private static class Reminder implements Comparable<Reminder> {
+        final Loan loan;
+        final int level;  // index into noticeDays
+        final LocalDateTime at;
+
+        Reminder(Loan loan, int level, LocalDateTime at) {
+            this.loan = loan;
+            this.level = level;
+            this.at = at;
+        }
+
+        @Override
+        public int compareTo(Reminder o) {
+            int c = at.compareTo(o.at);
+            return c != 0 ? c : Long.compare(loan.getLoanId(), o.loan.getLoanId());
+        }
+    }
+
+    private final LibraryManagementSystem lms;
+    private final LoanLedger ledger;
+    private final Settings settings;
+    private final Path noticeFile;
+    private final Supplier<LocalDateTime> clock;
+    private final PriorityQueue<Reminder> reminders = new PriorityQueue<>();
+    private final HashMap<Long, Integer> noticesSent = new HashMap<>();  // loan ID -> highest level sent
+    private LocalDateTime scannedUpTo = LocalDateTime.MIN;  // loans due up to here are already queued
+    private ScheduledExecutorService executor;
+    private final LatencyHistogram runLatency;
+
+    OverdueScheduler(LibraryManagementSystem lms, Path noticeFile, Settings settings) throws IOException {
+        this(lms, noticeFile, settings, LocalDateTime::now);
+    }
+
+    OverdueScheduler(LibraryManagementSystem lms, Path noticeFile, Settings settings, Supplier<LocalDateTime> clock) throws IOException {
+        this.lms = lms;
+        this.ledger = lms.getLoanLedger();
+        this.settings = settings;
+        this.noticeFile = noticeFile;
+        this.clock = clock;
+        this.runLatency = lms.getMetrics().histogram("overdue.run");
+        lms.getMetrics().gauge("loans.overdue", this::getOverdueCount);
+        readSentNotices();
+        noticesSent.keySet().removeIf(loanId -> ledger.get(loanId) == null);
+    }
+
+    // Notices from earlier runs, so a restart does not send them again
+    private void readSentNotices() throws IOException {
+        if (!Files.exists(noticeFile)) {
+            return;
+        }
+        for (String line : Files.readAllLines(noticeFile, StandardCharsets.UTF_8)) {
+            try {
+                String[] f = LibraryJournal.split(line);
+                noticesSent.merge(Long.parseLong(f[2]), Integer.parseInt(f[1]), Math::max);
+            } catch (RuntimeException e) {
+                // torn or foreign line, skip it
+            }
+        }
+    }
+
+    public synchronized void start() {
+        if (executor != null) {
+            return;
+        }
+        executor = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "library-overdue-scheduler");
+            t.setDaemon(true);
+            return t;
+        });
+        executor.scheduleWithFixedDelay(() -> {
+            try {
+                runOnce();
+            } catch (IOException | RuntimeException e) {
+                e.printStackTrace();
+            }
+        }, 0, settings.intervalSeconds, TimeUnit.SECONDS);
+    }
+
+    // One pass: queue loans that fell due since the last pass, send the reminders that are
+    // due now, and append them to the notice file. Returns the number of notices written.
+    public int runOnce() throws IOException {
+        long start = System.nanoTime();
+        List<String> batch = new ArrayList<>();
+        LocalDateTime now = clock.get();
+        synchronized (this) {
+            for (Loan loan : ledger.dueBetween(scannedUpTo, now)) {
+                scheduleNext(loan, noticesSent.getOrDefault(loan.getLoanId(), -1) + 1);
+            }
+            if (now.isAfter(scannedUpTo)) {
+                scannedUpTo = now;
+            }
+            while (!reminders.isEmpty() && !reminders.peek().at.isAfter(now)) {
+                Reminder r = reminders.poll();
+                if (ledger.get(r.loan.getLoanId()) != r.loan) {
+                    noticesSent.remove(r.loan.getLoanId());  // returned in the meantime
+                    continue;
+                }
+                // Several levels may have passed while the scheduler was down; send only the latest
+                int level = r.level;
+                while (level + 1 < settings.noticeDays.length && !reminderTime(r.loan, level + 1).isAfter(now)) {
+                    level++;
+                }
+                batch.add(notice(r.loan, level, now));
+                noticesSent.put(r.loan.getLoanId(), level);
+                scheduleNext(r.loan, level + 1);
+            }
+        }
+        if (!batch.isEmpty()) {
+            writeNotices(batch);
+        }
+        lms.getMetrics().counter("overdue.notices").add(batch.size());
+        runLatency.recordSince(start);
+        return batch.size();
+    }
+
+    private void scheduleNext(Loan loan, int level) {
+        if (level < settings.noticeDays.length) {
+            reminders.add(new Reminder(loan, level, reminderTime(loan, level)));
+        }
+    }
+
+    private LocalDateTime reminderTime(Loan loan, int level) {
+        return loan.getDueDate().plusDays(settings.noticeDays[level]);
+    }
+
+    private String notice(Loan loan, int level, LocalDateTime now) {
+        return LibraryJournal.join(now.toString(), String.valueOf(level), String.valueOf(loan.getLoanId()),
+                loan.getUser().getUserID(), loan.getUser().getName(), String.valueOf(loan.getBook().getId()),
+                loan.getBook().getTitle(), loan.getDueDate().toString(), String.valueOf(daysLate(loan, now)),
+                String.valueOf(fineFor(loan, now)));
+    }
+
+    private void writeNotices(List<String> batch) throws IOException {
+        try (BufferedWriter out = Files.newBufferedWriter(noticeFile, StandardCharsets.UTF_8,
+                StandardOpenOption.CREATE, StandardOpenOption.APPEND)) {
+            for (String line : batch) {
+                out.write(line);
+                out.newLine();
+            }
+        }
+    }
+
+    // Started days past the due date
+    public long daysLate(Loan loan, LocalDateTime at) {
+        long minutes = Duration.between(loan.getDueDate(), at).toMinutes();
+        return minutes <= 0 ? 0 : (minutes + 24 * 60 - 1) / (24 * 60);
+    }
+
+    public long fineFor(Loan loan, LocalDateTime at) {
+        return Math.min(settings.maxFineCents, daysLate(loan, at) * settings.finePerDayCents);
+    }
+
+    // Called when a loan is closed: post its fine to the user's balance. Returns the fine.
+    public long loanReturned(Loan loan) {
+        long fine = fineFor(loan, clock.get());
+        if (fine > 0) {
+            ledger.addFine(loan.getUser().getUserID(), fine);
+        }
+        synchronized (this) {
+            noticesSent.remove(loan.getLoanId());
+        }
+        return fine;
+    }
+
+    // Posted fines plus what the user's open loans have accrued so far
+    public long getOutstandingFine(User user) {
+        LocalDateTime now = clock.get();
+        long total = ledger.getFine(user.getUserID());
+        for (Loan loan : ledger.loansFor(user)) {
+            total += fineFor(loan, now);
+        }
+        return total;
+    }
+
+    // Open loans past their due date (reminders queued or sent)
+    public int getOverdueCount() {
+        return ledger.countDueBy(clock.get());
+    }
+
+    public Path getNoticeFile() { return noticeFile; }
+
+    @Override
+    public synchronized void close() {
+        if (executor != null) {
+            executor.shutdownNow();
+            executor = null;
+        }
+    }
+}
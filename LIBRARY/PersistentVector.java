@@ -0,0 +1,230 @@
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.function.Consumer;
+
+// Immutable int-indexed vector with structural sharing: a 32-way trie, so an update copies
+// only the path to one leaf (about log32 n nodes) and every older version stays valid and
+// unchanged. Slots may be empty (null), so it can be indexed by a sparse-ish ID.
+// Each leaf also carries a 32-bit flag word, one flag per slot.
+// Changes go through an Editor, which copies each node it touches once and then edits its
+// copy in place, so a batch of n changes costs n slot writes plus the copied paths.
+final class PersistentVector<T> implements Iterable<T> {
+    private static final int BITS = 5;
+    private static final int WIDTH = 1 << BITS;
+    private static final int MASK = WIDTH - 1;
+
+    private static final PersistentVector<?> EMPTY = new PersistentVector<>(new Node(null), 0, 0, 0);
+
+    // owner is the Editor that created the node; only that editor may change it, and only until build()
+    private static final class Node {
+        final Object owner;
+        final Object[] slots;
+        int flags;
+
+        Node(Object owner) {
+            this.owner = owner;
+            this.slots = new Object[WIDTH];
+        }
+
+        Node(Object owner, Node copyOf) {
+            this.owner = owner;
+            this.slots = copyOf.slots.clone();
+            this.flags = copyOf.flags;
+        }
+    }
+
+    private final Node root;
+    private final int shift;   // BITS * (levels above the leaves)
+    private final int size;    // non-empty slots
+    private final int length;  // highest index ever set + 1
+
+    private PersistentVector(Node root, int shift, int size, int length) {
+        this.root = root;
+        this.shift = shift;
+        this.size = size;
+        this.length = length;
+    }
+
+    @SuppressWarnings("unchecked")
+    static <T> PersistentVector<T> empty() { return (PersistentVector<T>) EMPTY; }
+
+    public int size() { return size; }
+    public int length() { return length; }
+
+    @SuppressWarnings("unchecked")
+    public T get(int i) {
+        Node leaf = leaf(i);
+        return leaf == null ? null : (T) leaf.slots[i & MASK];
+    }
+
+    public boolean flag(int i) {
+        Node leaf = leaf(i);
+        return leaf != null && (leaf.flags & (1 << (i & MASK))) != 0;
+    }
+
+    private Node leaf(int i) {
+        if (i < 0 || i >= length) {
+            return null;
+        }
+        Node node = root;
+        for (int level = shift; level > 0 && node != null; level -= BITS) {
+            node = (Node) node.slots[(i >>> level) & MASK];
+        }
+        return node;
+    }
+
+    public Editor<T> edit() { return new Editor<>(this); }
+
+    // Non-empty slots in index order
+    @Override
+    public Iterator<T> iterator() {
+        return new Iterator<T>() {
+            private Node leaf;  // the leaf holding next
+            private int next = advance(0);
+
+            private int advance(int from) {
+                for (int i = from; i < length; i++) {
+                    if ((i & MASK) == 0 || leaf == null) {
+                        leaf = leaf(i);
+                        if (leaf == null) {
+                            i |= MASK;  // whole leaf is empty, skip it
+                            continue;
+                        }
+                    }
+                    if (leaf.slots[i & MASK] != null) {
+                        return i;
+                    }
+                }
+                return length;
+            }
+
+            @Override
+            public boolean hasNext() { return next < length; }
+
+            @Override
+            @SuppressWarnings("unchecked")
+            public T next() {
+                if (next >= length) {
+                    throw new NoSuchElementException();
+                }
+                T value = (T) leaf.slots[next & MASK];
+                next = advance(next + 1);
+                return value;
+            }
+        };
+    }
+
+    public ArrayList<T> toList() {
+        ArrayList<T> list = new ArrayList<>(size);
+        forEach(list::add);
+        return list;
+    }
+
+    // Non-empty slots whose flag is set, in index order; leaves with no flags are skipped whole
+    public void forEachFlagged(Consumer<? super T> action) {
+        forEachFlagged(root, shift, action);
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <T> void forEachFlagged(Node node, int level, Consumer<? super T> action) {
+        if (level == 0) {
+            for (int bits = node.flags; bits != 0; bits &= bits - 1) {
+                Object value = node.slots[Integer.numberOfTrailingZeros(bits)];
+                if (value != null) {
+                    action.accept((T) value);
+                }
+            }
+            return;
+        }
+        for (Object child : node.slots) {
+            if (child != null) {
+                forEachFlagged((Node) child, level - BITS, action);
+            }
+        }
+    }
+
+    // Mutable builder for the next version; use once and throw away after build()
+    static final class Editor<T> {
+        private final Object owner = new Object();
+        private Node root;
+        private int shift;
+        private int size;
+        private int length;
+        private boolean built;
+
+        private Editor(PersistentVector<T> from) {
+            this.root = from.root;
+            this.shift = from.shift;
+            this.size = from.size;
+            this.length = from.length;
+        }
+
+        // A null value empties the slot (and clears its flag)
+        public Editor<T> set(int i, T value) {
+            Node leaf = editableLeaf(i);
+            int slot = i & MASK;
+            Object old = leaf.slots[slot];
+            leaf.slots[slot] = value;
+            if (value == null) {
+                leaf.flags &= ~(1 << slot);
+                if (old != null) {
+                    size--;
+                }
+            } else {
+                if (old == null) {
+                    size++;
+                }
+                length = Math.max(length, i + 1);
+            }
+            return this;
+        }
+
+        public Editor<T> add(T value) { return set(length, value); }
+
+        public Editor<T> setFlag(int i, boolean flag) {
+            Node leaf = editableLeaf(i);
+            int bit = 1 << (i & MASK);
+            leaf.flags = flag ? leaf.flags | bit : leaf.flags & ~bit;
+            return this;
+        }
+
+        public PersistentVector<T> build() {
+            checkOpen();
+            built = true;
+            return new PersistentVector<>(root, shift, size, length);
+        }
+
+        private Node editableLeaf(int i) {
+            checkOpen();
+            if (i < 0) {
+                throw new IndexOutOfBoundsException("Index " + i);
+            }
+            while (i >>> shift >= WIDTH) {
+                Node grown = new Node(owner);  // one more level on top
+                grown.slots[0] = root;
+                root = grown;
+                shift += BITS;
+            }
+            Node node = root = editable(root);
+            for (int level = shift; level > 0; level -= BITS) {
+                int j = (i >>> level) & MASK;
+                Node child = (Node) node.slots[j];
+                child = child == null ? new Node(owner) : editable(child);
+                node.slots[j] = child;
+                node = child;
+            }
+            return node;
+        }
+
+        private Node editable(Node node) {
+            return node.owner == owner ? node : new Node(owner, node);
+        }
+
+        private void checkOpen() {
+            if (built) {
+                throw new IllegalStateException("Editor already built");
+            }
+        }
+    }
+}
@@ -0,0 +1,220 @@
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Predicate;
+
+// Result cache for searchBooks and getAvailableBooks.
+// Keyed on the folded search arguments, kept in LRU order, and bounded both by the
+// number of entries and by an estimate of their size. Entries can also expire after
+// a TTL. Every entry remembers its criteria, so a book change only drops the entries
+// whose results it could affect.
+// A result is only stored if no change happened while it was being computed (the
+// generation check), since availability can flip while a search is running.
+// Availability flips are the hot path (every borrow and return), so they neither lock nor
+// scan: each records its generation against the book's category, and a result filtered on
+// availability is dropped when it is next read if a flip in its category (any flip, when it
+// has no category) came after the generation it was computed at.
+class QueryCache {
+    static final int DEFAULT_MAX_ENTRIES = 256;
+    static final long DEFAULT_MAX_BYTES = 64L << 20;
+
+    private int maxEntries = DEFAULT_MAX_ENTRIES;
+    private long maxBytes = DEFAULT_MAX_BYTES;
+    private long ttlNanos;                  // 0 = entries never expire
+    private long bytes;
+    private volatile int count;             // lets the change hooks skip the lock when the cache is empty
+    private final AtomicLong generation = new AtomicLong();
+    // Generation of the latest availability flip: slot 0 for any book, then per category stripe
+    private static final int FLIP_STRIPES = 64;
+    private final AtomicLongArray lastFlip = new AtomicLongArray(FLIP_STRIPES + 1);
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+    private final LongAdder invalidations = new LongAdder();
+    private final LongAdder expirations = new LongAdder();
+
+    // One cached result and the folded criteria that produced it
+    private static class Entry {
+        final String title;
+        final String author;
+        final String category;
+        final String publicationDate;
+        final Boolean isAvailable;
+        final ArrayList<Book> results;
+        final long bytes;
+        final long createdAt;
+        final long generation;  // read before the result was computed
+
+        Entry(String key, long generation, String title, String author, String category, String publicationDate,
+              Boolean isAvailable, List<Book> results) {
+            this.generation = generation;
+            this.title = title;
+            this.author = author;
+            this.category = category;
+            this.publicationDate = publicationDate;
+            this.isAvailable = isAvailable;
+            this.results = new ArrayList<>(results);
+            // references + list and entry overhead + the key
+            this.bytes = 4L * results.size() + 96 + 2L * key.length();
+            this.createdAt = System.nanoTime();
+        }
+
+        boolean matches(Book b) {
+            return CatalogIndex.matches(b, title, author, category, publicationDate, isAvailable);
+        }
+    }
+
+    // Limits; a ttlMillis of 0 turns expiry off, a maxEntries of 0 turns the cache off
+    public synchronized void configure(int maxEntries, long maxBytes, long ttlMillis) {
+        this.maxEntries = maxEntries;
+        this.maxBytes = maxBytes;
+        this.ttlNanos = ttlMillis * 1_000_000L;
+        evict();
+    }
+
+    static String key(String title, String author, String category, String publicationDate, Boolean isAvailable) {
+        return title + '\u0000' + author + '\u0000' + category + '\u0000' + publicationDate + '\u0000' + isAvailable;
+    }
+
+    // Read before computing a result; pass to put() so a result that raced with a change is dropped
+    public long generation() { return generation.get(); }
+
+    // Copy of the cached result, or null
+    public synchronized ArrayList<Book> get(String key) {
+        Entry e = entries.get(key);
+        if (e != null && ttlNanos > 0 && System.nanoTime() - e.createdAt > ttlNanos) {
+            remove(key, e);
+            expirations.increment();
+            e = null;
+        }
+        if (e != null && e.isAvailable != null && lastFlip.get(flipSlot(e.category)) > e.generation) {
+            remove(key, e);
+            invalidations.increment();
+            e = null;
+        }
+        if (e == null) {
+            misses.increment();
+            return null;
+        }
+        hits.increment();
+        return new ArrayList<>(e.results);
+    }
+
+    // Title, author and category must already be folded
+    public synchronized void put(String key, long generation, String title, String author, String category,
+                                 String publicationDate, Boolean isAvailable, List<Book> results) {
+        if (generation != this.generation.get() || maxEntries <= 0) {
+            return;
+        }
+        Entry e = new Entry(key, generation, title, author, category, publicationDate, isAvailable, results);
+        if (e.bytes > maxBytes) {
+            return;
+        }
+        Entry old = entries.put(key, e);
+        if (old != null) {
+            bytes -= old.bytes;
+        }
+        bytes += e.bytes;
+        count = entries.size();
+        evict();
+    }
+
+    // A book was added or removed: drop the results it belongs in
+    public void bookChanged(Book book) {
+        generation.incrementAndGet();
+        if (count > 0) {
+            invalidateIf(e -> e.matches(book));
+        }
+    }
+
+    // Availability flipped: only results filtered on availability change membership, and
+    // get() drops those lazily, so this takes no lock
+    public void availabilityChanged(Book book) {
+        long g = generation.incrementAndGet();
+        lastFlip.accumulateAndGet(0, g, Math::max);
+        lastFlip.accumulateAndGet(flipSlot(book.getCategoryKey()), g, Math::max);
+    }
+
+    // Slot in lastFlip that a result with this (folded) category criterion watches
+    private static int flipSlot(String category) {
+        return category.isEmpty() ? 0 : 1 + Math.floorMod(category.hashCode(), FLIP_STRIPES);
+    }
+
+    // Category changed: drop results filtered on the old or the new category
+    public void categoryChanged(Book book, String oldCategory) {
+        generation.incrementAndGet();
+        if (count > 0) {
+            String oldKey = TextKeys.fold(oldCategory);
+            invalidateIf(e -> !e.category.isEmpty() && (e.category.equals(oldKey) || e.category.equals(book.getCategoryKey())));
+        }
+    }
+
+    // Publication date changed: drop results filtered on a prefix of the old or the new date
+    public void publicationDateChanged(Book book, String oldDate) {
+        generation.incrementAndGet();
+        if (count > 0) {
+            String old = oldDate == null ? "" : oldDate;
+            invalidateIf(e -> !e.publicationDate.isEmpty() &&
+                    (old.startsWith(e.publicationDate) || book.getPublicationDate().startsWith(e.publicationDate)));
+        }
+    }
+
+    public synchronized void clear() {
+        generation.incrementAndGet();
+        invalidations.add(entries.size());
+        entries.clear();
+        bytes = 0;
+        count = 0;
+    }
+
+    private synchronized void invalidateIf(Predicate<Entry> affected) {
+        for (Iterator<Map.Entry<String, Entry>> it = entries.entrySet().iterator(); it.hasNext(); ) {
+            Entry e = it.next().getValue();
+            if (affected.test(e)) {
+                it.remove();
+                bytes -= e.bytes;
+                invalidations.increment();
+            }
+        }
+        count = entries.size();
+    }
+
+    // Drop least recently used entries until both limits hold
+    private void evict() {
+        Iterator<Map.Entry<String, Entry>> it = entries.entrySet().iterator();
+        while ((entries.size() > maxEntries || bytes > maxBytes) && it.hasNext()) {
+            bytes -= it.next().getValue().bytes;
+            it.remove();
+            evictions.increment();
+        }
+        count = entries.size();
+    }
+
+    private void remove(String key, Entry e) {
+        entries.remove(key);
+        bytes -= e.bytes;
+        count = entries.size();
+    }
+
+    // Counters
+    public long getHits() { return hits.sum(); }
+    public long getMisses() { return misses.sum(); }
+    public long getEvictions() { return evictions.sum(); }
+    public long getInvalidations() { return invalidations.sum(); }
+    public long getExpirations() { return expirations.sum(); }
+    public synchronized int size() { return entries.size(); }
+    public synchronized long getBytes() { return bytes; }
+
+    @Override
+    public String toString() {
+        return "QueryCache[entries=" + size() + ", bytes=" + getBytes() + ", hits=" + getHits() + ", misses=" + getMisses() +
+                ", evictions=" + getEvictions() + ", invalidations=" + getInvalidations() + ", expirations=" + getExpirations() + "]";
+    }
+}
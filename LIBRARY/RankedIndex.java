@@ -0,0 +1,386 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+
+// Ranked full-text index used by LibraryManagementSystem.searchRanked.
+// Title, author, category and genre/subject are tokenized into folded words; each
+// word has a posting list of (book id, weighted term frequency). Queries are scored
+// with BM25 and only the best k are kept, in a bounded heap.
+// With fuzzy matching on, every query word also matches vocabulary words it is a
+// prefix of, or that are within one or two edits of it, at a reduced weight. Candidates
+// come from a trigram index over the vocabulary and are then checked by edit distance.
+// Not thread safe; LibraryManagementSystem guards it with its catalog lock.
+class RankedIndex {
+    private static final double K1 = 1.2;
+    private static final double B = 0.75;
+    // Field weights: a hit in the title counts more than one in the category
+    private static final float TITLE = 2.0f;
+    private static final float AUTHOR = 1.5f;
+    private static final float EXTRA = 1.0f;
+    private static final float CATEGORY = 0.5f;
+    private static final double PREFIX_WEIGHT = 0.8;
+    private static final double[] EDIT_WEIGHT = {1.0, 0.7, 0.5};  // by edit distance
+
+    private final ArrayList<Book> docs = new ArrayList<>();    // book id -> book (null if absent)
+    private float[] docLength = new float[16];
+    private double totalLength;
+    private int docCount;
+    private final HashMap<String, Postings> postings = new HashMap<>();
+    private final HashMap<String, HashSet<String>> vocabularyGrams = new HashMap<>();  // trigram -> words
+
+    // One search hit
+    static class Hit {
+        final Book book;
+        final double score;
+
+        Hit(Book book, double score) {
+            this.book = book;
+            this.score = score;
+        }
+
+        Book getBook() { return book; }
+        double getScore() { return score; }
+    }
+
+    public void add(Book book) {
+        int id = book.getId();
+        if (id < docs.size() && docs.get(id) != null) {
+            return;
+        }
+        while (docs.size() <= id) {
+            docs.add(null);
+        }
+        if (id >= docLength.length) {
+            docLength = Arrays.copyOf(docLength, Math.max(id + 1, docLength.length * 2));
+        }
+        docs.set(id, book);
+        index(id, terms(book.getTitle(), book.getAuthor(), book.getCategory(), extra(book)));
+    }
+
+    public void remove(Book book) {
+        int id = book.getId();
+        if (id >= docs.size() || docs.get(id) != book) {
+            return;
+        }
+        unindex(id, terms(book.getTitle(), book.getAuthor(), book.getCategory(), extra(book)));
+        docs.set(id, null);
+    }
+
+    // Re-index a book after its category or genre/subject changed; old values are what it was indexed with
+    public void update(Book book, String oldCategory, String oldExtra) {
+        int id = book.getId();
+        if (id >= docs.size() || docs.get(id) != book) {
+            return;
+        }
+        unindex(id, terms(book.getTitle(), book.getAuthor(), oldCategory, oldExtra));
+        index(id, terms(book.getTitle(), book.getAuthor(), book.getCategory(), extra(book)));
+    }
+
+    // Best k books for a free-text query, highest score first
+    public List<Hit> search(String query, int k, boolean fuzzy) {
+        ArrayList<String> words = tokenize(query);
+        if (words.isEmpty() || docCount == 0 || k <= 0) {
+            return new ArrayList<>();
+        }
+        double avgLength = totalLength / docCount;
+        Map<String, Double> expanded = expand(words, fuzzy);
+        long postingCount = 0;
+        for (String term : expanded.keySet()) {
+            postingCount += postings.get(term).size;
+        }
+        Scores scores = new Scores((int) Math.min(postingCount, docCount));
+        for (Map.Entry<String, Double> e : expanded.entrySet()) {
+            Postings p = postings.get(e.getKey());
+            double idf = Math.log(1 + (docCount - p.size + 0.5) / (p.size + 0.5));
+            double weight = e.getValue() * idf;
+            for (int i = 0; i < p.size; i++) {
+                int id = p.ids[i];
+                double tf = p.tfs[i];
+                double norm = K1 * (1 - B + B * docLength[id] / avgLength);
+                scores.add(id, (float) (weight * tf * (K1 + 1) / (tf + norm)));
+            }
+        }
+
+        // Min-heap of the k best so far (as slots in scores); the full candidate set is never sorted
+        float[] values = scores.values;
+        int[] ids = scores.ids;
+        PriorityQueue<Integer> heap = new PriorityQueue<>(k + 1,
+                (a, b) -> values[a] != values[b] ? Float.compare(values[a], values[b]) : Integer.compare(ids[b], ids[a]));
+        for (int i = 0; i < scores.size; i++) {
+            int slot = scores.order[i];
+            if (heap.size() < k) {
+                heap.add(slot);
+            } else if (values[slot] > values[heap.peek()]) {
+                heap.poll();
+                heap.add(slot);
+            }
+        }
+        ArrayList<Hit> hits = new ArrayList<>(heap.size());
+        while (!heap.isEmpty()) {
+            int slot = heap.poll();
+            hits.add(new Hit(docs.get(ids[slot]), values[slot]));
+        }
+        Collections.reverse(hits);
+        return hits;
+    }
+
+    // Book id -> score for one query, open addressing over the ids the posting lists hand out.
+    // Sized by the postings the query reads, not by the catalog, so a narrow query on a large
+    // catalog allocates little. Searches run concurrently under the read lock, so each has its own.
+    private static final class Scores {
+        final int[] ids;      // -1 for an empty slot
+        final float[] values;
+        final int[] order;    // filled slots, in first-touch order
+        final int mask;
+        int size;
+
+        Scores(int expected) {
+            int capacity = Integer.highestOneBit(Math.max(8, expected) * 2 - 1) << 1;
+            ids = new int[capacity];
+            Arrays.fill(ids, -1);
+            values = new float[capacity];
+            order = new int[Math.max(8, expected)];
+            mask = capacity - 1;
+        }
+
+        void add(int id, float score) {
+            int slot = (id * 0x9E3779B9) >>> 1 & mask;
+            while (ids[slot] != id) {
+                if (ids[slot] == -1) {
+                    ids[slot] = id;
+                    order[size++] = slot;
+                    break;
+                }
+                slot = (slot + 1) & mask;
+            }
+            values[slot] += score;
+        }
+    }
+
+    // Query words (and, when fuzzy, similar vocabulary words) with their weight
+    private Map<String, Double> expand(List<String> words, boolean fuzzy) {
+        HashMap<String, Double> expanded = new HashMap<>();
+        for (String word : words) {
+            if (postings.containsKey(word)) {
+                expanded.merge(word, 1.0, Math::max);
+            }
+            if (!fuzzy || isNumber(word)) {
+                continue;
+            }
+            int maxEdits = word.length() <= 4 ? 1 : 2;
+            HashMap<String, Integer> shared = new HashMap<>();
+            for (String gram : grams(word).keySet()) {
+                HashSet<String> candidates = vocabularyGrams.get(gram);
+                if (candidates != null) {
+                    for (String candidate : candidates) {
+                        shared.merge(candidate, 1, Integer::sum);
+                    }
+                }
+            }
+            // Words longer than three letters must share two trigrams before the edit distance is worth computing
+            int minShared = word.length() <= 3 ? 1 : 2;
+            for (Map.Entry<String, Integer> e : shared.entrySet()) {
+                String candidate = e.getKey();
+                if (candidate.equals(word) || e.getValue() < minShared || !postings.containsKey(candidate)) {
+                    continue;
+                }
+                double weight = 0;
+                if (candidate.startsWith(word)) {
+                    weight = PREFIX_WEIGHT;
+                }
+                if (Math.abs(candidate.length() - word.length()) <= maxEdits) {
+                    int distance = editDistance(word, candidate, maxEdits);
+                    if (distance <= maxEdits) {
+                        weight = Math.max(weight, EDIT_WEIGHT[distance]);
+                    }
+                }
+                if (weight > 0) {
+                    expanded.merge(candidate, weight, Math::max);
+                }
+            }
+        }
+        return expanded;
+    }
+
+    private void index(int id, Map<String, Float> terms) {
+        float length = 0;
+        for (Map.Entry<String, Float> e : terms.entrySet()) {
+            String term = e.getKey();
+            Postings p = postings.get(term);
+            if (p == null) {
+                p = new Postings();
+                postings.put(term, p);
+                // numbers are only matched exactly, so they stay out of the fuzzy vocabulary
+                if (!isNumber(term)) {
+                    for (String gram : grams(term).keySet()) {
+                        vocabularyGrams.computeIfAbsent(gram, g -> new HashSet<>()).add(term);
+                    }
+                }
+            }
+            p.add(id, e.getValue());
+            length += e.getValue();
+        }
+        docLength[id] = length;
+        totalLength += length;
+        docCount++;
+    }
+
+    private void unindex(int id, Map<String, Float> terms) {
+        for (String term : terms.keySet()) {
+            Postings p = postings.get(term);
+            if (p != null && p.remove(id) && p.size == 0) {
+                postings.remove(term);
+                for (String gram : isNumber(term) ? Collections.<String>emptySet() : grams(term).keySet()) {
+                    HashSet<String> words = vocabularyGrams.get(gram);
+                    if (words != null && words.remove(term) && words.isEmpty()) {
+                        vocabularyGrams.remove(gram);
+                    }
+                }
+            }
+        }
+        totalLength -= docLength[id];
+        docLength[id] = 0;
+        docCount--;
+    }
+
+    // Weighted term frequencies of one book
+    private static Map<String, Float> terms(String title, String author, String category, String extra) {
+        HashMap<String, Float> terms = new HashMap<>();
+        addTerms(terms, title, TITLE);
+        addTerms(terms, author, AUTHOR);
+        addTerms(terms, category, CATEGORY);
+        addTerms(terms, extra, EXTRA);
+        return terms;
+    }
+
+    private static void addTerms(Map<String, Float> terms, String text, float weight) {
+        for (String word : tokenize(text)) {
+            terms.merge(word, weight, Float::sum);
+        }
+    }
+
+    // Folded words: runs of letters and digits
+    static ArrayList<String> tokenize(String text) {
+        ArrayList<String> words = new ArrayList<>();
+        String folded = TextKeys.fold(text);
+        int start = -1;
+        for (int i = 0; i <= folded.length(); i++) {
+            boolean wordChar = i < folded.length() && Character.isLetterOrDigit(folded.charAt(i));
+            if (wordChar && start < 0) {
+                start = i;
+            } else if (!wordChar && start >= 0) {
+                words.add(folded.substring(start, i));
+                start = -1;
+            }
+        }
+        return words;
+    }
+
+    // Edit distance with adjacent transpositions ("nigth" -> "night" is one edit).
+    // Gives up early and returns max + 1 once the distance is known to exceed max.
+    static int editDistance(String a, String b, int max) {
+        int[] prev2 = new int[b.length() + 1];
+        int[] prev = new int[b.length() + 1];
+        int[] cur = new int[b.length() + 1];
+        for (int j = 0; j <= b.length(); j++) {
+            prev[j] = j;
+        }
+        int prevRowMin = 0;
+        for (int i = 1; i <= a.length(); i++) {
+            cur[0] = i;
+            int rowMin = cur[0];
+            for (int j = 1; j <= b.length(); j++) {
+                int cost = a.charAt(i - 1) == b.charAt(j - 1) ? 0 : 1;
+                int d = Math.min(Math.min(prev[j] + 1, cur[j - 1] + 1), prev[j - 1] + cost);
+                if (i > 1 && j > 1 && a.charAt(i - 1) == b.charAt(j - 2) && a.charAt(i - 2) == b.charAt(j - 1)) {
+                    d = Math.min(d, prev2[j - 2] + 1);
+                }
+                cur[j] = d;
+                rowMin = Math.min(rowMin, d);
+            }
+            // a transposition can reach back two rows, so both must be out of range
+            if (rowMin > max && prevRowMin > max) {
+                return max + 1;
+            }
+            prevRowMin = rowMin;
+            int[] t = prev2;
+            prev2 = prev;
+            prev = cur;
+            cur = t;
+        }
+        return prev[b.length()];
+    }
+
+    private static boolean isNumber(String word) {
+        for (int i = 0; i < word.length(); i++) {
+            if (!Character.isDigit(word.charAt(i))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // Trigrams of a word padded with spaces, so short words still have some
+    private static LinkedHashMap<String, Integer> grams(String word) {
+        LinkedHashMap<String, Integer> grams = new LinkedHashMap<>();
+        String padded = " " + word + " ";
+        for (int i = 0; i + 3 <= padded.length(); i++) {
+            grams.merge(padded.substring(i, i + 3), 1, Integer::sum);
+        }
+        return grams;
+    }
+
+    // Genre of a FictionBook or subject of a NonFictionBook
+    static String extra(Book book) {
+        if (book instanceof FictionBook) {
+            return ((FictionBook) book).getGenre();
+        } else if (book instanceof NonFictionBook) {
+            return ((NonFictionBook) book).getSubject();
+        }
+        return "";
+    }
+
+    // Book ids in ascending order with their weighted term frequency
+    private static class Postings {
+        int[] ids = new int[4];
+        float[] tfs = new float[4];
+        int size;
+
+        void add(int id, float tf) {
+            if (size == ids.length) {
+                ids = Arrays.copyOf(ids, size * 2);
+                tfs = Arrays.copyOf(tfs, size * 2);
+            }
+            // ids usually arrive in order; a re-indexed book is inserted in place
+            int pos = size == 0 || ids[size - 1] < id ? size : Arrays.binarySearch(ids, 0, size, id);
+            if (pos < 0) {
+                pos = -pos - 1;
+            } else if (pos < size) {
+                tfs[pos] = tf;
+                return;
+            }
+            System.arraycopy(ids, pos, ids, pos + 1, size - pos);
+            System.arraycopy(tfs, pos, tfs, pos + 1, size - pos);
+            ids[pos] = id;
+            tfs[pos] = tf;
+            size++;
+        }
+
+        boolean remove(int id) {
+            int pos = Arrays.binarySearch(ids, 0, size, id);
+            if (pos < 0) {
+                return false;
+            }
+            System.arraycopy(ids, pos + 1, ids, pos, size - pos - 1);
+            System.arraycopy(tfs, pos + 1, tfs, pos, size - pos - 1);
+            size--;
+            return true;
+        }
+    }
+}
@@ -0,0 +1,467 @@
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.UncheckedIOException;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.CancellationException;
+
+// Client side of LibraryServer. Implements Library against a shared server, so LibraryGUI
+// and the login pages can run as a desk client (java LibraryGUI --connect host:port).
+// Every call goes to the server; there is no local catalog, ledger or credential store.
+// Books and loans that come back are copies; changes go through the calls below.
+// One connection is shared, and calls are serialized on it. Calls block on the network,
+// so GUI code makes them from a worker thread. Long lists (searches, available books, the
+// whole catalog) come a page at a time, one call per page, so a borrow from another thread
+// waits for one page at most, and a cancelled (interrupted) worker stops at the next page.
+class RemoteLibraryManagementSystem implements Library, Closeable {
+    private final Socket socket;
+    private final BufferedReader in;
+    private final BufferedWriter out;
+    private long nextRequest = 1;
+    private static final int PAGE_ROWS = 1000;  // as LibraryServer.Settings.maxPageRows
+
+    RemoteLibraryManagementSystem(String host, int port) throws IOException {
+        socket = new Socket(host, port);
+        socket.setTcpNoDelay(true);
+        in = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+        out = new BufferedWriter(new OutputStreamWriter(socket.getOutputStream(), StandardCharsets.UTF_8));
+    }
+
+    // "host:port", port defaults to LibraryServer.DEFAULT_PORT
+    static RemoteLibraryManagementSystem connect(String address) throws IOException {
+        int colon = address.lastIndexOf(':');
+        if (colon < 0) {
+            return new RemoteLibraryManagementSystem(address, LibraryServer.DEFAULT_PORT);
+        }
+        return new RemoteLibraryManagementSystem(address.substring(0, colon), Integer.parseInt(address.substring(colon + 1)));
+    }
+
+    // Send one request; returns the OK line's values followed by any record lines
+    private List<String[]> call(String... request) {
+        return call(List.of(), request);
+    }
+
+    // A request followed by body lines (ADD_BOOKS)
+    private synchronized List<String[]> call(List<String> body, String... request) {
+        String id = String.valueOf(nextRequest++);
+        String[] line = new String[request.length + 1];
+        line[0] = id;
+        System.arraycopy(request, 0, line, 1, request.length);
+        try {
+            out.write(LibraryJournal.join(line));
+            out.newLine();
+            for (String b : body) {
+                out.write(b);
+                out.newLine();
+            }
+            out.flush();
+            String response = in.readLine();
+            if (response == null) {
+                throw new IOException("Server closed the connection");
+            }
+            String[] f = LibraryJournal.split(response);
+            if (f[0].equals("0") && f.length > 2) {
+                throw new IOException("Server dropped the connection: " + f[2]);  // too many failed logins, line too long
+            }
+            if (!f[0].equals(id)) {
+                throw new IOException("Out of order response " + f[0] + " for request " + id);
+            }
+            if (f.length > 1 && f[1].equals("ERR")) {
+                throw new IllegalStateException("Server error: " + (f.length > 2 ? f[2] : ""));
+            }
+            List<String[]> result = new ArrayList<>();
+            String[] values = new String[Math.max(0, f.length - 2)];
+            System.arraycopy(f, 2, values, 0, values.length);
+            result.add(values);
+            return result;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    // A call whose answer is a count followed by that many record lines
+    private synchronized List<String[]> records(String... request) {
+        List<String[]> result = call(request);
+        int n = Integer.parseInt(result.get(0)[0]);
+        result.clear();
+        try {
+            for (int i = 0; i < n; i++) {
+                result.add(LibraryJournal.split(in.readLine()));
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return result;
+    }
+
+    private ArrayList<Book> books(String... request) {
+        ArrayList<Book> books = new ArrayList<>();
+        for (String[] f : records(request)) {
+            books.add(LibraryJournal.bookFromFields(f, 1));
+        }
+        return books;
+    }
+
+    // Up to limit books from a paged command, fetched PAGE_ROWS at a time: the request is
+    // sent again with limit|afterId appended until a page comes back short
+    private ArrayList<Book> pages(int limit, String... request) {
+        ArrayList<Book> books = new ArrayList<>();
+        String[] page = Arrays.copyOf(request, request.length + 2);
+        int afterId = 0;
+        while (books.size() < limit) {
+            if (Thread.currentThread().isInterrupted()) {
+                throw new CancellationException(request[0] + " cancelled");
+            }
+            int rows = Math.min(PAGE_ROWS, limit - books.size());
+            page[request.length] = String.valueOf(rows);
+            page[request.length + 1] = String.valueOf(afterId);
+            ArrayList<Book> got = books(page);
+            books.addAll(got);
+            if (got.size() < rows) {
+                break;
+            }
+            afterId = got.get(got.size() - 1).getId();
+        }
+        return books;
+    }
+
+    private ArrayList<Loan> loans(String... request) {
+        List<String[]> lines = records(request);
+        ArrayList<Loan> loans = new ArrayList<>();
+        HashMap<String, User> users = new HashMap<>();  // one USER call per patron, not per loan
+        for (int i = 0; i + 1 < lines.size(); i += 2) {
+            String[] l = lines.get(i);
+            Book book = LibraryJournal.bookFromFields(lines.get(i + 1), 1);
+            loans.add(new Loan(Long.parseLong(l[1]), users.computeIfAbsent(l[2], this::findUserById), book,
+                    LocalDateTime.parse(l[4]), LocalDateTime.parse(l[5])));
+        }
+        return loans;
+    }
+
+    @Override
+    public void addBook(Book book) {
+        String[] record = LibraryJournal.split(LibraryJournal.bookRecord(book));
+        String[] request = new String[8];
+        request[0] = "ADD_BOOK";
+        System.arraycopy(record, 2, request, 1, 7);
+        book.setId(Integer.parseInt(call(request).get(0)[0]));
+    }
+
+    // One ADD_BOOKS round trip per LibraryServer.MAX_BATCH books; each of those batches is
+    // added on the server as a whole or not at all
+    @Override
+    public void addBooks(List<? extends Book> batch) {
+        for (int from = 0; from < batch.size(); from += LibraryServer.MAX_BATCH) {
+            List<? extends Book> chunk = batch.subList(from, Math.min(batch.size(), from + LibraryServer.MAX_BATCH));
+            List<String> body = new ArrayList<>(chunk.size());
+            for (Book book : chunk) {
+                String[] record = LibraryJournal.split(LibraryJournal.bookRecord(book));
+                body.add(LibraryJournal.join(Arrays.copyOfRange(record, 2, 9)));
+            }
+            String[] ids = call(body, "ADD_BOOKS", String.valueOf(chunk.size())).get(0);
+            for (int i = 0; i < chunk.size(); i++) {
+                chunk.get(i).setId(Integer.parseInt(ids[i]));
+            }
+        }
+    }
+
+    @Override
+    public void removeBook(Book book) {
+        call("REMOVE_BOOK", String.valueOf(book.getId()));
+    }
+
+    @Override
+    public boolean addUser(User user) {
+        return Boolean.parseBoolean(call("ADD_USER", user.getName(), user.getUserID()).get(0)[0]);
+    }
+
+    @Override
+    public User findUserById(String userID) {
+        String[] f = call("USER", userID).get(0);
+        return f.length < 2 ? null : new User(f[0], f[1]);
+    }
+
+    @Override
+    public Book findBookById(int id) {
+        ArrayList<Book> books = books("GET_BOOK", String.valueOf(id));
+        return books.isEmpty() ? null : books.get(0);
+    }
+
+    @Override
+    public Book findAvailableCopy(String title) {
+        ArrayList<Book> books = books("FIND_COPY", title);
+        return books.isEmpty() ? null : books.get(0);
+    }
+
+    @Override
+    public Book findCopyFor(User user, String title) {
+        ArrayList<Book> books = books("FIND_COPY", title, user.getUserID());
+        return books.isEmpty() ? null : books.get(0);
+    }
+
+    @Override
+    public boolean hasTitle(String title) {
+        return Boolean.parseBoolean(call("HAS_TITLE", title).get(0)[0]);
+    }
+
+    @Override
+    public boolean isBookAvailable(Book book) {
+        Book current = findBookById(book.getId());
+        return current != null && current.isAvailable();
+    }
+
+    @Override
+    public List<Book> getBooks() {
+        return pages(Integer.MAX_VALUE, "BOOKS");
+    }
+
+    @Override
+    public List<User> getUsers() {
+        List<User> users = new ArrayList<>();
+        for (String[] f : records("USERS")) {
+            users.add(new User(f[1], f[2]));
+        }
+        return users;
+    }
+
+    @Override
+    public HashMap<String, Integer> getCategorySizes() {
+        HashMap<String, Integer> sizes = new HashMap<>();
+        for (String[] f : records("CATEGORIES")) {
+            sizes.put(f[0], Integer.parseInt(f[1]));
+        }
+        return sizes;
+    }
+
+    @Override
+    public Loan checkOut(User user, Book book) {
+        ArrayList<Loan> loans = loans("BORROW", user.getUserID(), String.valueOf(book.getId()));
+        return loans.isEmpty() ? null : loans.get(0);
+    }
+
+    @Override
+    public Book returnBook(User user) {
+        ArrayList<Loan> loans = loans("RETURN_OLDEST", user.getUserID());
+        return loans.isEmpty() ? null : loans.get(0).getBook();
+    }
+
+    @Override
+    public Loan returnLoan(long loanId) {
+        ArrayList<Loan> loans = loans("RETURN", String.valueOf(loanId));
+        return loans.isEmpty() ? null : loans.get(0);
+    }
+
+    @Override
+    public List<Circulation.Result> checkOutAll(List<Circulation.Request> requests) {
+        // one round trip per patron run in the batch
+        List<Circulation.Result> results = new ArrayList<>();
+        int i = 0;
+        while (i < requests.size()) {
+            String userID = requests.get(i).getUserID();
+            List<String> request = new ArrayList<>();
+            request.add("BORROW_BATCH");
+            request.add(userID);
+            int first = i;
+            while (i < requests.size() && Objects.equals(requests.get(i).getUserID(), userID)) {
+                request.add(String.valueOf(requests.get(i++).getBookId()));
+            }
+            results.addAll(results(requests.subList(first, i), request.toArray(new String[0])));
+        }
+        return results;
+    }
+
+    @Override
+    public List<Circulation.Result> returnAll(List<Integer> bookIds) {
+        List<Circulation.Request> requests = new ArrayList<>();
+        String[] request = new String[bookIds.size() + 1];
+        request[0] = "RETURN_BATCH";
+        for (int i = 0; i < bookIds.size(); i++) {
+            requests.add(new Circulation.Request(null, bookIds.get(i)));
+            request[i + 1] = String.valueOf(bookIds.get(i));
+        }
+        return results(requests, request);
+    }
+
+    private List<Circulation.Result> results(List<Circulation.Request> requests, String... request) {
+        List<String[]> lines = records(request);
+        List<Circulation.Result> results = new ArrayList<>();
+        int line = 0;
+        for (Circulation.Request r : requests) {
+            String[] f = lines.get(line++);
+            Loan loan = null;
+            if (Boolean.parseBoolean(f[2])) {
+                String[] l = lines.get(line++);
+                Book book = LibraryJournal.bookFromFields(lines.get(line++), 1);
+                loan = new Loan(Long.parseLong(l[1]), findUserById(l[2]), book, LocalDateTime.parse(l[4]), LocalDateTime.parse(l[5]));
+            }
+            results.add(new Circulation.Result(r, Circulation.Status.valueOf(f[0]), loan, Long.parseLong(f[1])));
+        }
+        return results;
+    }
+
+    @Override
+    public ArrayList<Loan> getLoansFor(User user) {
+        return loans("LOANS", user.getUserID());
+    }
+
+    @Override
+    public ArrayList<Loan> getOverdueLoans() {
+        return loans("OVERDUE");
+    }
+
+    @Override
+    public ArrayList<Book> searchBooks(String title, String author, String category, String publicationDate, Boolean isAvailable) {
+        return searchBooks(title, author, category, publicationDate, isAvailable, Integer.MAX_VALUE);
+    }
+
+    @Override
+    public ArrayList<Book> searchBooks(String title, String author, String category, String publicationDate, Boolean isAvailable, int limit) {
+        return pages(limit, "SEARCH", title, author, category, publicationDate, isAvailable == null ? "" : isAvailable.toString());
+    }
+
+    // Local copies cannot be checked against the server's catalog, so search again
+    @Override
+    public ArrayList<Book> refineSearch(List<Book> previous, String title, String author, String category, String publicationDate, Boolean isAvailable) {
+        return searchBooks(title, author, category, publicationDate, isAvailable);
+    }
+
+    // refineSearch searches the server again, so narrowing a result never goes stale here
+    @Override
+    public long getCatalogVersion() {
+        return 0;
+    }
+
+    @Override
+    public ArrayList<Book> getAvailableBooks() {
+        return pages(Integer.MAX_VALUE, "AVAILABLE");
+    }
+
+    @Override
+    public List<RankedIndex.Hit> searchRanked(String query, int limit, boolean fuzzy) {
+        List<RankedIndex.Hit> hits = new ArrayList<>();
+        for (String[] f : records("RANKED", query, String.valueOf(limit), String.valueOf(fuzzy))) {
+            hits.add(new RankedIndex.Hit(LibraryJournal.bookFromFields(f, 1), Double.parseDouble(f[f.length - 1])));
+        }
+        return hits;
+    }
+
+    // The server sends the groups one after another; split them again on the folded keys
+    @Override
+    public List<List<Book>> findDuplicateBooks() {
+        LinkedHashMap<String, List<Book>> groups = new LinkedHashMap<>();
+        for (Book book : books("DUPLICATES")) {
+            groups.computeIfAbsent(book.getTitleKey() + '\u0000' + book.getAuthorKey(), k -> new ArrayList<>()).add(book);
+        }
+        return new ArrayList<>(groups.values());
+    }
+
+    // Holds come back as copies carrying the state and queue position the server saw. Kept
+    // per user and replaced whenever that user's holds are fetched again, so filled and
+    // cancelled holds drop out.
+    private final HashMap<String, HashMap<Long, Integer>> holdPositions = new HashMap<>();
+
+    private synchronized ArrayList<Hold> holds(String... request) {
+        ArrayList<Hold> holds = new ArrayList<>();
+        HashMap<Long, Integer> positions = new HashMap<>();
+        for (String[] f : records(request)) {
+            Hold hold = new Hold(Long.parseLong(f[1]), findUserById(f[2]), f[3], LocalDateTime.parse(f[4]));
+            hold.state = Hold.State.valueOf(f[7]);
+            if (!f[5].isEmpty()) {
+                hold.copy = findBookById(Integer.parseInt(f[5]));
+                hold.pickupBy = LocalDateTime.parse(f[6]);
+            }
+            positions.put(hold.getHoldId(), Integer.parseInt(f[8]));
+            holds.add(hold);
+        }
+        HashMap<Long, Integer> known = holdPositions.computeIfAbsent(request[1], u -> new HashMap<>());
+        if (request[0].equals("HOLDS")) {
+            known.clear();
+        }
+        known.putAll(positions);
+        if (known.isEmpty()) {
+            holdPositions.remove(request[1]);
+        }
+        return holds;
+    }
+
+    @Override
+    public Hold placeHold(User user, String title) {
+        ArrayList<Hold> holds = holds("PLACE_HOLD", user.getUserID(), title);
+        return holds.isEmpty() ? null : holds.get(0);
+    }
+
+    @Override
+    public synchronized boolean cancelHold(long holdId) {
+        boolean cancelled = Boolean.parseBoolean(call("CANCEL_HOLD", String.valueOf(holdId)).get(0)[0]);
+        holdPositions.values().removeIf(known -> known.remove(holdId) != null && known.isEmpty());
+        return cancelled;
+    }
+
+    @Override
+    public ArrayList<Hold> getHoldsFor(User user) {
+        return holds("HOLDS", user.getUserID());
+    }
+
+    // As of when the hold was last fetched
+    @Override
+    public synchronized int getHoldPosition(Hold hold) {
+        HashMap<Long, Integer> known = holdPositions.get(hold.getUser().getUserID());
+        return known == null ? 0 : known.getOrDefault(hold.getHoldId(), 0);
+    }
+
+    @Override
+    public long getOutstandingFine(User user) {
+        return Long.parseLong(call("FINES", user.getUserID()).get(0)[0]);
+    }
+
+    // The server's metrics; this client's own calls are not recorded
+    @Override
+    public String metricsSnapshot() {
+        StringBuilder sb = new StringBuilder();
+        for (String[] f : records("METRICS")) {
+            sb.append(f[0]).append('\n');
+        }
+        return sb.toString();
+    }
+
+    @Override
+    public String analyticsReport() {
+        StringBuilder sb = new StringBuilder();
+        for (String[] f : records("ANALYTICS")) {
+            sb.append(f[0]).append('\n');
+        }
+        return sb.toString();
+    }
+
+    // Checked and stored by the server, against its own credentials.txt
+    @Override
+    public boolean authenticate(String userID, char[] password) {
+        return Boolean.parseBoolean(call("LOGIN", userID, new String(password)).get(0)[0]);
+    }
+
+    @Override
+    public boolean registerCredentials(String userID, char[] password) {
+        return Boolean.parseBoolean(call("REGISTER", userID, new String(password)).get(0)[0]);
+    }
+
+    @Override
+    public boolean setCredentials(String userID, char[] password, boolean staff) {
+        return Boolean.parseBoolean(call("SET_CREDENTIALS", userID, new String(password), String.valueOf(staff)).get(0)[0]);
+    }
+
+    @Override
+    public void close() throws IOException {
+        socket.close();
+    }
+}
@@ -0,0 +1,44 @@
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+
+// One set of search criteria from the GUI. The live search keeps the last query and
+// its complete results; when the next query only narrows it (the user typed more
+// characters), the old results are filtered instead of searching the whole catalog.
+class SearchQuery {
+    final String title;
+    final String author;
+    final String category;
+    final String publicationDate;
+    final Boolean isAvailable;
+
+    SearchQuery(String title, String author, String category, String publicationDate, Boolean isAvailable) {
+        this.title = title;
+        this.author = author;
+        this.category = category;
+        this.publicationDate = publicationDate;
+        this.isAvailable = isAvailable;
+    }
+
+    // Every book matching this query also matches previous
+    boolean narrows(SearchQuery previous) {
+        return previous != null &&
+                TextKeys.fold(title).contains(TextKeys.fold(previous.title)) &&
+                TextKeys.fold(author).contains(TextKeys.fold(previous.author)) &&
+                publicationDate.startsWith(previous.publicationDate) &&
+                TextKeys.fold(category).equals(TextKeys.fold(previous.category)) &&
+                Objects.equals(isAvailable, previous.isAvailable);
+    }
+
+    ArrayList<Book> run(Library lms) {
+        return lms.searchBooks(title, author, category, publicationDate, isAvailable);
+    }
+
+    ArrayList<Book> run(Library lms, int limit) {
+        return lms.searchBooks(title, author, category, publicationDate, isAvailable, limit);
+    }
+
+    ArrayList<Book> refine(Library lms, List<Book> previous) {
+        return lms.refineSearch(previous, title, author, category, publicationDate, isAvailable);
+    }
+}
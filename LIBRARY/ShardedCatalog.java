@@ -0,0 +1,314 @@
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.BiFunction;
+
+// A catalog split across branches: one LibraryManagementSystem shard per branch, each with
+// its own data directory (books.txt, users.txt, journal) under a common root. A copy belongs
+// to the branch that shelves it; books added without a branch are placed by a hash of their
+// folded title, so all copies of a title land on the same shard.
+// Book IDs are per shard, so a copy is identified by (branch, ID): see Holding.
+// Searches are sent to every shard in parallel and merged with a k-way merge. Each shard
+// scans its index keeping only its best limit matches in a heap, and nothing goes into the
+// shards' query caches, so a search holds at most shards * limit books whatever the number
+// of matches. Users are registered with every shard, so any branch can lend to anyone.
+class ShardedCatalog implements Closeable {
+    // One copy at one branch, with its score for ranked searches
+    static class Holding {
+        private final String branch;
+        private final Book book;
+        private final double score;
+
+        Holding(String branch, Book book, double score) {
+            this.branch = branch;
+            this.book = book;
+            this.score = score;
+        }
+
+        public String getBranch() { return branch; }
+        public Book getBook() { return book; }
+        public double getScore() { return score; }
+
+        @Override
+        public String toString() { return branch + ": " + book; }
+    }
+
+    // Plain searches merge in title, then author order; ties keep branch order
+    private static final Comparator<Book> TITLE_ORDER = Comparator.comparing(Book::getTitleKey).thenComparing(Book::getAuthorKey);
+    private static final Comparator<Holding> BY_TITLE = Comparator.comparing(Holding::getBook, TITLE_ORDER);
+    // Ranked searches merge best score first (each shard scores against its own statistics,
+    // so scores from different branches are close to, not exactly, comparable)
+    private static final Comparator<Holding> BY_SCORE = Comparator.comparingDouble(Holding::getScore).reversed();
+
+    private final Path root;
+    private final LinkedHashMap<String, LibraryManagementSystem> shards = new LinkedHashMap<>();
+    private final List<String> branches;
+    private final ExecutorService executor;
+    private final LibraryMetrics metrics = new LibraryMetrics();
+    private final LatencyHistogram searchLatency = metrics.histogram("sharded.search");
+    private final LatencyHistogram rankedSearchLatency = metrics.histogram("sharded.search.ranked");
+    private final LatencyHistogram transferLatency = metrics.histogram("sharded.transfer");
+
+    ShardedCatalog(Path root, List<String> branches) {
+        if (branches.isEmpty()) {
+            throw new IllegalArgumentException("At least one branch is needed");
+        }
+        this.root = root;
+        for (String branch : branches) {
+            if (shards.put(branch, new LibraryManagementSystem(root.resolve(branch))) != null) {
+                throw new IllegalArgumentException("Duplicate branch " + branch);
+            }
+        }
+        this.branches = List.copyOf(branches);
+        this.executor = Executors.newFixedThreadPool(branches.size(), r -> {
+            Thread t = new Thread(r, "library-shard-worker");
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    // Recover (or start) each shard's journal in its own directory, in parallel
+    public void openJournals() throws IOException {
+        for (String branch : branches) {
+            Path dir = root.resolve(branch);
+            Files.createDirectories(dir);
+            for (String name : new String[] {"books.txt", "users.txt"}) {
+                if (!Files.exists(dir.resolve(name))) {
+                    Files.createFile(dir.resolve(name));
+                }
+            }
+        }
+        for (Exception e : scatter((branch, shard) -> {
+            try {
+                shard.openJournal(shard.getDataDir());
+                return null;
+            } catch (IOException ex) {
+                return ex;
+            }
+        })) {
+            if (e != null) {
+                throw (IOException) e;
+            }
+        }
+    }
+
+    public List<String> getBranches() { return branches; }
+    public LibraryMetrics getMetrics() { return metrics; }
+
+    public LibraryManagementSystem shard(String branch) {
+        LibraryManagementSystem shard = shards.get(branch);
+        if (shard == null) {
+            throw new IllegalArgumentException("Unknown branch " + branch);
+        }
+        return shard;
+    }
+
+    // The branch a book without an owner goes to
+    public String branchFor(Book book) {
+        return branches.get(Math.floorMod(book.getTitleKey().hashCode(), branches.size()));
+    }
+
+    public Holding addBook(Book book) { return addBook(branchFor(book), book); }
+
+    public Holding addBook(String branch, Book book) {
+        shard(branch).addBook(book);
+        return new Holding(branch, book, 0);
+    }
+
+    // Books without an owner, grouped by shard and added one batch per shard in parallel
+    public void addBooks(List<? extends Book> batch) {
+        LinkedHashMap<String, List<Book>> byBranch = new LinkedHashMap<>();
+        for (Book book : batch) {
+            byBranch.computeIfAbsent(branchFor(book), b -> new ArrayList<>()).add(book);
+        }
+        scatter((branch, shard) -> {
+            List<Book> mine = byBranch.get(branch);
+            if (mine != null) {
+                shard.addBooks(mine);
+            }
+            return null;
+        });
+    }
+
+    // Registered with every shard; false if the user ID was already taken everywhere
+    public boolean addUser(User user) {
+        boolean added = false;
+        for (LibraryManagementSystem shard : shards.values()) {
+            added |= shard.addUser(user);
+        }
+        return added;
+    }
+
+    public Holding findBook(String branch, int id) {
+        Book book = shard(branch).findBookById(id);
+        return book == null ? null : new Holding(branch, book, 0);
+    }
+
+    // Search every branch in parallel; at most limit results, in title/author order
+    public List<Holding> searchBooks(String title, String author, String category, String publicationDate, Boolean isAvailable, int limit) {
+        long start = System.nanoTime();
+        try {
+            List<List<Holding>> perShard = scatter((branch, shard) -> {
+                List<Holding> sorted = new ArrayList<>();
+                for (Book book : shard.searchBooks(title, author, category, publicationDate, isAvailable, TITLE_ORDER, limit)) {
+                    sorted.add(new Holding(branch, book, 0));
+                }
+                return sorted;
+            });
+            return merge(perShard, BY_TITLE, limit);
+        } finally {
+            searchLatency.recordSince(start);
+        }
+    }
+
+    // Ranked search on every branch in parallel; the best limit hits overall
+    public List<Holding> searchRanked(String query, int limit, boolean fuzzy) {
+        long start = System.nanoTime();
+        try {
+            List<List<Holding>> perShard = scatter((branch, shard) -> {
+                List<Holding> hits = new ArrayList<>();
+                for (RankedIndex.Hit hit : shard.searchRanked(query, limit, fuzzy)) {
+                    hits.add(new Holding(branch, hit.getBook(), hit.getScore()));
+                }
+                return hits;
+            });
+            return merge(perShard, BY_SCORE, limit);
+        } finally {
+            rankedSearchLatency.recordSince(start);
+        }
+    }
+
+    // k-way merge of lists already sorted by order, stopping after limit
+    static List<Holding> merge(List<List<Holding>> sortedLists, Comparator<Holding> order, int limit) {
+        // heap of {list, position}; ties go to the earlier list, i.e. branch order
+        PriorityQueue<int[]> heads = new PriorityQueue<>((a, b) -> {
+            int c = order.compare(sortedLists.get(a[0]).get(a[1]), sortedLists.get(b[0]).get(b[1]));
+            return c != 0 ? c : Integer.compare(a[0], b[0]);
+        });
+        for (int i = 0; i < sortedLists.size(); i++) {
+            if (!sortedLists.get(i).isEmpty()) {
+                heads.add(new int[] {i, 0});
+            }
+        }
+        List<Holding> merged = new ArrayList<>(Math.min(limit, 1024));
+        while (merged.size() < limit && !heads.isEmpty()) {
+            int[] head = heads.poll();
+            List<Holding> list = sortedLists.get(head[0]);
+            merged.add(list.get(head[1]));
+            if (++head[1] < list.size()) {
+                heads.add(head);
+            }
+        }
+        return merged;
+    }
+
+    // An available copy of the title, trying the preferred branch first and then the others
+    // (in parallel); null if every copy everywhere is out
+    public Holding findAvailableCopy(String title, String preferredBranch) {
+        if (preferredBranch != null) {
+            Book local = shard(preferredBranch).findAvailableCopy(title);
+            if (local != null) {
+                return new Holding(preferredBranch, local, 0);
+            }
+        }
+        List<Book> found = scatter((branch, shard) -> branch.equals(preferredBranch) ? null : shard.findAvailableCopy(title));
+        for (int i = 0; i < found.size(); i++) {
+            if (found.get(i) != null) {
+                return new Holding(branches.get(i), found.get(i), 0);
+            }
+        }
+        return null;
+    }
+
+    // Copies of the title on the shelf at each branch that has the title at all
+    public LinkedHashMap<String, Integer> availability(String title) {
+        List<Integer> counts = scatter((branch, shard) -> shard.hasTitle(title) ? shard.countAvailableCopies(title) : null);
+        LinkedHashMap<String, Integer> result = new LinkedHashMap<>();
+        for (int i = 0; i < counts.size(); i++) {
+            if (counts.get(i) != null) {
+                result.put(branches.get(i), counts.get(i));
+            }
+        }
+        return result;
+    }
+
+    // Lend a copy at its own branch; null if it is not on the shelf or the user is unknown there
+    public Loan checkOut(String userID, Holding holding) {
+        LibraryManagementSystem shard = shard(holding.getBranch());
+        User user = shard.findUserById(userID);
+        return user == null ? null : shard.checkOut(user, holding.getBook());
+    }
+
+    public Loan returnLoan(String branch, long loanId) { return shard(branch).returnLoan(loanId); }
+
+    // Move a copy that is on the shelf to another branch. The copy is taken off the shelf
+    // first (the same CAS as a checkout, so it cannot be lent meanwhile), added to the
+    // destination under a new ID and only then removed from the source; a crash in between
+    // leaves the copy in both catalogs rather than in neither. Returns the copy at its new
+    // branch, or null if it was out on loan or set aside for a hold.
+    public Holding transfer(Holding holding, String toBranch) {
+        long start = System.nanoTime();
+        try {
+            LibraryManagementSystem from = shard(holding.getBranch());
+            LibraryManagementSystem to = shard(toBranch);
+            Book book = holding.getBook();
+            if (from == to || from.findBookById(book.getId()) != book || !book.compareAndSetAvailable(true, false)) {
+                return null;
+            }
+            // Same kind, genre/subject and fields, through the journal's record format
+            Book moved = LibraryJournal.bookFromFields(LibraryJournal.split(LibraryJournal.bookRecord(book)), 1);
+            moved.setId(0);
+            moved.setAvailable(true);
+            try {
+                to.addBook(moved);
+            } catch (RuntimeException e) {
+                book.setAvailable(true);  // back on the source shelf
+                throw e;
+            }
+            from.removeBook(book);
+            return new Holding(toBranch, moved, 0);
+        } finally {
+            transferLatency.recordSince(start);
+        }
+    }
+
+    // Run task on every shard in parallel; results in branch order
+    private <T> List<T> scatter(BiFunction<String, LibraryManagementSystem, T> task) {
+        List<Future<T>> futures = new ArrayList<>(shards.size());
+        for (Map.Entry<String, LibraryManagementSystem> e : shards.entrySet()) {
+            futures.add(executor.submit(() -> task.apply(e.getKey(), e.getValue())));
+        }
+        List<T> results = new ArrayList<>(futures.size());
+        for (int i = 0; i < futures.size(); i++) {
+            try {
+                results.add(futures.get(i).get());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("Interrupted while waiting for branch " + branches.get(i), e);
+            } catch (ExecutionException e) {
+                throw new IllegalStateException("Branch " + branches.get(i) + " failed", e.getCause());
+            }
+        }
+        return results;
+    }
+
+    // Flush and close every shard's journal
+    @Override
+    public void close() {
+        for (LibraryManagementSystem shard : shards.values()) {
+            shard.closeJournal();
+        }
+        executor.shutdownNow();
+    }
+}
@@ -0,0 +1,50 @@
+import java.text.Normalizer;
+import java.util.Locale;
+
+// Normalized keys used for matching and duplicate detection: Unicode NFKC, case
+// folding, trimmed with runs of whitespace collapsed to one space. Books fold their
+// title, author and category once when created, and searches fold the query once,
+// so matching never re-folds per row.
+final class TextKeys {
+    private TextKeys() {}
+
+    static String fold(String text) {
+        if (text == null) {
+            return "";
+        }
+        if (isFolded(text)) {
+            return text;
+        }
+        String s = Normalizer.normalize(text, Normalizer.Form.NFKC);
+        // Upper then lower, so a German sharp s and "SS" end up as the same key
+        s = s.toUpperCase(Locale.ROOT).toLowerCase(Locale.ROOT);
+        StringBuilder sb = new StringBuilder(s.length());
+        boolean space = false;
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            if (Character.isWhitespace(c) || Character.isSpaceChar(c)) {
+                space = sb.length() > 0;
+            } else {
+                if (space) {
+                    sb.append(' ');
+                    space = false;
+                }
+                sb.append(c);
+            }
+        }
+        return sb.toString();
+    }
+
+    // Lower-case ASCII with single inner spaces is already its own key (the common case)
+    private static boolean isFolded(String s) {
+        char prev = ' ';
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            if (c >= 0x80 || (c >= 'A' && c <= 'Z') || (c < 0x20) || (c == ' ' && prev == ' ') || c == 0x7f) {
+                return false;
+            }
+            prev = c;
+        }
+        return prev != ' ' || s.isEmpty();
+    }
+}
@@ -0,0 +1,12 @@
+#!/bin/sh
+# Compile the sources and run the LibraryBenchmark suite.
+#   ./bench.sh                                  all sizes (10k, 1M, 10M), needs a large heap
+#   ./bench.sh --sizes 10000 --only search      quick run
+# Results are printed and written as JSON (--json, default bench-results.json).
+# BENCH_HEAP sets the JVM heap (default 12g).
+set -e
+cd "$(dirname "$0")"
+OUT=$(mktemp -d)
+trap 'rm -rf "$OUT"' EXIT
+javac -nowarn -d "$OUT" *.java
+java -Xms"${BENCH_HEAP:-12g}" -Xmx"${BENCH_HEAP:-12g}" -cp "$OUT" LibraryBenchmark "$@"